@@ -0,0 +1,26 @@
+package sh.ball.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Main class of benchmarks.jar. Takes the same arguments as JMH's own runner,
+// but writes the results as JSON to target/jmh-result.json unless another
+// format or file is given, so that results can be compared across releases.
+public class BenchmarkRunner {
+
+  private static final String DEFAULT_RESULT_FILE = "target/jmh-result.json";
+
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions options = new CommandLineOptions(args);
+    ChainedOptionsBuilder builder = new OptionsBuilder().parent(options);
+    if (options.getResultFormat().hasValue() || options.getResult().hasValue()) {
+      new Runner(builder.build()).run();
+      return;
+    }
+    builder.resultFormat(ResultFormatType.JSON).result(DEFAULT_RESULT_FILE);
+    new Runner(builder.build()).run();
+  }
+}
@@ -0,0 +1,110 @@
+package sh.ball.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sh.ball.audio.effect.*;
+import sh.ball.math.BlockKernels;
+import sh.ball.shapes.MutableVector2;
+
+import java.util.concurrent.TimeUnit;
+
+// Samples per microsecond that each effect with a block form can process.
+// "sample" applies the effect to one MutableVector2 at a time as the player
+// does when the chain isn't blockable, "scalar" applies it to the block with
+// the plain Java kernels and "simd" with the Vector API kernels. "cutoff" is
+// the player's clamp to [-1, 1]. Every invocation first copies in a fresh
+// block so that the effects don't drift, which is included in the time.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Dsh.ball.headless=true", "--add-modules=jdk.incubator.vector"})
+public class BlockEffectBenchmark {
+
+  private static final int SAMPLES = 512;
+
+  @Param({"bitCrush", "verticalDistort", "horizontalDistort", "vectorCancelling", "cutoff"})
+  public String effect;
+
+  @Param({"sample", "scalar", "simd"})
+  public String kernels;
+
+  private final MutableVector2 vector = new MutableVector2();
+  private final double[] xs = new double[SAMPLES];
+  private final double[] ys = new double[SAMPLES];
+  private final double[] x = new double[SAMPLES];
+  private final double[] y = new double[SAMPLES];
+  private BlockEffect blockEffect;
+  private BlockKernels blockKernels;
+  private int count = 0;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    blockEffect = switch (effect) {
+      case "bitCrush" -> settable(new BitCrushEffect(), 0.3);
+      case "verticalDistort" -> new VerticalDistortEffect(0.2);
+      case "horizontalDistort" -> new HorizontalDistortEffect(0.2);
+      case "vectorCancelling" -> settable(new VectorCancellingEffect(), 0.3);
+      default -> null;
+    };
+    if (kernels.equals("simd") && !BlockKernels.isSimdAvailable()) {
+      throw new IllegalStateException("The Vector API isn't available, build with -P simd");
+    }
+    BlockKernels.setSimd(kernels.equals("simd"));
+    blockKernels = BlockKernels.current();
+    for (int i = 0; i < SAMPLES; i++) {
+      double theta = 2 * Math.PI * i / SAMPLES;
+      xs[i] = 1.2 * Math.cos(theta);
+      ys[i] = 1.2 * Math.sin(theta);
+    }
+  }
+
+  private static <T extends SettableEffect & BlockEffect> T settable(T effect, double value) {
+    effect.setValue(value);
+    return effect;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SAMPLES)
+  public double apply() {
+    System.arraycopy(xs, 0, x, 0, SAMPLES);
+    System.arraycopy(ys, 0, y, 0, SAMPLES);
+    if (kernels.equals("sample")) {
+      applySamples();
+    } else if (blockEffect == null) {
+      blockKernels.clamp(x, SAMPLES, -1, 1);
+      blockKernels.clamp(y, SAMPLES, -1, 1);
+    } else {
+      blockEffect.apply(count, x, y, SAMPLES, blockKernels);
+    }
+    count = (count + SAMPLES) % 8192;
+    return x[SAMPLES - 1] + y[SAMPLES / 2];
+  }
+
+  private void applySamples() {
+    for (int i = 0; i < SAMPLES; i++) {
+      vector.set(x[i], y[i]);
+      if (blockEffect == null) {
+        cutoff(vector);
+      } else {
+        blockEffect.apply(count + i, vector);
+      }
+      x[i] = vector.x;
+      y[i] = vector.y;
+    }
+  }
+
+  // as in ShapeAudioPlayer
+  private static void cutoff(MutableVector2 vector) {
+    if (vector.x < -1) {
+      vector.x = -1;
+    } else if (vector.x > 1) {
+      vector.x = 1;
+    }
+    if (vector.y < -1) {
+      vector.y = -1;
+    } else if (vector.y > 1) {
+      vector.y = 1;
+    }
+  }
+}
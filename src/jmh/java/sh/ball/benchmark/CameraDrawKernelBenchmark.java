@@ -0,0 +1,47 @@
+package sh.ball.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sh.ball.engine.Camera;
+import sh.ball.engine.Vector3;
+import sh.ball.engine.WorldObject;
+import sh.ball.shapes.Shape;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Time taken by CameraDrawKernel to project an object into a frame on the CPU,
+// with and without hidden edge removal. The object is rotated before each
+// draw, as ObjFrameSource does.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dsh.ball.headless=true")
+public class CameraDrawKernelBenchmark {
+
+  private static final Vector3 ROTATION = new Vector3(0.01, 0.02, 0);
+
+  @Param({Fixtures.CUBE_OBJ, Fixtures.SPHERE_OBJ})
+  public String fixture;
+
+  @Param({"false", "true"})
+  public boolean hideEdges;
+
+  private WorldObject object;
+  private Camera camera;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    object = new WorldObject(Fixtures.stream(Fixtures.bytes(fixture)));
+    camera = new Camera(new Vector3());
+    camera.findZPos(object);
+    camera.hideEdges(hideEdges);
+  }
+
+  @Benchmark
+  public List<Shape> draw() {
+    object.rotate(ROTATION);
+    return camera.kernel.draw(camera, object);
+  }
+}
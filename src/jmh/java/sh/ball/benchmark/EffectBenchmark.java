@@ -0,0 +1,102 @@
+package sh.ball.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sh.ball.audio.effect.*;
+import sh.ball.cli.Project;
+import sh.ball.parser.lua.LuaExecutor;
+import sh.ball.shapes.MutableVector2;
+import sh.ball.shapes.Vector2;
+
+import java.util.concurrent.TimeUnit;
+
+// Time taken by each Effect to process a sample in place, as the audio thread
+// does. Effects are created with the same defaults as the GUI and the sample
+// fed to them moves around a circle so that no effect sees a constant input.
+//
+// EffectAnimator is measured wrapping a BitCrushEffect with a seesaw animation,
+// which is the cost it adds on top of every effect it animates.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dsh.ball.headless=true")
+public class EffectBenchmark {
+
+  private static final int SAMPLE_RATE = 48000;
+  private static final int SAMPLES = 1024;
+
+  @Param({
+    "BitCrush", "Consumer", "EffectAnimator", "HorizontalDistort", "Perspective", "Rotate",
+    "Sine", "Smooth", "Translate", "VectorCancelling", "VerticalDistort", "Wobble"
+  })
+  public String effectName;
+
+  private final MutableVector2 vector = new MutableVector2();
+  private final double[] xs = new double[SAMPLES];
+  private final double[] ys = new double[SAMPLES];
+  private Effect effect;
+  private int count = 0;
+  private double consumed;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    effect = createEffect(effectName);
+    for (int i = 0; i < SAMPLES; i++) {
+      double theta = 2 * Math.PI * i / SAMPLES;
+      xs[i] = 0.5 * Math.cos(theta);
+      ys[i] = 0.5 * Math.sin(theta);
+    }
+  }
+
+  private Effect createEffect(String name) {
+    return switch (name) {
+      case "BitCrush" -> settable(new BitCrushEffect(), 0.6666666);
+      case "Consumer" -> settable(new ConsumerEffect(value -> consumed = value), 0.5);
+      case "EffectAnimator" -> {
+        EffectAnimator animator = new EffectAnimator(SAMPLE_RATE, new BitCrushEffect());
+        animator.setValue(0.6666666);
+        animator.setAnimation(AnimationType.SEESAW);
+        yield animator;
+      }
+      case "HorizontalDistort" -> settable(new HorizontalDistortEffect(0.2), 0.2);
+      case "Perspective" -> {
+        LuaExecutor executor = new LuaExecutor(LuaExecutor.STANDARD_GLOBALS);
+        executor.setScript(Project.DEFAULT_DEPTH_FUNCTION);
+        PerspectiveEffect perspective = new PerspectiveEffect(executor);
+        perspective.setRotateSpeed(0.1);
+        yield settable(perspective, 1);
+      }
+      case "Rotate" -> settable(new RotateEffect(SAMPLE_RATE), 0.5);
+      case "Sine" -> new SineEffect(SAMPLE_RATE, 440, 0.5);
+      case "Smooth" -> settable(new SmoothEffect(1), 0.125);
+      case "Translate" -> settable(new TranslateEffect(SAMPLE_RATE, 1, new Vector2(0.25, 0.25)), 1);
+      case "VectorCancelling" -> settable(new VectorCancellingEffect(), 0.11111111);
+      case "VerticalDistort" -> settable(new VerticalDistortEffect(0.2), 0.2);
+      case "Wobble" -> {
+        WobbleEffect wobble = new WobbleEffect(SAMPLE_RATE);
+        wobble.updateFrequency(440, 440);
+        wobble.update();
+        yield settable(wobble, 0.2);
+      }
+      default -> throw new IllegalArgumentException("Unknown effect " + name);
+    };
+  }
+
+  private static Effect settable(SettableEffect effect, double value) {
+    effect.setValue(value);
+    return effect;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SAMPLES)
+  public double apply() {
+    double sum = 0;
+    for (int i = 0; i < SAMPLES; i++) {
+      vector.set(xs[i], ys[i]);
+      effect.apply(count++, vector);
+      sum += vector.x + vector.y;
+    }
+    return sum + consumed;
+  }
+}
@@ -0,0 +1,128 @@
+package sh.ball.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sh.ball.audio.effect.*;
+import sh.ball.shapes.MutableVector2;
+import sh.ball.shapes.Vector2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Time taken per sample by a chain of effects followed by the volume and a
+// flip. "fused" runs it through an EffectChain, which collapses static
+// affine effects into one transform per block, and "sequential" applies each
+// effect to the vector in turn as ShapeAudioPlayer used to. Each invocation
+// is one block.
+//
+// "static" is the GUI's defaults: the sliders that are always enabled, which
+// only pass on their value, and a translation. "animated" adds a rotation
+// and effects that change every sample, and "mixed" adds non-linear ones.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dsh.ball.headless=true")
+public class EffectChainBenchmark {
+
+  private static final int SAMPLE_RATE = 48000;
+  private static final int SAMPLES = 512;
+  private static final int ALWAYS_ENABLED_SLIDERS = 10;
+  private static final double VOLUME = 0.7;
+
+  @Param({"fused", "sequential"})
+  public String chain;
+
+  // the effects in precedence order, as ShapeAudioPlayer sorts them
+  @Param({"static", "animated", "mixed"})
+  public String effects;
+
+  private final MutableVector2 vector = new MutableVector2();
+  private final double[] xs = new double[SAMPLES];
+  private final double[] ys = new double[SAMPLES];
+  private List<Effect> effectList;
+  private EffectChain effectChain;
+  private int count = 0;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    effectList = switch (effects) {
+      case "static" -> staticEffects();
+      case "animated" -> animatedEffects();
+      default -> mixedEffects();
+    };
+    effectChain = new EffectChain(effectList);
+    for (int i = 0; i < SAMPLES; i++) {
+      double theta = 2 * Math.PI * i / SAMPLES;
+      xs[i] = 0.5 * Math.cos(theta);
+      ys[i] = 0.5 * Math.sin(theta);
+    }
+  }
+
+  private static List<Effect> staticEffects() {
+    List<Effect> effects = new ArrayList<>();
+    for (int i = 0; i < ALWAYS_ENABLED_SLIDERS; i++) {
+      effects.add(animated(new ConsumerEffect(value -> {}), 0.5));
+    }
+    effects.add(animated(new TranslateEffect(SAMPLE_RATE, 1, new Vector2(0.25, 0.25)), 1));
+    return effects;
+  }
+
+  private static List<Effect> animatedEffects() {
+    return List.of(
+      animated(new ConsumerEffect(value -> {}), 0.5),
+      animated(new VectorCancellingEffect(), 0.11111111),
+      animated(new VerticalDistortEffect(0.2), 0.2),
+      animated(new HorizontalDistortEffect(0.2), 0.2),
+      animated(new RotateEffect(SAMPLE_RATE), 1),
+      animated(new TranslateEffect(SAMPLE_RATE, 1, new Vector2(0.25, 0.25)), 1)
+    );
+  }
+
+  private static List<Effect> mixedEffects() {
+    return List.of(
+      animated(new ConsumerEffect(value -> {}), 0.5),
+      animated(new VectorCancellingEffect(), 0.11111111),
+      animated(new BitCrushEffect(), 0.6666666),
+      animated(new VerticalDistortEffect(0.2), 0.2),
+      animated(new RotateEffect(SAMPLE_RATE), 1),
+      animated(new TranslateEffect(SAMPLE_RATE, 1, new Vector2(0.25, 0.25)), 1),
+      animated(new SmoothEffect(1), 0.125)
+    );
+  }
+
+  // every effect is wrapped in an EffectAnimator by the GUI
+  private static Effect animated(SettableEffect effect, double value) {
+    EffectAnimator animator = new EffectAnimator(SAMPLE_RATE, effect, 0, 10);
+    animator.setValue(value);
+    return animator;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SAMPLES)
+  public double apply() {
+    boolean fused = chain.equals("fused");
+    if (fused) {
+      effectChain.beginBlock();
+    }
+    double sum = 0;
+    for (int i = 0; i < SAMPLES; i++) {
+      vector.set(xs[i], ys[i]);
+      if (fused) {
+        effectChain.apply(count, vector);
+        vector.x *= -VOLUME;
+        vector.y *= VOLUME;
+      } else {
+        for (Effect effect : effectList) {
+          effect.apply(count, vector);
+        }
+        vector.scale(VOLUME);
+        vector.x = -vector.x;
+      }
+      count++;
+      sum += vector.x + vector.y;
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,38 @@
+package sh.ball.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+// Files from src/jmh/resources/fixtures that the benchmarks render. They are
+// read into memory once so that no benchmark measures the disk.
+//
+// cube.obj, demo.svg and demo.lua are copies of the files bundled with the
+// app. sphere.obj is an icosphere and roses.svg is three rose curves made of
+// cubic beziers, which give the OBJ and SVG paths a more realistic size.
+final class Fixtures {
+
+  static final String CUBE_OBJ = "cube.obj";
+  static final String SPHERE_OBJ = "sphere.obj";
+  static final String DEMO_SVG = "demo.svg";
+  static final String ROSES_SVG = "roses.svg";
+  static final String DEMO_LUA = "demo.lua";
+
+  private Fixtures() {}
+
+  static byte[] bytes(String name) {
+    try (InputStream input = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+      if (input == null) {
+        throw new IllegalArgumentException("No fixture called " + name);
+      }
+      return input.readAllBytes();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  static InputStream stream(byte[] bytes) {
+    return new ByteArrayInputStream(bytes);
+  }
+}
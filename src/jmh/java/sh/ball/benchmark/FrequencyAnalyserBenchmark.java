@@ -0,0 +1,54 @@
+package sh.ball.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sh.ball.audio.FrequencyAnalyser;
+import sh.ball.math.fft.FFT;
+
+import java.util.concurrent.TimeUnit;
+
+// Time taken by FrequencyAnalyser to find the frequency of both channels of
+// one window it reads from the audio player, at the window sizes it uses at
+// 48kHz, 96kHz and 192kHz. fftPerChannel is the old approach of a new FFT for
+// each channel, for comparison.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dsh.ball.headless=true")
+public class FrequencyAnalyserBenchmark {
+
+  @Param({"48000", "96000", "192000"})
+  public int sampleRate;
+
+  private FrequencyAnalyser.Window window;
+  private float[] buf;
+  private double[] samples;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    // the analyser only reads from the player in run()
+    window = new FrequencyAnalyser<>(null, sampleRate).window();
+    int frames = window.frames();
+    buf = new float[frames * 2];
+    samples = new double[frames];
+    for (int i = 0; i < frames; i++) {
+      samples[i] = 0.5 * Math.sin(2 * Math.PI * 440 * i / sampleRate)
+        + 0.25 * Math.sin(2 * Math.PI * 1320 * i / sampleRate);
+      buf[2 * i] = (float) samples[i];
+      buf[2 * i + 1] = (float) samples[i];
+    }
+  }
+
+  @Benchmark
+  public double analyseWindow() {
+    window.analyse(buf);
+    return window.leftFrequency() + window.rightFrequency();
+  }
+
+  @Benchmark
+  public double[] fftPerChannel() throws Exception {
+    new FFT(samples, null, false, true).getMagnitudeSpectrum();
+    return new FFT(samples, null, false, true).getMagnitudeSpectrum();
+  }
+}
@@ -0,0 +1,44 @@
+package sh.ball.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sh.ball.cli.Project;
+import sh.ball.parser.lua.LuaExecutor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// Time taken to run a Lua script once, which happens for every sample when
+// playing a .lua file or using a depth function.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Dsh.ball.headless=true", "-Dorg.luaj.luajc=true"})
+public class LuaExecutorBenchmark {
+
+  @Param({"demo.lua", "depthFunction"})
+  public String script;
+
+  private LuaExecutor executor;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    executor = new LuaExecutor(LuaExecutor.STANDARD_GLOBALS);
+    if (script.equals("depthFunction")) {
+      executor.setScript(Project.DEFAULT_DEPTH_FUNCTION);
+    } else {
+      executor.setScript(new String(Fixtures.bytes(script), StandardCharsets.UTF_8));
+    }
+    executor.setVariable("slider_a", 1.0);
+    executor.setVariable("slider_b", 1.0);
+  }
+
+  @Benchmark
+  public Object execute() {
+    executor.setVariable("x", 0.25);
+    executor.setVariable("y", 0.5);
+    executor.setVariable("z", 0.0);
+    return executor.execute();
+  }
+}
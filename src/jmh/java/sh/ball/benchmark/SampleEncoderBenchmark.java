@@ -0,0 +1,48 @@
+package sh.ball.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sh.ball.audio.engine.AudioSample;
+import sh.ball.audio.engine.SampleEncoder;
+
+import java.util.concurrent.TimeUnit;
+
+// Samples per microsecond that XtAudioEngine can convert from the rendered
+// float block to each sample format, with and without dither. Dither is
+// ignored by the float formats.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dsh.ball.headless=true")
+public class SampleEncoderBenchmark {
+
+  // a 512 frame stereo block
+  private static final int SAMPLES = 1024;
+
+  @Param({"UINT8", "INT8", "INT16", "INT24", "INT32", "FLOAT32", "FLOAT64"})
+  public AudioSample sample;
+
+  @Param({"false", "true"})
+  public boolean dither;
+
+  private final float[] block = new float[SAMPLES];
+  private SampleEncoder encoder;
+  private Object output;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    encoder = SampleEncoder.of(sample, dither);
+    output = encoder.allocate(SAMPLES);
+    for (int i = 0; i < SAMPLES; i++) {
+      block[i] = (float) Math.sin(2 * Math.PI * i / SAMPLES);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SAMPLES)
+  public Object encode() {
+    encoder.encode(block, output, SAMPLES);
+    return output;
+  }
+}
@@ -0,0 +1,162 @@
+package sh.ball.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sh.ball.audio.FrameSource;
+import sh.ball.audio.ShapeAudioPlayer;
+import sh.ball.audio.engine.*;
+import sh.ball.audio.midi.MidiCommunicator;
+import sh.ball.parser.ParserFactory;
+import sh.ball.parser.obj.ObjSettingsFactory;
+import sh.ball.parser.txt.FontStyle;
+import sh.ball.shapes.Shape;
+import sh.ball.shapes.Vector2;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+// Time taken by ShapeAudioPlayer to generate each sample, including drawing
+// the frame, applying the effects and pulling new frames from the parsed
+// file. Each invocation renders 48000 frames on a VirtualAudioEngine.
+// OBJ files are rotated so that a new frame is drawn by the camera each time.
+//
+// generateBlocks renders in the VirtualAudioEngine's default blocks, while
+// generateSamples asks for one frame at a time, which is the cost of calling
+// the player for every sample. generateLegacySamples goes further and plays
+// through the legacy Callable<Vector2> contract and ChannelGeneratorRenderer,
+// allocating a Vector2 for every sample as the old engines did.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dsh.ball.headless=true")
+public class ShapeAudioPlayerBenchmark {
+
+  private static final int FRAMES = 48000;
+  private static final double OBJ_ROTATE_SPEED = 0.01;
+
+  @Param({Fixtures.DEMO_SVG, Fixtures.ROSES_SVG, Fixtures.CUBE_OBJ, Fixtures.SPHERE_OBJ})
+  public String fixture;
+
+  @Param({"48000", "96000", "192000"})
+  public int sampleRate;
+
+  private VirtualAudioEngine blockEngine;
+  private ShapeAudioPlayer blockPlayer;
+  private VirtualAudioEngine sampleEngine;
+  private ShapeAudioPlayer samplePlayer;
+  private VirtualAudioEngine legacyEngine;
+  private ShapeAudioPlayer legacyPlayer;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    AudioDevice device = new SimpleAudioDevice("benchmark", "Benchmark", sampleRate, AudioSample.FLOAT32, 2);
+    blockEngine = new VirtualAudioEngine(device);
+    blockPlayer = player(blockEngine, device);
+    sampleEngine = new VirtualAudioEngine(device, 1);
+    samplePlayer = player(sampleEngine, device);
+    legacyEngine = new VirtualAudioEngine(device);
+    legacyPlayer = player(new LegacyAudioEngine(legacyEngine), legacyEngine, device);
+  }
+
+  private ShapeAudioPlayer player(VirtualAudioEngine engine, AudioDevice device) throws Exception {
+    return player(engine, engine, device);
+  }
+
+  private ShapeAudioPlayer player(AudioEngine audioEngine, VirtualAudioEngine engine, AudioDevice device) throws Exception {
+    ShapeAudioPlayer audioPlayer = new ShapeAudioPlayer(() -> audioEngine, new MidiCommunicator());
+    audioPlayer.setDevice(device);
+
+    FrameSource<List<Shape>> frames = ParserFactory.getParser(fixture, Fixtures.bytes(fixture), "SansSerif", FontStyle.PLAIN).parse();
+    frames.setFrameSettings(ObjSettingsFactory.rotateSpeed(OBJ_ROTATE_SPEED));
+    audioPlayer.setFrameSource(frames);
+    return audioPlayer;
+  }
+
+  private long render(VirtualAudioEngine engine, ShapeAudioPlayer audioPlayer) {
+    engine.setDuration(engine.framesRendered() + FRAMES);
+    audioPlayer.run();
+    return engine.framesRendered();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(FRAMES)
+  public long generateBlocks() {
+    return render(blockEngine, blockPlayer);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(FRAMES)
+  public long generateSamples() {
+    return render(sampleEngine, samplePlayer);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(FRAMES)
+  public long generateLegacySamples() {
+    return render(legacyEngine, legacyPlayer);
+  }
+
+  // Plays a BlockRenderer through the legacy contract: each sample is
+  // rendered on its own, returned as a new Vector2 and written back into a
+  // block by the VirtualAudioEngine's ChannelGeneratorRenderer.
+  private static class LegacyAudioEngine implements AudioEngine {
+
+    private final VirtualAudioEngine engine;
+
+    private LegacyAudioEngine(VirtualAudioEngine engine) {
+      this.engine = engine;
+    }
+
+    @Override
+    public void play(BlockRenderer renderer, AudioDevice device) throws Exception {
+      renderer.prepare(1, device.channels());
+      float[] frame = new float[device.channels()];
+      play(() -> {
+        renderer.render(frame, 1, device.channels());
+        return new Vector2(frame[0], frame[1]);
+      }, device);
+    }
+
+    @Override
+    public void play(Callable<Vector2> channelGenerator, AudioDevice device) throws Exception {
+      engine.play(channelGenerator, device);
+    }
+
+    @Override
+    public boolean isPlaying() {
+      return engine.isPlaying();
+    }
+
+    @Override
+    public void stop() {
+      engine.stop();
+    }
+
+    @Override
+    public List<AudioDevice> devices() {
+      return engine.devices();
+    }
+
+    @Override
+    public AudioDevice getDefaultDevice() {
+      return engine.getDefaultDevice();
+    }
+
+    @Override
+    public AudioDevice currentDevice() {
+      return engine.currentDevice();
+    }
+
+    @Override
+    public void setBrightness(double brightness) {
+      engine.setBrightness(brightness);
+    }
+
+    @Override
+    public RenderMetrics metrics() {
+      return engine.metrics();
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package sh.ball.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sh.ball.audio.FrameSource;
+import sh.ball.parser.svg.SvgParser;
+import sh.ball.shapes.Shape;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Time taken to parse an SVG file into shapes, from the raw bytes.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dsh.ball.headless=true")
+public class SvgParserBenchmark {
+
+  @Param({Fixtures.DEMO_SVG, Fixtures.ROSES_SVG})
+  public String fixture;
+
+  private byte[] svg;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    svg = Fixtures.bytes(fixture);
+  }
+
+  @Benchmark
+  public FrameSource<List<Shape>> parse() throws Exception {
+    return new SvgParser(Fixtures.stream(svg)).parse();
+  }
+}
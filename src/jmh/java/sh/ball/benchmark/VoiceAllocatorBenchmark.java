@@ -0,0 +1,51 @@
+package sh.ball.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sh.ball.audio.midi.VoiceAllocator;
+import sh.ball.shapes.MutableVector2;
+
+import java.util.concurrent.TimeUnit;
+
+// Time taken per sample to advance every voice's envelope and mix the
+// backing notes, as ShapeAudioPlayer does for each sample while MIDI notes
+// are held.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dsh.ball.headless=true")
+public class VoiceAllocatorBenchmark {
+
+  private static final int SAMPLE_RATE = 48000;
+  private static final int SAMPLES = 1024;
+  private static final int BASE_KEY = 36;
+
+  @Param({"1", "8", "32"})
+  public int notes;
+
+  private final MutableVector2 vector = new MutableVector2();
+  private VoiceAllocator voices;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    voices = new VoiceAllocator(SAMPLE_RATE);
+    for (int i = 0; i < notes; i++) {
+      voices.noteOn(0, BASE_KEY + i, 100);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SAMPLES)
+  public double tickAndMix() {
+    double sum = 0;
+    for (int i = 0; i < SAMPLES; i++) {
+      voices.tick();
+      vector.set(0.5, 0.5);
+      vector.scale(voices.level(0, BASE_KEY));
+      voices.mix(0, BASE_KEY, 0.25, vector);
+      sum += vector.x + vector.y;
+    }
+    return sum;
+  }
+}
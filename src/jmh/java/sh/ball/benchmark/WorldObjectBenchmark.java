@@ -0,0 +1,32 @@
+package sh.ball.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sh.ball.engine.WorldObject;
+
+import java.util.concurrent.TimeUnit;
+
+// Time taken to load an OBJ file into a WorldObject, which is dominated by
+// finding a path that draws every edge.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dsh.ball.headless=true")
+public class WorldObjectBenchmark {
+
+  @Param({Fixtures.CUBE_OBJ, Fixtures.SPHERE_OBJ})
+  public String fixture;
+
+  private byte[] obj;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    obj = Fixtures.bytes(fixture);
+  }
+
+  @Benchmark
+  public WorldObject generatePath() throws Exception {
+    return new WorldObject(Fixtures.stream(obj));
+  }
+}
@@ -3,9 +3,11 @@ package sh.ball.audio;
 import sh.ball.audio.effect.Effect;
 import sh.ball.audio.effect.EffectType;
 import sh.ball.audio.engine.AudioDevice;
+import sh.ball.audio.engine.BroadcastBuffer;
 import sh.ball.audio.midi.MidiListener;
 
-import javax.sound.sampled.AudioInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
 
 public interface AudioPlayer<S> extends Runnable, MidiListener {
@@ -32,17 +34,23 @@ public interface AudioPlayer<S> extends Runnable, MidiListener {
 
   void read(byte[] buffer) throws InterruptedException;
 
+  BroadcastBuffer.Tap tap();
+
   void startRecord();
 
   void setDevice(AudioDevice device);
 
+  boolean swapDevice(AudioDevice device);
+
   AudioDevice getDefaultDevice();
 
   AudioDevice getDevice();
 
   List<AudioDevice> devices();
 
-  AudioInputStream stopRecord();
+  void onDevicesChanged(Runnable listener);
+
+  Path stopRecord() throws IOException;
 
   void setBrightness(double brightness);
 }
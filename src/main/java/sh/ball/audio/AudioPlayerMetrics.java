@@ -0,0 +1,82 @@
+package sh.ball.audio;
+
+import sh.ball.audio.engine.AudioEngineMetrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+// Reads the counters of a ShapeAudioPlayer for JMX. The samples per second
+// are worked out here from the frames rendered, so the audio thread only
+// counts.
+public class AudioPlayerMetrics implements AudioPlayerMetricsMXBean {
+
+  public static final String PLAYER_NAME = "sh.ball:type=AudioPlayer";
+  public static final String ENGINE_NAME = "sh.ball:type=AudioEngine";
+  // reads closer together than this return the previous rate, since the
+  // audio thread renders in blocks
+  private static final long MIN_RATE_NANOS = 250_000_000;
+
+  private final ShapeAudioPlayer audioPlayer;
+
+  private long lastFrames;
+  private long lastNanos;
+  private double samplesPerSecond = 0;
+
+  public AudioPlayerMetrics(ShapeAudioPlayer audioPlayer) {
+    this.audioPlayer = audioPlayer;
+    this.lastFrames = audioPlayer.framesRendered();
+    this.lastNanos = System.nanoTime();
+  }
+
+  // registers the metrics of the player and its audio engine with the
+  // platform MBean server
+  public static void register(ShapeAudioPlayer audioPlayer) throws JMException {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    server.registerMBean(new AudioPlayerMetrics(audioPlayer), new ObjectName(PLAYER_NAME));
+    server.registerMBean(new AudioEngineMetrics(audioPlayer::audioEngine), new ObjectName(ENGINE_NAME));
+  }
+
+  @Override
+  public int getFrameQueueSize() {
+    return audioPlayer.frameQueueSize();
+  }
+
+  @Override
+  public int getFrameQueueCapacity() {
+    return audioPlayer.frameQueueCapacity();
+  }
+
+  @Override
+  public long getDroppedFrames() {
+    return audioPlayer.droppedFrames();
+  }
+
+  @Override
+  public long getReusedFrames() {
+    return audioPlayer.reusedFrames();
+  }
+
+  @Override
+  public long getFramesRendered() {
+    return audioPlayer.framesRendered();
+  }
+
+  @Override
+  public long getDroppedMidiEvents() {
+    return audioPlayer.droppedMidiEvents();
+  }
+
+  @Override
+  public synchronized double getSamplesPerSecond() {
+    long nanos = System.nanoTime();
+    if (nanos - lastNanos >= MIN_RATE_NANOS) {
+      long frames = audioPlayer.framesRendered();
+      samplesPerSecond = (frames - lastFrames) * 1e9 / (nanos - lastNanos);
+      lastFrames = frames;
+      lastNanos = nanos;
+    }
+    return samplesPerSecond;
+  }
+}
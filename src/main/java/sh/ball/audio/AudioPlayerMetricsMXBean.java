@@ -0,0 +1,23 @@
+package sh.ball.audio;
+
+// Health of the frame handoff to the audio thread, exposed over JMX
+public interface AudioPlayerMetricsMXBean {
+
+  int getFrameQueueSize();
+
+  int getFrameQueueCapacity();
+
+  // frames replaced before being drawn in latest-wins mode
+  long getDroppedFrames();
+
+  // times a frame was redrawn in latest-wins mode because no new one was ready
+  long getReusedFrames();
+
+  long getFramesRendered();
+
+  // MIDI events dropped because the audio thread fell behind
+  long getDroppedMidiEvents();
+
+  // frames rendered per second since this was last read
+  double getSamplesPerSecond();
+}
@@ -0,0 +1,110 @@
+package sh.ball.audio;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+// Where each output channel's signal comes from. By default the first two
+// channels carry x and y and every other channel carries the brightness,
+// which drives the Z input of a scope on interfaces with more than two
+// outputs.
+//
+// A channel can instead carry the blanking signal, which is the brightness
+// except on samples where the beam jumps between shapes, where it's zero so
+// that the jump isn't drawn. It can also carry a constant or the x or y of
+// the shape before any effects, MIDI or volume are applied.
+//
+// Channels beyond the end of the map carry the brightness.
+public final class ChannelMap {
+
+  public static final ChannelMap DEFAULT = new ChannelMap(List.of(Route.of(Source.X), Route.of(Source.Y)));
+
+  public enum Source {
+    X,
+    Y,
+    BRIGHTNESS,
+    BLANKING,
+    CONSTANT,
+    SHAPE_X,
+    SHAPE_Y
+  }
+
+  // the constant is only used by Source.CONSTANT
+  public record Route(Source source, double constant) {
+
+    public static Route of(Source source) {
+      return new Route(source, 0);
+    }
+
+    public static Route constant(double value) {
+      return new Route(Source.CONSTANT, value);
+    }
+
+    @Override
+    public String toString() {
+      return source == Source.CONSTANT ? Double.toString(constant) : source.name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+  }
+
+  private final Route[] routes;
+
+  public ChannelMap(List<Route> routes) {
+    this.routes = routes.toArray(new Route[0]);
+  }
+
+  // Parses a comma-separated list with an entry for each channel, each one of
+  // x, y, brightness, blanking, shape-x, shape-y or a number, e.g.
+  // "x,y,blanking,0".
+  public static ChannelMap parse(String map) {
+    List<Route> routes = new ArrayList<>();
+    for (String entry : map.split(",")) {
+      String trimmed = entry.trim();
+      Source source = source(trimmed);
+      routes.add(source == null ? Route.constant(constant(trimmed)) : Route.of(source));
+    }
+    return new ChannelMap(routes);
+  }
+
+  // the named source, or null if there isn't one. A constant is given as a
+  // number rather than by name.
+  private static Source source(String name) {
+    String normalised = name.toUpperCase(Locale.ROOT).replace('-', '_');
+    for (Source source : Source.values()) {
+      if (source != Source.CONSTANT && source.name().equals(normalised)) {
+        return source;
+      }
+    }
+    return null;
+  }
+
+  private static double constant(String value) {
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Unknown channel source " + value, e);
+    }
+  }
+
+  public Route route(int channel) {
+    return channel < routes.length ? routes[channel] : Route.of(Source.BRIGHTNESS);
+  }
+
+  public List<Route> routes() {
+    return List.of(routes);
+  }
+
+  // the writer for a device with the given number of channels
+  ChannelWriter compile(int channels) {
+    Route[] compiled = new Route[channels];
+    for (int channel = 0; channel < channels; channel++) {
+      compiled[channel] = route(channel);
+    }
+    return new ChannelWriter(compiled);
+  }
+
+  @Override
+  public String toString() {
+    return String.join(",", Arrays.stream(routes).map(Route::toString).toList());
+  }
+}
@@ -0,0 +1,79 @@
+package sh.ball.audio;
+
+// A ChannelMap compiled for a device with a fixed number of channels. Writes
+// blocks of samples into an interleaved buffer an output channel at a time,
+// so each channel is one loop copying from its source or filling a value.
+// Made off the audio thread and then only used by it.
+final class ChannelWriter {
+
+  private final ChannelMap.Source[] sources;
+  private final float[] constants;
+  private final boolean needsShape;
+  private final boolean needsBlanking;
+
+  ChannelWriter(ChannelMap.Route[] routes) {
+    this.sources = new ChannelMap.Source[routes.length];
+    this.constants = new float[routes.length];
+    boolean needsShape = false;
+    boolean needsBlanking = false;
+    for (int channel = 0; channel < routes.length; channel++) {
+      sources[channel] = routes[channel].source();
+      constants[channel] = (float) routes[channel].constant();
+      switch (sources[channel]) {
+        case SHAPE_X, SHAPE_Y -> needsShape = true;
+        case BLANKING -> needsBlanking = true;
+      }
+    }
+    this.needsShape = needsShape || needsBlanking;
+    this.needsBlanking = needsBlanking;
+  }
+
+  int channels() {
+    return sources.length;
+  }
+
+  // true if the shape before any effects is needed, which blanking is
+  // worked out from
+  boolean needsShape() {
+    return needsShape;
+  }
+
+  boolean needsBlanking() {
+    return needsBlanking;
+  }
+
+  // Writes the first n samples of each source into the buffer, starting at
+  // the given frame. blanking is 0 for a sample where the beam jumps and 1
+  // otherwise. The shape and blanking arrays are only read if needed.
+  void write(float[] buffer, int start, int n, double[] x, double[] y, double[] shapeX, double[] shapeY, double[] blanking, double brightness) {
+    int channels = sources.length;
+    for (int channel = 0; channel < channels; channel++) {
+      int index = start * channels + channel;
+      switch (sources[channel]) {
+        case X -> copy(buffer, index, channels, x, n);
+        case Y -> copy(buffer, index, channels, y, n);
+        case SHAPE_X -> copy(buffer, index, channels, shapeX, n);
+        case SHAPE_Y -> copy(buffer, index, channels, shapeY, n);
+        case BRIGHTNESS -> fill(buffer, index, channels, (float) brightness, n);
+        case CONSTANT -> fill(buffer, index, channels, constants[channel], n);
+        case BLANKING -> {
+          for (int i = 0; i < n; i++, index += channels) {
+            buffer[index] = (float) (brightness * blanking[i]);
+          }
+        }
+      }
+    }
+  }
+
+  private static void copy(float[] buffer, int index, int stride, double[] source, int n) {
+    for (int i = 0; i < n; i++, index += stride) {
+      buffer[index] = (float) source[i];
+    }
+  }
+
+  private static void fill(float[] buffer, int index, int stride, float value, int n) {
+    for (int i = 0; i < n; i++, index += stride) {
+      buffer[index] = value;
+    }
+  }
+}
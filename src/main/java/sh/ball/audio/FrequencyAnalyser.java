@@ -1,6 +1,7 @@
 package sh.ball.audio;
 
-import sh.ball.math.fft.FFT;
+import sh.ball.audio.engine.BroadcastBuffer;
+import sh.ball.math.fft.FFTPlan;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -10,22 +11,21 @@ import static sh.ball.gui.Gui.logger;
 
 public class FrequencyAnalyser<S> implements Runnable {
 
-  private static final float NORMALIZATION_FACTOR_2_BYTES = Short.MAX_VALUE + 1.0f;
   private static final int DEFAULT_SAMPLE_RATE = 192000;
   // increase this for higher frequency resolution, but less frequent frequency calculation
   private static final int DEFAULT_POWER_OF_TWO = 18;
+  private static final double MIN_FREQUENCY = 20;
+  private static final double MAX_FREQUENCY = 20000;
 
   private final AudioPlayer<S> audioPlayer;
   private final List<FrequencyListener> listeners = new ArrayList<>();
-  private final int frameSize;
   private final int sampleRate;
   private final int powerOfTwo;
 
   private volatile boolean stopped;
 
-  public FrequencyAnalyser(AudioPlayer<S> audioPlayer, int frameSize, int sampleRate) {
+  public FrequencyAnalyser(AudioPlayer<S> audioPlayer, int sampleRate) {
     this.audioPlayer = audioPlayer;
-    this.frameSize = frameSize;
     this.sampleRate = sampleRate;
     this.powerOfTwo = (int) (DEFAULT_POWER_OF_TWO - Math.log(DEFAULT_SAMPLE_RATE / sampleRate) / Math.log(2));
   }
@@ -43,77 +43,95 @@ public class FrequencyAnalyser<S> implements Runnable {
   // Adapted from https://stackoverflow.com/questions/53997426/java-how-to-get-current-frequency-of-audio-input
   @Override
   public void run() {
-    byte[] buf = new byte[2 << powerOfTwo];
+    Window window = window();
+    float[] buf = new float[window.frames() * 2];
+    BroadcastBuffer.Tap tap = audioPlayer.tap();
 
     while (!stopped) {
       try {
-        audioPlayer.read(buf);
+        tap.read(buf, window.frames());
       } catch (InterruptedException e) {
         logger.log(Level.SEVERE, e.getMessage(), e);
+        return;
       }
-      double[] leftSamples = decode(buf, true);
-      double[] rightSamples = decode(buf, false);
+      window.analyse(buf);
+      notifyListeners(window.leftFrequency(), window.rightFrequency());
+    }
+  }
+
+  // the window of samples analysed at this sample rate
+  public Window window() {
+    return new Window(1 << (powerOfTwo - 1), sampleRate);
+  }
+
+  public void stop() {
+    stopped = true;
+  }
+
+  // Finds the loudest audible frequency of each channel in a window of
+  // interleaved stereo samples. Everything is allocated up front, and both
+  // channels are transformed together by one FFTPlan.
+  public static class Window {
+
+    private final int frames;
+    private final double[] leftSamples;
+    private final double[] rightSamples;
+    private final FFTPlan plan;
+    private final double binWidth;
+    // only frequencies that can be heard
+    private final int minBin;
+    private final int maxBin;
+
+    private double leftFrequency;
+    private double rightFrequency;
+
+    public Window(int frames, int sampleRate) {
+      this.frames = frames;
+      this.leftSamples = new double[frames];
+      this.rightSamples = new double[frames];
+      this.plan = new FFTPlan(frames, true);
+      this.binWidth = plan.binWidth(sampleRate);
+      this.minBin = (int) Math.ceil(MIN_FREQUENCY / binWidth);
+      this.maxBin = Math.min(frames / 2 - 1, (int) Math.floor(MAX_FREQUENCY / binWidth));
+    }
+
+    public int frames() {
+      return frames;
+    }
 
-      FFT leftFft = new FFT(leftSamples, null, false, true);
-      FFT rightFft = new FFT(rightSamples, null, false, true);
+    public void analyse(float[] buf) {
+      for (int i = 0; i < frames; i++) {
+        leftSamples[i] = buf[2 * i];
+        rightSamples[i] = buf[2 * i + 1];
+      }
 
-      double[] leftMags = leftFft.getMagnitudeSpectrum();
-      double[] rightMags = rightFft.getMagnitudeSpectrum();
-      double[] bins = leftFft.getBinLabels(sampleRate);
+      plan.magnitudeSpectra(leftSamples, rightSamples);
 
       int maxLeftIndex = 0;
       double maxLeft = Double.NEGATIVE_INFINITY;
       int maxRightIndex = 0;
       double maxRight = Double.NEGATIVE_INFINITY;
-      for (int i = 0; i < leftMags.length; i++) {
-        if (bins[i] < 20 || bins[i] > 20000) {
-          continue;
-        }
-        if (leftMags[i] > maxLeft) {
+      for (int i = minBin; i <= maxBin; i++) {
+        if (leftSamples[i] > maxLeft) {
           maxLeftIndex = i;
-          maxLeft = leftMags[i];
+          maxLeft = leftSamples[i];
         }
-        if (rightMags[i] > maxRight) {
+        if (rightSamples[i] > maxRight) {
           maxRightIndex = i;
-          maxRight = rightMags[i];
+          maxRight = rightSamples[i];
         }
       }
 
-      notifyListeners(bins[maxLeftIndex], bins[maxRightIndex]);
+      leftFrequency = maxLeftIndex * binWidth;
+      rightFrequency = maxRightIndex * binWidth;
     }
-  }
 
-  public void stop() {
-    stopped = true;
-  }
-
-  private double[] decode(final byte[] buf, boolean decodeLeft) {
-    final double[] fbuf = new double[(buf.length / 2) / frameSize];
-    int byteNum = 0;
-    int i = 0;
-    for (int pos = 0; pos < buf.length; pos += frameSize) {
-      int sample = byteToIntLittleEndian(buf, pos, frameSize);
-      // normalize to [0,1] (not strictly necessary, but makes things easier)
-      double normalSample =  sample / NORMALIZATION_FACTOR_2_BYTES;
-      if (decodeLeft) {
-        if (byteNum < 2) {
-          fbuf[i++] = normalSample;
-        }
-      } else if (byteNum >= 2) {
-        fbuf[i++] = normalSample;
-      }
-      byteNum++;
-      byteNum %= 4;
+    public double leftFrequency() {
+      return leftFrequency;
     }
-    return fbuf;
-  }
 
-  private static int byteToIntLittleEndian(final byte[] buf, final int offset, final int bytesPerSample) {
-    int sample = 0;
-    for (int byteIndex = 0; byteIndex < bytesPerSample; byteIndex++) {
-      final int aByte = buf[offset + byteIndex] & 0xff;
-      sample += aByte << 8 * (byteIndex);
+    public double rightFrequency() {
+      return rightFrequency;
     }
-    return sample;
   }
 }
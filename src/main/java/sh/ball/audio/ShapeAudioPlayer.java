@@ -3,26 +3,36 @@ package sh.ball.audio;
 import sh.ball.audio.effect.*;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 
 import sh.ball.audio.engine.AudioDevice;
 import sh.ball.audio.engine.AudioEngine;
 import sh.ball.audio.engine.AudioSample;
+import sh.ball.audio.engine.BlockRenderer;
+import sh.ball.audio.engine.BroadcastBuffer;
+import sh.ball.audio.engine.JavaAudioEngine;
+import sh.ball.audio.midi.Envelope;
 import sh.ball.audio.midi.MidiCommunicator;
 import sh.ball.audio.midi.MidiNote;
+import sh.ball.audio.midi.VoiceAllocator;
+import sh.ball.math.BlockKernels;
+import sh.ball.shapes.CompiledFrame;
+import sh.ball.shapes.MutableVector2;
 import sh.ball.shapes.Shape;
 import sh.ball.shapes.Vector2;
 
 import javax.sound.midi.ShortMessage;
-import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioInputStream;
 
 import static sh.ball.audio.effect.EffectType.TRACE_MAX;
 import static sh.ball.audio.effect.EffectType.TRACE_MIN;
-import static sh.ball.gui.Gui.audioPlayer;
 import static sh.ball.gui.Gui.logger;
 
 public class ShapeAudioPlayer implements AudioPlayer<List<Shape>> {
@@ -31,63 +41,101 @@ public class ShapeAudioPlayer implements AudioPlayer<List<Shape>> {
   // Arbitrary max count for effects
   private static final int MAX_COUNT = 10000;
   private static final int BUFFER_SIZE = 10;
+  // large enough for the frequency analyser's biggest window
+  private static final int BROADCAST_FRAMES = 1 << 18;
+  private static final long FIRST_FRAME_WAIT_NANOS = 1_000_000;
+  private static final long FRAME_POLL_NANOS = 200_000;
+  private static final long MAX_FRAME_WAIT_NANOS = 50_000_000;
 
-  private static final boolean BIG_ENDIAN = false;
   private static final double MIN_LENGTH_INCREMENT = 0.000001;
+  // how many samples' worth of drawing the shape must jump by to be blanked
+  private static final double BLANKING_JUMP = 4;
 
   // MIDI
+  // keys held down, as seen by the MIDI thread. The sounding voices are owned
+  // by the audio thread in the VoiceAllocator.
   private final short[][] keyTargetVolumes = new short[MidiNote.NUM_CHANNELS][128];
-  private final short[][] keyActualVolumes = new short[MidiNote.NUM_CHANNELS][128];
   private final AtomicInteger numKeysDown = new AtomicInteger(1);
-  private final SineEffect[][] sineEffects = new SineEffect[MidiNote.NUM_CHANNELS][128];
+  private final VoiceAllocator voices = new VoiceAllocator(EffectAnimator.DEFAULT_SAMPLE_RATE);
   private boolean midiStarted = false;
   private int mainChannel = 0;
-  private MidiNote baseNote = new MidiNote(60, mainChannel);
+  private volatile MidiNote baseNote = new MidiNote(60, mainChannel);
   private final double[] pitchBends = new double[MidiNote.NUM_CHANNELS];
-  private int lastDecay = 0;
-  private double decaySeconds = 0.2;
-  private int decayFrames;
-  private int lastAttack = 0;
-  private double attackSeconds = 0.1;
-  private int attackFrames;
 
   private final Callable<AudioEngine> audioEngineBuilder;
-  private final BlockingQueue<List<Shape>> frameQueue = new ArrayBlockingQueue<>(BUFFER_SIZE);
+  private final BlockingQueue<CompiledFrame> frameQueue = new ArrayBlockingQueue<>(BUFFER_SIZE);
+  // used instead of frameQueue when only the newest frame should be played
+  private final TripleBuffer<CompiledFrame> latestFrame = new TripleBuffer<>();
+  private volatile boolean latestFrameWins = false;
+  // when set, frames are pulled from this source on the audio thread rather
+  // than being added by a FrameProducer
+  private FrameSource<List<Shape>> frameSource;
+  private List<Shape> frameSourceShapes;
   private FrameSource<Vector2> sampleSource;
-  private final List<EffectTypePair> effects = new CopyOnWriteArrayList<>();
-  private final Queue<Listener> listeners = new ConcurrentLinkedQueue<>();
-
-  private AudioEngine audioEngine;
-  private ByteArrayOutputStream outputStream;
-  private boolean recording = false;
-  private int framesRecorded = 0;
-  private List<Shape> frame;
-  private double frameLength;
+  // The selected effects in order of precedence, compiled for the audio
+  // thread. Replaced by a new chain whenever they change.
+  private volatile EffectChain effectChain = EffectChain.EMPTY;
+  // held while making a new chain so that no change is lost
+  private final Object effectChainLock = new Object();
+  // the chain used for the block being rendered
+  private EffectChain blockEffectChain = EffectChain.EMPTY;
+  // x and y of every rendered block, read by the frequency analyser and any
+  // other taps
+  private final BroadcastBuffer broadcast = new BroadcastBuffer(BROADCAST_FRAMES, 2);
+  // only written by the audio thread
+  private final AtomicLong framesRendered = new AtomicLong();
+
+  private volatile AudioEngine audioEngine;
+  private volatile WavRecorder recorder;
+  private boolean recordingStarted = false;
+  private CompiledFrame frame;
   private double frameDrawn = 0;
   private int currentShape = 0;
   private double lengthIncrement = MIN_LENGTH_INCREMENT;
-  private double shapeDrawn = 0;
   private int count = 0;
-  private double volume = 1;
+  // set by the effect sliders on any thread
+  private volatile double volume = 1;
   private double octaveFrequency;
-  private double backingMidiVolume = 0.25;
+  private volatile double backingMidiVolume = 0.25;
   private double baseFrequency;
-  private double traceMin = 0;
-  private double traceMax = 1;
+  private volatile double traceMin = 0;
+  private volatile double traceMax = 1;
   private boolean traceMinEnabled = false;
   private boolean traceMaxEnabled = false;
   private int octave = 0;
-  private int sampleRate;
+  private volatile int sampleRate;
   private boolean flipX = false;
   private boolean flipY = false;
   private double brightness = 1.0;
   private AudioSample audioSample = AudioSample.INT16;
 
-  private AudioDevice device;
+  // scratch space for the audio thread so that generating a sample allocates
+  // nothing in the steady state
+  private final MutableVector2 sample = new MutableVector2();
+  // x and y of each sample in the block, grown to the largest block seen
+  private double[] blockX = new double[0];
+  private double[] blockY = new double[0];
+  // the shape before any effects and its blanking for each sample in the
+  // block, only filled in if the channel map uses them
+  private double[] shapeX = new double[0];
+  private double[] shapeY = new double[0];
+  private double[] blanking = new double[0];
+  private boolean tapShape = false;
+  private double lastShapeX, lastShapeY;
+
+  private volatile ChannelMap channelMap = ChannelMap.DEFAULT;
+  private volatile ChannelWriter channelWriter = ChannelMap.DEFAULT.compile(2);
+
+  private volatile AudioDevice device;
+  // set once the engine has swapped to a device, and applied by the audio
+  // thread before its next block
+  private final AtomicReference<AudioDevice> swappedDevice = new AtomicReference<>();
+  private volatile boolean adaptiveLatency = Boolean.getBoolean(JavaAudioEngine.ADAPTIVE_LATENCY_PROPERTY);
 
   public ShapeAudioPlayer(Callable<AudioEngine> audioEngineBuilder, MidiCommunicator communicator) throws Exception {
     this.audioEngineBuilder = audioEngineBuilder;
     this.audioEngine = audioEngineBuilder.call();
+    audioEngine.setAdaptiveLatency(adaptiveLatency);
     Arrays.fill(pitchBends, 1.0);
     resetMidi();
 
@@ -104,11 +152,10 @@ public class ShapeAudioPlayer implements AudioPlayer<List<Shape>> {
   public void resetMidi() {
     for (int i = 0; i < MidiNote.NUM_CHANNELS; i++) {
       Arrays.fill(keyTargetVolumes[i], (short) 0);
-      Arrays.fill(keyActualVolumes[i], (short) 0);
     }
     // Middle C is down by default
     keyTargetVolumes[0][60] = (short) MidiNote.MAX_VELOCITY;
-    keyActualVolumes[0][60] = (short) MidiNote.MAX_VELOCITY;
+    voices.reset(0, 60);
     midiStarted = false;
     notesChanged();
   }
@@ -117,6 +164,20 @@ public class ShapeAudioPlayer implements AudioPlayer<List<Shape>> {
     for (int i = 0; i < MidiNote.NUM_CHANNELS; i++) {
       Arrays.fill(keyTargetVolumes[i], (short) 0);
     }
+    voices.allNotesOff();
+  }
+
+  // Maximum number of MIDI notes that can sound at once before the quietest
+  // or oldest note is cut off. Middle C, which is held until MIDI starts,
+  // isn't counted and is never cut off.
+  public void setPolyphony(int polyphony) {
+    voices.setPolyphony(polyphony);
+  }
+
+  // MIDI events the audio thread fell too far behind to queue. Releases are
+  // never lost, so no note is left stuck.
+  public long droppedMidiEvents() {
+    return voices.droppedEvents();
   }
 
   public void setFrequency(double frequency) {
@@ -128,50 +189,74 @@ public class ShapeAudioPlayer implements AudioPlayer<List<Shape>> {
   }
 
   private void incrementShapeDrawing() {
-    double length = getCurrentShape().getLength();
-
     frameDrawn += lengthIncrement;
-    shapeDrawn += lengthIncrement;
-
-    // Need to skip all shapes that the lengthIncrement draws over.
-    // This is especially an issue when there are lots of small lines being
-    // drawn.
-    while (shapeDrawn > length) {
-      shapeDrawn -= length;
-      currentShape++;
-      // otherwise, index out of bounds
-      if (currentShape >= frame.size()) {
-        currentShape = 0;
-        break;
-      }
-      length = getCurrentShape().getLength();
-    }
-  }
-
-  private Vector2 generateChannels() {
-    Vector2 channels;
-
+    // skips all shapes that the lengthIncrement draws over. This is especially
+    // an issue when there are lots of small lines being drawn.
+    currentShape = frame.advance(currentShape, frameDrawn);
+  }
+
+  // generates the next sample and stores it in `sample`
+  private void generateChannels(int i) {
+    sampleShape();
+    tapShape(i);
+    applyEffects(count, sample);
+    cutoff(sample);
+    advance();
+  }
+
+  // Generates the next n samples into blockX and blockY. The effects are
+  // applied to the whole block once every sample has been generated, which
+  // is only the same as generateChannels if the effect chain is blockable.
+  // The counts of the samples must not wrap.
+  private void generateBlock(int n, BlockKernels kernels) {
+    int firstCount = count;
+    for (int i = 0; i < n; i++) {
+      sampleShape();
+      tapShape(i);
+      applyVoices(sample);
+      blockX[i] = sample.x;
+      blockY[i] = sample.y;
+      advance();
+    }
+
+    blockEffectChain.apply(firstCount, blockX, blockY, n, kernels);
+
+    double volume = this.volume;
+    kernels.scale(blockX, n, flipX ? -volume : volume);
+    kernels.scale(blockY, n, flipY ? -volume : volume);
+    kernels.clamp(blockX, n, -1, 1);
+    kernels.clamp(blockY, n, -1, 1);
+  }
+
+  // the next sample of the shape, before any effects, stored in `sample`
+  private void sampleShape() {
     if (sampleSource != null) {
-      channels = sampleSource.next();
+      sample.set(sampleSource.next());
     } else {
-      Shape shape = getCurrentShape();
-
-      double length = shape.getLength();
-      double drawingProgress = length == 0 ? 1 : shapeDrawn / length;
-      channels = shape.nextVector(drawingProgress);
+      frame.sample(currentShape, frameDrawn, sample);
     }
+  }
 
-    channels = applyEffects(count, channels);
-    channels = cutoff(channels);
-
-    if (flipX) {
-      channels = channels.setX(-channels.getX());
-    }
-    if (flipY) {
-      channels = channels.setY(-channels.getY());
+  // Keeps the shape sample for the channel map. The beam is blanked when the
+  // shape jumps much further than a sample of drawing moves along it, which
+  // is when it moves between shapes that don't join up or starts a new frame.
+  private void tapShape(int i) {
+    if (!tapShape) {
+      return;
     }
-    writeChannels((float) channels.getX(), (float) channels.getY());
+    double dx = sample.x - lastShapeX;
+    double dy = sample.y - lastShapeY;
+    double maxStep = BLANKING_JUMP * lengthIncrement;
+    boolean jump = sampleSource == null && dx * dx + dy * dy > maxStep * maxStep;
+    blanking[i] = jump ? 0 : 1;
+    shapeX[i] = sample.x;
+    shapeY[i] = sample.y;
+    lastShapeX = sample.x;
+    lastShapeY = sample.y;
+  }
 
+  // moves on to the next sample
+  private void advance() {
     if (++count > MAX_COUNT) {
       count = 0;
     }
@@ -181,163 +266,159 @@ public class ShapeAudioPlayer implements AudioPlayer<List<Shape>> {
     double actualTraceMax = traceMaxEnabled ? traceMax : 1.0;
     double actualTraceMin = traceMinEnabled ? traceMin : 0.0;
 
-    double proportionalLength = actualTraceMax * frameLength;
+    double proportionalLength = actualTraceMax * frame.length();
 
     if (currentShape >= frame.size() || frameDrawn > proportionalLength) {
-      currentShape = 0;
-      List<Shape> oldFrame = frame;
-      frame = frameQueue.poll();
-      if (frame == null) {
-        frame = oldFrame;
-      } else {
-        frameLength = Shape.totalLength(frame);
-      }
-      shapeDrawn = 0;
-      frameDrawn = 0;
-
-      while (frameDrawn < actualTraceMin * frameLength) {
-        incrementShapeDrawing();
+      CompiledFrame newFrame = nextFrame();
+      if (newFrame != null) {
+        frame = newFrame;
       }
+      // jump straight to the trace min rather than drawing up to it
+      frameDrawn = actualTraceMin * frame.length();
+      currentShape = frame.seek(frameDrawn);
     }
 
     updateLengthIncrement();
-
-    return channels;
   }
 
-  private void writeChannels(float leftChannel, float rightChannel) {
-    double[] channels = new double[device.channels()];
-    Arrays.fill(channels, brightness);
-
-    if (channels.length > 0) {
-      channels[0] = leftChannel;
-    }
-    if (channels.length > 1) {
-      channels[1] = rightChannel;
-    }
-
-    if (recording) {
-      AudioSample.writeAudioSample(audioSample, channels, outputStream::write);
-    }
-
-    int left = (int) (leftChannel * Short.MAX_VALUE);
-    int right = (int) (rightChannel * Short.MAX_VALUE);
-
-    byte b0 = (byte) left;
-    byte b1 = (byte) (left >> 8);
-    byte b2 = (byte) right;
-    byte b3 = (byte) (right >> 8);
-
-    for (Listener listener : listeners) {
-      listener.write(b0);
-      listener.write(b1);
-      listener.write(b2);
-      listener.write(b3);
-      listener.notifyIfFull();
+  // the frame to draw once the current one is finished, or null to redraw the
+  // current frame
+  private CompiledFrame nextFrame() {
+    if (frameSource != null) {
+      return pullFrame();
+    }
+    return latestFrameWins ? latestFrame.poll() : frameQueue.poll();
+  }
+
+  // Sources such as SVGs return the same shapes every frame, so the frame is
+  // only compiled again when the shapes change.
+  private CompiledFrame pullFrame() {
+    List<Shape> shapes = frameSource.next();
+    if (shapes == frameSourceShapes && frame != null) {
+      return frame;
+    }
+    frameSourceShapes = shapes;
+    return new CompiledFrame(shapes);
+  }
+
+  // BlockRenderer contract used by the AudioEngine. Fills the interleaved
+  // buffer with the channels given by the channel map.
+  //
+  // If the effect chain is blockable, the samples are generated first and
+  // the effects applied to them a block at a time. Otherwise each sample has
+  // the effects applied before the next is generated. The block is split
+  // where the count wraps so that the counts in each part are in order.
+  private void render(float[] buffer, int frames, int channels) {
+    AudioDevice swapped = swappedDevice.getAndSet(null);
+    if (swapped != null) {
+      setDevice(swapped);
+    }
+    EffectChain chain = effectChain;
+    blockEffectChain = chain;
+    chain.beginBlock();
+    // compiled for these channels by prepare
+    ChannelWriter writer = channelWriter;
+    tapShape = writer.needsShape();
+    // only if the engine asks for more frames than it said it would
+    growBlock(frames);
+    BlockKernels kernels = BlockKernels.current();
+    int start = 0;
+    while (start < frames) {
+      int n;
+      if (chain.isBlockable()) {
+        n = Math.min(frames - start, MAX_COUNT + 1 - count);
+        generateBlock(n, kernels);
+      } else {
+        n = frames - start;
+        for (int i = 0; i < n; i++) {
+          generateChannels(i);
+          blockX[i] = sample.x;
+          blockY[i] = sample.y;
+        }
+      }
+      writer.write(buffer, start, n, blockX, blockY, shapeX, shapeY, blanking, brightness);
+      WavRecorder recorder = this.recorder;
+      if (recorder != null) {
+        recorder.write(buffer, start, n, channels);
+      }
+      start += n;
     }
-
-    framesRecorded++;
+    broadcast.publish(buffer, frames, channels);
+    framesRendered.lazySet(framesRendered.get() + frames);
   }
 
-  private Vector2 cutoff(Vector2 vector) {
-    double x = vector.x;
-    double y = vector.y;
-    if (x < -1) {
-      x = -1;
-    } else if (x > 1) {
-      x = 1;
+  private void cutoff(MutableVector2 vector) {
+    if (vector.x < -1) {
+      vector.x = -1;
+    } else if (vector.x > 1) {
+      vector.x = 1;
     }
-    if (y < -1) {
-      y = -1;
-    } else if (y > 1) {
-      y = 1;
+    if (vector.y < -1) {
+      vector.y = -1;
+    } else if (vector.y > 1) {
+      vector.y = 1;
     }
-    return new Vector2(x, y);
   }
 
-  private Vector2 applyEffects(int frame, Vector2 vector) {
-    vector = vector.scale((double) keyActualVolumes[mainChannel][baseNote.key()] / MidiNote.MAX_VELOCITY);
-    if (midiStarted) {
-      if (lastDecay > decayFrames) {
-        for (int i = 0; i < keyActualVolumes.length; i++) {
-          for (int j = 0; j < keyActualVolumes[i].length; j++) {
-            if (keyActualVolumes[i][j] > keyTargetVolumes[i][j]) {
-              keyActualVolumes[i][j]--;
-            }
-          }
-        }
-        lastDecay = 0;
-      }
-      lastDecay++;
-      if (lastAttack > attackFrames) {
-        for (int i = 0; i < keyActualVolumes.length; i++) {
-          for (int j = 0; j < keyActualVolumes[i].length; j++) {
-            if (keyActualVolumes[i][j] < keyTargetVolumes[i][j]) {
-              keyActualVolumes[i][j]++;
-            }
-          }
-        }
-        lastAttack = 0;
-      }
-      lastAttack++;
-
-      for (int channel = 0; channel < keyActualVolumes.length; channel++) {
-        for (int key = 0; key < keyActualVolumes[0].length; key++) {
-          if (keyActualVolumes[channel][key] > 0 && !(baseNote.key() == key && baseNote.channel() == channel)) {
-            Vector2 sine = sineEffects[channel][key].apply(frame, new Vector2());
-            double volume = backingMidiVolume * keyActualVolumes[channel][key] / MidiNote.MAX_VELOCITY;
-            vector = new Vector2(vector.x + volume * sine.x, vector.y + volume * sine.y);
-          }
-        }
-      }
-    }
+  private void applyEffects(int frame, MutableVector2 vector) {
+    applyVoices(vector);
+    blockEffectChain.apply(frame, vector);
 
-    for (EffectTypePair pair : effects) {
-      Effect effect = pair.effect();
-      vector = effect.apply(frame, vector);
-    }
+    // the flips are folded into the volume. Flipping before the cutoff is the
+    // same as after since the cutoff is symmetric.
+    double volume = this.volume;
+    vector.x *= flipX ? -volume : volume;
+    vector.y *= flipY ? -volume : volume;
+  }
 
-    return vector.scale(volume);
+  // scales the sample by the base note's level and mixes in the other notes
+  private void applyVoices(MutableVector2 vector) {
+    voices.tick();
+    MidiNote baseNote = this.baseNote;
+    vector.scale(voices.level(baseNote.channel(), baseNote.key()));
+    // every other sounding note is mixed in as a backing sine wave
+    voices.mix(baseNote.channel(), baseNote.key(), backingMidiVolume, vector);
   }
 
   private void setBaseFrequency(double baseFrequency) {
     this.baseFrequency = baseFrequency;
     this.octaveFrequency = baseFrequency * Math.pow(2, octave - 1);
     updateLengthIncrement();
-    updateSineEffects();
   }
 
   private void setPitchBendFactor(int channel, double pitchBend) {
     pitchBends[channel] = pitchBend;
+    voices.setPitchBend(channel, pitchBend);
     updateLengthIncrement();
-    updateSineEffects();
   }
 
+  // the decay slider has always controlled how long a note takes to fade out
+  // once released, so it sets the release of the envelope
   @Override
   public void setDecay(double decaySeconds) {
-    this.decaySeconds = decaySeconds;
-    updateDecay();
+    voices.setEnvelope(voices.getEnvelope().withRelease(decaySeconds));
   }
 
   @Override
   public void setAttack(double attackSeconds) {
-    this.attackSeconds = attackSeconds;
-    updateAttack();
+    voices.setEnvelope(voices.getEnvelope().withAttack(attackSeconds));
   }
 
-  private Shape getCurrentShape() {
-    if (frame.size() == 0) {
-      return new Vector2();
-    }
+  // sets the full attack, decay, sustain and release envelope used by notes
+  // started from now on
+  public void setEnvelope(Envelope envelope) {
+    voices.setEnvelope(envelope);
+  }
 
-    return frame.get(currentShape);
+  public Envelope getEnvelope() {
+    return voices.getEnvelope();
   }
 
   private void updateLengthIncrement() {
     if (frame != null) {
       double actualTraceMax = traceMaxEnabled ? traceMax : 1.0;
       double actualTraceMin = traceMinEnabled ? traceMin : 0.0;
-      double proportionalLength = (actualTraceMax - actualTraceMin) * frameLength;
+      double proportionalLength = (actualTraceMax - actualTraceMin) * frame.length();
       int sampleRate = device.sampleRate();
       double actualFrequency = octaveFrequency * pitchBends[mainChannel];
       lengthIncrement = Math.max(proportionalLength / (sampleRate / actualFrequency), MIN_LENGTH_INCREMENT);
@@ -347,9 +428,11 @@ public class ShapeAudioPlayer implements AudioPlayer<List<Shape>> {
   @Override
   public void run() {
     try {
-      if (sampleSource == null) {
-        frame = frameQueue.take();
-        frameLength = Shape.totalLength(frame);
+      if (frameSource != null) {
+        frame = pullFrame();
+        updateLengthIncrement();
+      } else if (sampleSource == null) {
+        frame = takeFirstFrame();
         updateLengthIncrement();
       }
     } catch (InterruptedException e) {
@@ -366,19 +449,82 @@ public class ShapeAudioPlayer implements AudioPlayer<List<Shape>> {
     }
 
     try {
-      audioEngine.play(this::generateChannels, device);
+      audioEngine.play(new BlockRenderer() {
+        @Override
+        public void render(float[] buffer, int frames, int channels) {
+          ShapeAudioPlayer.this.render(buffer, frames, channels);
+        }
+
+        @Override
+        public void prepare(int maxFrames, int channels) {
+          ShapeAudioPlayer.this.prepare(maxFrames, channels);
+        }
+      }, device);
     } catch (Exception e) {
       e.printStackTrace();
     }
   }
 
+  // Called by the AudioEngine before the first block, and when it moves to
+  // another device, so that the channel writer and block arrays are made
+  // before the audio thread needs them.
+  private void prepare(int maxFrames, int channels) {
+    if (channelWriter.channels() != channels) {
+      channelWriter = channelMap.compile(channels);
+    }
+    growBlock(maxFrames);
+  }
+
+  private void growBlock(int frames) {
+    if (blockX.length < frames) {
+      blockX = new double[frames];
+      blockY = new double[frames];
+      shapeX = new double[frames];
+      shapeY = new double[frames];
+      blanking = new double[frames];
+    }
+  }
+
+  // blocks until the first frame has been added in whichever mode is active
+  private CompiledFrame takeFirstFrame() throws InterruptedException {
+    while (true) {
+      if (latestFrameWins) {
+        if (latestFrame.hasNext()) {
+          return latestFrame.poll();
+        }
+        LockSupport.parkNanos(FIRST_FRAME_WAIT_NANOS);
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+      } else {
+        CompiledFrame first = frameQueue.poll(FIRST_FRAME_WAIT_NANOS, TimeUnit.NANOSECONDS);
+        if (first != null) {
+          return first;
+        }
+      }
+    }
+  }
+
   @Override
   public void reset() throws Exception {
     audioEngine.stop();
-    while (isPlaying()) {
-      Thread.onSpinWait();
-    }
+    audioEngine.awaitStopped();
     audioEngine = audioEngineBuilder.call();
+    audioEngine.setAdaptiveLatency(adaptiveLatency);
+    swappedDevice.set(null);
+  }
+
+  // Moves playback to the device without stopping the audio thread, if the
+  // engine can. Returns false if the player must be reset and run again on
+  // the device instead. The player only moves to the device's sample rate
+  // once the engine is playing it, and does so on the audio thread.
+  @Override
+  public boolean swapDevice(AudioDevice device) {
+    if (!isPlaying() || !audioEngine.swapDevice(device)) {
+      return false;
+    }
+    swappedDevice.set(device);
+    return true;
   }
 
   @Override
@@ -386,6 +532,26 @@ public class ShapeAudioPlayer implements AudioPlayer<List<Shape>> {
     audioEngine.stop();
   }
 
+  // the engine currently playing, which changes when the player is reset
+  public AudioEngine audioEngine() {
+    return audioEngine;
+  }
+
+  // number of frames the audio thread has rendered since the player was
+  // created
+  public long framesRendered() {
+    return framesRendered.get();
+  }
+
+  // number of frames waiting in the frame queue to be drawn
+  public int frameQueueSize() {
+    return frameQueue.size();
+  }
+
+  public int frameQueueCapacity() {
+    return BUFFER_SIZE;
+  }
+
   @Override
   public boolean isPlaying() {
     return audioEngine.isPlaying();
@@ -400,7 +566,6 @@ public class ShapeAudioPlayer implements AudioPlayer<List<Shape>> {
   @Override
   public void setBackingMidiVolume(double scale) {
     this.backingMidiVolume = scale;
-    updateSineEffects();
   }
 
   public void setMainMidiChannel(int channel) {
@@ -410,13 +575,54 @@ public class ShapeAudioPlayer implements AudioPlayer<List<Shape>> {
 
   @Override
   public void addFrame(List<Shape> frame) {
+    // compiled here so that the cost is paid by the producer thread
+    CompiledFrame compiled = new CompiledFrame(frame);
+    if (latestFrameWins) {
+      latestFrame.publish(compiled);
+      // Pace the producer to the audio thread rather than spinning. Once the
+      // frame is taken the next one is rendered straight away so it's never
+      // more than a frame old. The wait is bounded so the producer still
+      // notices being disabled.
+      long deadline = System.nanoTime() + MAX_FRAME_WAIT_NANOS;
+      while (latestFrameWins && latestFrame.hasNext() && System.nanoTime() < deadline) {
+        LockSupport.parkNanos(FRAME_POLL_NANOS);
+      }
+      return;
+    }
     try {
-      frameQueue.put(frame);
+      frameQueue.put(compiled);
     } catch (InterruptedException e) {
       logger.log(Level.SEVERE, "Frame missed", e);
     }
   }
 
+  // When enabled, frames are handed to the audio thread through a triple
+  // buffer rather than a queue. The producer never blocks and the audio thread
+  // always draws the newest frame, which suits live sources where drawing a
+  // stale frame is worse than skipping one.
+  public void setLatestFrameWins(boolean latestFrameWins) {
+    this.latestFrameWins = latestFrameWins;
+    if (latestFrameWins) {
+      // discard stale frames and release a producer blocked on the queue
+      frameQueue.clear();
+    }
+  }
+
+  public boolean isLatestFrameWins() {
+    return latestFrameWins;
+  }
+
+  // frames published in latest-wins mode that were replaced before being drawn
+  public long droppedFrames() {
+    return latestFrame.dropped();
+  }
+
+  // times the audio thread redrew its frame in latest-wins mode because no new
+  // frame was ready
+  public long reusedFrames() {
+    return latestFrame.reused();
+  }
+
   @Override
   public void addEffect(EffectType type, Effect effect) {
     if (type.equals(TRACE_MAX)) {
@@ -425,76 +631,78 @@ public class ShapeAudioPlayer implements AudioPlayer<List<Shape>> {
     if (type.equals(TRACE_MIN)) {
       traceMinEnabled = true;
     }
-    effects.add(new EffectTypePair(type, effect));
-    Collections.sort(effects);
+    synchronized (effectChainLock) {
+      effectChain = effectChain.withEffect(type, effect);
+    }
   }
 
   @Override
   public void removeEffect(EffectType type) {
+    // the trace effects can't reset the trace once they're no longer applied
     if (type.equals(TRACE_MAX)) {
       traceMaxEnabled = false;
+      traceMax = 1;
     }
     if (type.equals(TRACE_MIN)) {
       traceMinEnabled = false;
+      traceMin = 0;
+    }
+    synchronized (effectChainLock) {
+      effectChain = effectChain.withoutEffect(type);
     }
-    effects.removeIf(e -> e.type == type);
   }
 
   // selects or deselects the given audio effect
   public void updateEffect(EffectType type, boolean checked, SettableEffect effect) {
     if (type != null) {
       if (checked) {
-        audioPlayer.addEffect(type, effect);
+        addEffect(type, effect);
       } else {
-        audioPlayer.removeEffect(type);
+        removeEffect(type);
       }
     }
   }
 
+  // reads the next buffer.length / 4 frames of x and y as 16-bit little endian
+  // samples
   @Override
   public void read(byte[] buffer) throws InterruptedException {
-    Listener listener = new Listener(buffer);
-    listeners.add(listener);
-    listener.waitUntilFull();
-    listeners.remove(listener);
+    broadcast.tap().read(buffer);
+  }
+
+  // Creates a tap that reads x and y from every block the audio thread
+  // renders, starting from the next block. Taps that fall behind drop data
+  // rather than slow down the audio thread.
+  @Override
+  public BroadcastBuffer.Tap tap() {
+    return broadcast.tap();
   }
 
+  // Recordings are streamed to a temporary file, which stopRecord returns so
+  // that it can be moved to wherever the user wants to save it.
   @Override
   public void startRecord() {
-    outputStream = new ByteArrayOutputStream();
-    framesRecorded = 0;
-    recording = true;
+    recordingStarted = true;
+    try {
+      Path file = Files.createTempFile("osci-render-", ".wav");
+      recorder = new WavRecorder(file, audioSample, sampleRate, device.channels());
+    } catch (IOException e) {
+      logger.log(Level.SEVERE, e.getMessage(), e);
+    }
   }
 
   @Override
   public void setDevice(AudioDevice device) {
     this.device = device;
-    for (int i = 0; i < MidiNote.NUM_CHANNELS; i++) {
-      Arrays.fill(sineEffects[i], null);
-    }
+    this.channelWriter = channelMap.compile(device.channels());
     this.sampleRate = device.sampleRate();
-    for (int channel = 0; channel < keyActualVolumes.length; channel++) {
-      for (int key = 0; key < keyActualVolumes[channel].length; key++) {
-        MidiNote note = new MidiNote(key, channel);
-        sineEffects[channel][key] = new SineEffect(sampleRate, note.frequency());
-      }
-    }
-    for (EffectTypePair pair : effects) {
-      Effect effect = pair.effect();
-      if (effect instanceof PhaseEffect phase) {
+    voices.setSampleRate(sampleRate);
+    EffectChain chain = effectChain;
+    for (int i = 0; i < chain.size(); i++) {
+      if (chain.effect(i) instanceof PhaseEffect phase) {
         phase.setSampleRate(sampleRate);
       }
     }
-    updateDecay();
-    updateAttack();
-  }
-
-  private void updateDecay() {
-    this.decayFrames = (int) (decaySeconds * sampleRate / MidiNote.MAX_VELOCITY);
-  }
-
-  private void updateAttack() {
-    this.attackFrames = (int) (attackSeconds * sampleRate / MidiNote.MAX_VELOCITY);
   }
 
   @Override
@@ -513,17 +721,35 @@ public class ShapeAudioPlayer implements AudioPlayer<List<Shape>> {
   }
 
   @Override
-  public AudioInputStream stopRecord() {
-    recording = false;
-    if (outputStream == null) {
+  public void onDevicesChanged(Runnable listener) {
+    audioEngine.onDevicesChanged(listener);
+  }
+
+  @Override
+  public Path stopRecord() throws IOException {
+    if (!recordingStarted) {
       throw new UnsupportedOperationException("Cannot stop recording before first starting to record");
     }
-    byte[] input = outputStream.toByteArray();
-    outputStream = null;
+    recordingStarted = false;
+    WavRecorder recorder = this.recorder;
+    this.recorder = null;
+    if (recorder == null) {
+      throw new IOException("Recording could not be started");
+    }
+    return recorder.stop();
+  }
 
-    AudioFormat audioFormat = new AudioFormat(sampleRate, audioSample.size, device.channels(), audioSample.signed, BIG_ENDIAN);
+  // Sets where each output channel's signal comes from, from the next block.
+  public void setChannelMap(ChannelMap channelMap) {
+    this.channelMap = channelMap;
+    AudioDevice device = this.device;
+    if (device != null) {
+      this.channelWriter = channelMap.compile(device.channels());
+    }
+  }
 
-    return new AudioInputStream(new ByteArrayInputStream(input), audioFormat, framesRecorded);
+  public ChannelMap getChannelMap() {
+    return channelMap;
   }
 
   @Override
@@ -532,18 +758,15 @@ public class ShapeAudioPlayer implements AudioPlayer<List<Shape>> {
     audioEngine.setBrightness(brightness);
   }
 
-  private void updateSineEffects() {
-    for (int channel = 0; channel < keyActualVolumes.length; channel++) {
-      for (int key = 0; key < keyActualVolumes[channel].length; key++) {
-        MidiNote note = new MidiNote(key, channel);
-        if (keyActualVolumes[channel][key] > 0) {
-          SineEffect effect = sineEffects[channel][key];
-          if (effect != null) {
-            effect.setFrequency(note.frequency() * pitchBends[channel]);
-          }
-        }
-      }
-    }
+  // kept when the player is reset, but only takes effect once the engine
+  // plays again
+  public void setAdaptiveLatency(boolean adaptiveLatency) {
+    this.adaptiveLatency = adaptiveLatency;
+    audioEngine.setAdaptiveLatency(adaptiveLatency);
+  }
+
+  public boolean isAdaptiveLatency() {
+    return adaptiveLatency;
   }
 
   private void notesChanged() {
@@ -583,9 +806,11 @@ public class ShapeAudioPlayer implements AudioPlayer<List<Shape>> {
 
       if (command == ShortMessage.NOTE_OFF || velocity == 0) {
         keyTargetVolumes[note.channel()][note.key()] = 0;
+        voices.noteOff(note.channel(), note.key());
         numKeysDown.getAndDecrement();
       } else {
         keyTargetVolumes[note.channel()][note.key()] = (short) velocity;
+        voices.noteOn(note.channel(), note.key(), velocity);
         numKeysDown.getAndIncrement();
       }
       notesChanged();
@@ -621,39 +846,13 @@ public class ShapeAudioPlayer implements AudioPlayer<List<Shape>> {
     this.sampleSource = null;
   }
 
-  private static class Listener {
-    private final byte[] buffer;
-    private final Semaphore sema;
-
-    private int offset;
-
-    private Listener(byte[] buffer) {
-      this.buffer = buffer;
-      this.sema = new Semaphore(0);
-    }
-
-    private void waitUntilFull() throws InterruptedException {
-      sema.acquire();
-    }
-
-    private void notifyIfFull() {
-      if (offset >= buffer.length) {
-        sema.release();
-      }
-    }
-
-    private void write(byte b) {
-      if (offset < buffer.length) {
-        buffer[offset++] = b;
-      }
-    }
-  }
-
-  private record EffectTypePair(EffectType type, Effect effect) implements Comparable<EffectTypePair> {
-
-    @Override
-    public int compareTo(EffectTypePair pair) {
-      return Integer.compare(type.precedence, pair.type.precedence);
-    }
+  // Frames are pulled from the source by the audio thread whenever it
+  // finishes drawing a frame, instead of a FrameProducer adding them from
+  // another thread. Every frame is drawn exactly once, in order, which makes
+  // the output deterministic. Used when rendering offline. Must be set before
+  // the player is run.
+  public void setFrameSource(FrameSource<List<Shape>> frameSource) {
+    this.frameSource = frameSource;
+    this.frameSourceShapes = null;
   }
 }
@@ -0,0 +1,70 @@
+package sh.ball.audio;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Lock-free "latest wins" handoff between a single producer and a single
+// consumer. The producer never blocks and overwrites any frame the consumer
+// has not yet taken, and the consumer always takes the newest finished frame.
+//
+// Three slots are rotated: the producer owns the back slot, the consumer owns
+// the front slot and the middle slot is swapped atomically between them. The
+// DIRTY bit in the shared state marks the middle slot as holding a frame the
+// consumer has not seen yet.
+public class TripleBuffer<T> {
+
+  private static final int INDEX_MASK = 0b11;
+  private static final int DIRTY = 0b100;
+
+  private final Object[] slots = new Object[3];
+  private final AtomicInteger middle = new AtomicInteger(1);
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong reused = new AtomicLong();
+
+  // only accessed by the producer
+  private int back = 0;
+  // only accessed by the consumer
+  private int front = 2;
+
+  // Publishes a finished frame. If the consumer never took the previously
+  // published frame it is dropped.
+  public void publish(T value) {
+    slots[back] = value;
+    // getAndSet provides the happens-before edge for the slot write
+    int previous = middle.getAndSet(back | DIRTY);
+    back = previous & INDEX_MASK;
+    // release the reference so an old frame isn't kept alive
+    slots[back] = null;
+    if ((previous & DIRTY) != 0) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  // Returns the newest published frame, or null if nothing has been published
+  // since the last call, in which case the consumer is reusing its frame.
+  @SuppressWarnings("unchecked")
+  public T poll() {
+    if ((middle.get() & DIRTY) == 0) {
+      reused.incrementAndGet();
+      return null;
+    }
+    int previous = middle.getAndSet(front);
+    front = previous & INDEX_MASK;
+    return (T) slots[front];
+  }
+
+  // true if a frame has been published that the consumer hasn't taken
+  public boolean hasNext() {
+    return (middle.get() & DIRTY) != 0;
+  }
+
+  // number of published frames that were overwritten before being taken
+  public long dropped() {
+    return dropped.get();
+  }
+
+  // number of times the consumer polled and had to reuse its current frame
+  public long reused() {
+    return reused.get();
+  }
+}
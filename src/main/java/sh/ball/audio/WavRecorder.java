@@ -0,0 +1,266 @@
+package sh.ball.audio;
+
+import sh.ball.audio.engine.AudioSample;
+import sh.ball.audio.engine.FloatRingBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+import static sh.ball.gui.Gui.logger;
+
+// Streams a recording straight to a WAV file so that memory use stays the
+// same however long the recording is.
+//
+// The audio thread writes frames into a lock-free ring buffer and a background
+// writer thread encodes them into a direct ByteBuffer and writes them to the
+// file. If the disk can't keep up and the ring fills, frames are dropped
+// rather than blocking the audio thread.
+//
+// The header is written with a placeholder JUNK chunk the size of an RF64
+// ds64 chunk. When the recording stops the sizes are patched in, and if the
+// file has grown past the 4GB limit of WAV, the header is upgraded to RF64
+// in place.
+//
+// The ring carries floats, as the audio thread renders floats, so samples
+// have at most the 24-bit precision of a float whatever format the file is
+// in. INT32 and FLOAT64 recordings are that same signal in a wider format,
+// with the low bits of each INT32 sample rounded rather than carrying more
+// detail.
+public class WavRecorder {
+
+  // length of audio the ring can hold before frames are dropped
+  private static final int RING_SECONDS = 1;
+  private static final int BLOCK_FRAMES = 4096;
+  private static final long IDLE_PARK_NANOS = 5_000_000;
+  private static final long FULL_PARK_NANOS = 100_000;
+  private static final long MAX_WAV_SIZE = 0xFFFFFFFFL;
+
+  private static final short WAVE_FORMAT_PCM = 1;
+  private static final short WAVE_FORMAT_IEEE_FLOAT = 3;
+  private static final short WAVE_FORMAT_EXTENSIBLE = (short) 0xFFFE;
+  // the GUID of the sub-format, minus its first two bytes which hold the
+  // format tag
+  private static final byte[] SUBFORMAT_GUID_SUFFIX = {
+    0x00, 0x00, 0x00, 0x00, 0x10, 0x00, (byte) 0x80, 0x00, 0x00, (byte) 0xAA, 0x00, 0x38, (byte) 0x9B, 0x71
+  };
+
+  private static final int RIFF_HEADER_SIZE = 12;
+  private static final int DS64_SIZE = 28;
+  private static final int DS64_OFFSET = RIFF_HEADER_SIZE;
+
+  private final Path path;
+  private final FileChannel channel;
+  private final AudioSample sample;
+  private final int channels;
+  private final FloatRingBuffer ring;
+  private final float[] frame;
+  private final Thread writer;
+  private final AtomicLong droppedFrames = new AtomicLong();
+
+  private final int dataSizeOffset;
+  private long dataBytes = 0;
+  private volatile boolean stopped = false;
+  private volatile IOException error;
+
+  public WavRecorder(Path path, AudioSample sample, int sampleRate, int channels) throws IOException {
+    this.path = path;
+    // 8-bit WAV is always unsigned
+    this.sample = sample == AudioSample.INT8 ? AudioSample.UINT8 : sample;
+    this.channels = channels;
+    this.ring = new FloatRingBuffer(sampleRate * channels * RING_SECONDS, channels);
+    this.frame = new float[channels];
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+    ByteBuffer header = header(sampleRate);
+    this.dataSizeOffset = header.limit() - 4;
+    while (header.hasRemaining()) {
+      channel.write(header);
+    }
+
+    this.writer = new Thread(this::writeLoop, "wav-recorder");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  // Called from the audio thread with a block of interleaved frames, which
+  // may have a different number of channels to the recording. Never blocks.
+  public void write(float[] buffer, int start, int frames, int bufferChannels) {
+    if (bufferChannels == channels) {
+      int length = frames * channels;
+      int written = ring.write(buffer, start * channels, length);
+      if (written < length) {
+        droppedFrames.addAndGet((length - written) / channels);
+      }
+      return;
+    }
+    for (int f = start; f < start + frames; f++) {
+      for (int i = 0; i < frame.length; i++) {
+        frame[i] = i < bufferChannels ? buffer[f * bufferChannels + i] : 0;
+      }
+      if (ring.write(frame, 0, frame.length) < frame.length) {
+        droppedFrames.incrementAndGet();
+      }
+    }
+  }
+
+  // Writes a block of interleaved frames with the same number of channels as
+  // the recording. Rather than dropping frames when the ring is full, this
+  // waits for the writer thread to catch up, so should only be used when
+  // rendering offline.
+  public void writeBlocking(float[] buffer, int frames) throws IOException, InterruptedException {
+    int length = frames * channels;
+    int offset = 0;
+    while (offset < length) {
+      if (error != null) {
+        throw error;
+      }
+      int written = ring.write(buffer, offset, length - offset);
+      offset += written;
+      if (written == 0) {
+        LockSupport.parkNanos(this, FULL_PARK_NANOS);
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+      }
+    }
+  }
+
+  // frames that were dropped because the writer thread fell behind
+  public long droppedFrames() {
+    return droppedFrames.get();
+  }
+
+  // Writes any frames still buffered, finalises the header and closes the
+  // file. The recording should no longer be written to when this is called.
+  public Path stop() throws IOException {
+    stopped = true;
+    LockSupport.unpark(writer);
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    try {
+      if (error != null) {
+        throw error;
+      }
+      finish();
+    } finally {
+      channel.close();
+    }
+    return path;
+  }
+
+  private void writeLoop() {
+    float[] block = new float[BLOCK_FRAMES * channels];
+    ByteBuffer bytes = ByteBuffer.allocateDirect(block.length * sample.bytes()).order(ByteOrder.LITTLE_ENDIAN);
+    try {
+      while (true) {
+        int read = ring.read(block, 0, block.length);
+        if (read == 0) {
+          if (stopped) {
+            // the ring is empty and nothing more will be written
+            if (ring.size() == 0) {
+              return;
+            }
+            continue;
+          }
+          LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+          continue;
+        }
+        bytes.clear();
+        for (int i = 0; i < read; i++) {
+          sample.write(block[i], bytes);
+        }
+        bytes.flip();
+        dataBytes += bytes.remaining();
+        while (bytes.hasRemaining()) {
+          channel.write(bytes);
+        }
+      }
+    } catch (IOException e) {
+      error = e;
+      logger.log(Level.SEVERE, e.getMessage(), e);
+    }
+  }
+
+  private ByteBuffer header(int sampleRate) {
+    int bytesPerSample = sample.bytes();
+    boolean floatingPoint = sample == AudioSample.FLOAT32 || sample == AudioSample.FLOAT64;
+    boolean extensible = floatingPoint || channels > 2 || sample.size > 16;
+    short formatTag = floatingPoint ? WAVE_FORMAT_IEEE_FLOAT : WAVE_FORMAT_PCM;
+    int fmtSize = extensible ? 40 : 16;
+
+    ByteBuffer header = ByteBuffer.allocate(RIFF_HEADER_SIZE + 8 + DS64_SIZE + 8 + fmtSize + 8)
+      .order(ByteOrder.LITTLE_ENDIAN);
+    header.put(ascii("RIFF")).putInt(0).put(ascii("WAVE"));
+    // reserves space for a ds64 chunk in case this becomes an RF64 file
+    header.put(ascii("JUNK")).putInt(DS64_SIZE).put(new byte[DS64_SIZE]);
+
+    header.put(ascii("fmt ")).putInt(fmtSize);
+    header.putShort(extensible ? WAVE_FORMAT_EXTENSIBLE : formatTag);
+    header.putShort((short) channels);
+    header.putInt(sampleRate);
+    header.putInt(sampleRate * channels * bytesPerSample);
+    header.putShort((short) (channels * bytesPerSample));
+    header.putShort((short) sample.size);
+    if (extensible) {
+      header.putShort((short) 22);
+      header.putShort((short) sample.size);
+      // no speaker positions are assigned to the channels
+      header.putInt(0);
+      header.putShort(formatTag);
+      header.put(SUBFORMAT_GUID_SUFFIX);
+    }
+
+    header.put(ascii("data")).putInt(0);
+    header.flip();
+    return header;
+  }
+
+  private void finish() throws IOException {
+    long dataEnd = dataSizeOffset + 4 + dataBytes;
+    // chunks must have an even size
+    if (dataBytes % 2 != 0) {
+      channel.write(ByteBuffer.allocate(1), dataEnd);
+      dataEnd++;
+    }
+    long riffSize = dataEnd - 8;
+    ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+
+    if (riffSize <= MAX_WAV_SIZE) {
+      buffer.putInt((int) riffSize).flip();
+      channel.write(buffer, 4);
+      buffer.clear().putInt((int) dataBytes).flip();
+      channel.write(buffer, dataSizeOffset);
+      return;
+    }
+
+    // too large for WAV so upgrade the header to RF64
+    ByteBuffer riff = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+    riff.put(ascii("RF64")).putInt(-1).flip();
+    channel.write(riff, 0);
+
+    long sampleCount = dataBytes / ((long) channels * sample.bytes());
+    ByteBuffer ds64 = ByteBuffer.allocate(8 + DS64_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    ds64.put(ascii("ds64")).putInt(DS64_SIZE);
+    ds64.putLong(riffSize).putLong(dataBytes).putLong(sampleCount).putInt(0);
+    ds64.flip();
+    channel.write(ds64, DS64_OFFSET);
+
+    buffer.putInt(-1).flip();
+    channel.write(buffer, dataSizeOffset);
+  }
+
+  private static byte[] ascii(String id) {
+    return id.getBytes(StandardCharsets.US_ASCII);
+  }
+}
@@ -0,0 +1,26 @@
+package sh.ball.audio.effect;
+
+import sh.ball.shapes.Affine2;
+
+// An effect that, for any one sample, is an affine transform of the vector,
+// such as a rotation or translation. While its parameters aren't changing,
+// the EffectChain collapses it and its static neighbours into one transform
+// for the whole block.
+public interface AffineEffect extends Effect {
+
+  // Adds this sample's transform to the end of the given transform rather
+  // than applying it to a vector. Must move on any state, such as the phase,
+  // exactly as apply would.
+  void transform(int count, Affine2 transform);
+
+  // True if the transform will be the same for every sample until one of the
+  // effect's setters is called, such as a rotation with no speed. Checked at
+  // the start of each block.
+  boolean isStatic();
+
+  // false if the effect can't be treated as affine, in which case it is
+  // always applied on its own
+  default boolean isAffine() {
+    return true;
+  }
+}
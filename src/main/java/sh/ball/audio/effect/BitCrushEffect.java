@@ -1,10 +1,12 @@
 package sh.ball.audio.effect;
 
+import sh.ball.math.BlockKernels;
+import sh.ball.shapes.MutableVector2;
 import sh.ball.shapes.Vector2;
 
 import static sh.ball.math.Math.round;
 
-public class BitCrushEffect implements SettableEffect {
+public class BitCrushEffect implements SettableEffect, BlockEffect {
 
   private double crush = 2.0;
 
@@ -15,6 +17,18 @@ public class BitCrushEffect implements SettableEffect {
     return new Vector2(round(vector.x, crush), round(vector.y, crush));
   }
 
+  @Override
+  public void apply(int count, MutableVector2 vector) {
+    vector.set(round(vector.x, crush), round(vector.y, crush));
+  }
+
+  @Override
+  public void apply(int count, double[] x, double[] y, int n, BlockKernels kernels) {
+    long factor = (long) Math.pow(10, crush);
+    kernels.round(x, n, factor);
+    kernels.round(y, n, factor);
+  }
+
   @Override
   public void setValue(double value) {
     this.crush = 3.0 * (1 - value);
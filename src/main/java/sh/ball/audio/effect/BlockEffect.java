@@ -0,0 +1,15 @@
+package sh.ball.audio.effect;
+
+import sh.ball.math.BlockKernels;
+
+// An effect that can be applied to a whole block of samples at once, with the
+// x and y of each sample in separate arrays, so that it can use the SIMD
+// BlockKernels rather than being called once per sample.
+public interface BlockEffect extends Effect {
+
+  // Applies the effect in place to the first n samples. The first sample is
+  // at the given count and each one after at the next count, without
+  // wrapping. Must give the same samples, and leave the effect in the same
+  // state, as calling apply on each sample in turn.
+  void apply(int count, double[] x, double[] y, int n, BlockKernels kernels);
+}
@@ -1,10 +1,13 @@
 package sh.ball.audio.effect;
 
+import sh.ball.shapes.Affine2;
+import sh.ball.shapes.MutableVector2;
 import sh.ball.shapes.Vector2;
 
 import java.util.function.Consumer;
 
-public class ConsumerEffect implements SettableEffect {
+// Passes its value to the consumer and leaves the vector alone
+public class ConsumerEffect implements SettableEffect, AffineEffect {
 
   private final Consumer<Double> consumer;
 
@@ -17,6 +20,28 @@ public class ConsumerEffect implements SettableEffect {
     return vector;
   }
 
+  @Override
+  public void apply(int count, MutableVector2 vector) {}
+
+  @Override
+  public void transform(int count, Affine2 transform) {}
+
+  @Override
+  public boolean isStatic() {
+    return true;
+  }
+
+  // the consumer changes settings of the player
+  @Override
+  public boolean isIsolated() {
+    return false;
+  }
+
+  @Override
+  public boolean isAudioRate() {
+    return false;
+  }
+
   @Override
   public void setValue(double trace) {
     consumer.accept(trace);
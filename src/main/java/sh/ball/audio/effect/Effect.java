@@ -1,5 +1,6 @@
 package sh.ball.audio.effect;
 
+import sh.ball.shapes.MutableVector2;
 import sh.ball.shapes.Vector2;
 
 // The Effect interface is intended for audio effects, but can be used for any
@@ -8,4 +9,23 @@ import sh.ball.shapes.Vector2;
 // along with the vector can apply an audio effect.
 public interface Effect {
   Vector2 apply(int count, Vector2 vector);
+
+  // Applies the effect in place. This is what the audio thread calls, so
+  // effects should override it to avoid allocating on every sample.
+  default void apply(int count, MutableVector2 vector) {
+    vector.set(apply(count, vector.toVector2()));
+  }
+
+  // Called by the EffectChain on the audio thread at the start of each
+  // block, before anything else, so that the effect can pick up settings
+  // changed since the last block.
+  default void beginBlock() {}
+
+  // False if applying the effect changes more than the vector, such as a
+  // setting that the next sample depends on. Such effects have to be applied
+  // to each sample before the next is generated, so they can't be applied a
+  // block at a time.
+  default boolean isIsolated() {
+    return true;
+  }
 }
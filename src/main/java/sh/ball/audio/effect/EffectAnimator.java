@@ -1,26 +1,62 @@
 package sh.ball.audio.effect;
 
+import sh.ball.math.BlockKernels;
+import sh.ball.shapes.Affine2;
+import sh.ball.shapes.MutableVector2;
 import sh.ball.shapes.Vector2;
 
-public class EffectAnimator extends PhaseEffect implements SettableEffect {
+// Animates the value of an effect between a min and max, or holds it at the
+// value set. The value, min, max and animation are set by the GUI, and the
+// audio thread picks up the newest settings at the start of each block. A
+// change to the value of an effect applied to the samples is ramped over
+// RAMP_SECONDS, and only the audio thread sets it.
+//
+// An effect that isn't audio rate passes its value on, to the frame producer
+// for example, so it is set straight away by whichever thread sets a static
+// value. That way it's passed on even when the effect isn't in the chain or
+// nothing is playing, and the audio thread doesn't call it on every sample
+// of a ramp. The audio thread only sets it while animating, and once when
+// the animation goes back to static.
+public class EffectAnimator extends PhaseEffect implements SettableEffect, AffineEffect, BlockEffect {
 
   public static final int DEFAULT_SAMPLE_RATE = 192000;
 
   private static final double SPEED_SCALE = 20.0;
+  private static final double RAMP_SECONDS = 0.005;
 
   private final SettableEffect effect;
+  // the effect if it's affine, otherwise null
+  private final AffineEffect affineEffect;
+  // the effect if it can be applied a block at a time, otherwise null
+  private final BlockEffect blockEffect;
+  // true if the effect isn't audio rate
+  private final boolean immediate;
+  // scratch space for applying the effect a sample at a time to a block
+  private final MutableVector2 blockSample = new MutableVector2();
 
-  private AnimationType type = AnimationType.STATIC;
-  private boolean justSetToStatic = true;
-  private double targetValue = 0.5;
+  // written by any thread
+  private final Parameter targetValue = new Parameter(0.5);
+  private volatile AnimationType type = AnimationType.STATIC;
+  private volatile double min;
+  private volatile double max;
+  private volatile boolean reapply = false;
+
+  // Only used by the audio thread. The settings for this block, with a null
+  // type until the first block.
+  private AnimationType blockType = null;
+  private double blockMin;
+  private double blockMax;
+  // true until the effect has been given the static value
+  private boolean staticValuePending = true;
   private double actualValue = 0.5;
   private boolean linearDirection = true;
-  private double min;
-  private double max;
 
   public EffectAnimator(int sampleRate, SettableEffect effect, double min, double max) {
     super(sampleRate, 1.0);
     this.effect = effect;
+    this.affineEffect = effect instanceof AffineEffect affine && affine.isAffine() ? affine : null;
+    this.blockEffect = effect instanceof BlockEffect block ? block : null;
+    this.immediate = !effect.isAudioRate();
     this.min = min;
     this.max = max;
   }
@@ -31,9 +67,8 @@ public class EffectAnimator extends PhaseEffect implements SettableEffect {
 
   public void setAnimation(AnimationType type) {
     this.type = type;
-    this.linearDirection = true;
-    if (type == AnimationType.STATIC) {
-      justSetToStatic = true;
+    if (immediate && type == AnimationType.STATIC) {
+      effect.setValue(targetValue.get());
     }
   }
 
@@ -47,23 +82,127 @@ public class EffectAnimator extends PhaseEffect implements SettableEffect {
 
   @Override
   public Vector2 apply(int count, Vector2 vector) {
-    double minValue = min;
-    double maxValue = max;
+    if (animate()) {
+      return effect.apply(count, vector);
+    }
+    return vector;
+  }
+
+  @Override
+  public void apply(int count, MutableVector2 vector) {
+    if (animate()) {
+      effect.apply(count, vector);
+    }
+  }
+
+  // Picks up the settings made since the last block. Switching to static
+  // ramps from wherever the animation had got to.
+  @Override
+  public void beginBlock() {
+    int rampSamples = immediate ? 0 : (int) (sampleRate * RAMP_SECONDS);
+    targetValue.beginBlock(rampSamples);
+    AnimationType type = this.type;
+    if (type != blockType) {
+      if (type == AnimationType.STATIC) {
+        if (blockType != null) {
+          targetValue.rampFrom(actualValue, rampSamples);
+        }
+        staticValuePending = true;
+      }
+      linearDirection = true;
+      blockType = type;
+    }
+    if (reapply) {
+      reapply = false;
+      staticValuePending = true;
+    }
+    blockMin = min;
+    blockMax = max;
+  }
+
+  // The value only stops changing once static, so until then the effect is
+  // updated and applied a sample at a time.
+  @Override
+  public void apply(int count, double[] x, double[] y, int n, BlockKernels kernels) {
+    if (blockEffect != null && isSettled()) {
+      if (blockMax - blockMin > 0) {
+        blockEffect.apply(count, x, y, n, kernels);
+      }
+      return;
+    }
+    for (int i = 0; i < n; i++) {
+      if (animate()) {
+        blockSample.set(x[i], y[i]);
+        effect.apply(count + i, blockSample);
+        x[i] = blockSample.x;
+        y[i] = blockSample.y;
+      }
+    }
+  }
+
+  // only called when the animated effect is affine
+  @Override
+  public void transform(int count, Affine2 transform) {
+    if (animate()) {
+      affineEffect.transform(count, transform);
+    }
+  }
+
+  @Override
+  public boolean isAffine() {
+    return affineEffect != null;
+  }
+
+  @Override
+  public boolean isIsolated() {
+    return effect.isIsolated();
+  }
+
+  // static once the value has stopped changing
+  @Override
+  public boolean isStatic() {
+    return isSettled() && affineEffect.isStatic();
+  }
+
+  // true if the effect's value won't change until the settings do
+  private boolean isSettled() {
+    return blockType == AnimationType.STATIC && !staticValuePending && !targetValue.isRamping();
+  }
+
+  // moves the animated value on by one sample and updates the effect with it.
+  // Returns false if the effect shouldn't be applied at all.
+  private boolean animate() {
+    if (blockType == null) {
+      // applied without an EffectChain, so the settings are only read once
+      beginBlock();
+    }
+    double minValue = blockMin;
+    double maxValue = blockMax;
     double range = maxValue - minValue;
     if (range <= 0) {
-      return vector;
+      return false;
     }
-    double normalisedTargetValue = (targetValue - minValue) / range;
-    double normalisedActualValue = (actualValue - minValue) / range;
-    switch (type) {
-      case STATIC -> {
-        if (justSetToStatic) {
-          actualValue = targetValue;
-          justSetToStatic = false;
+    if (blockType == AnimationType.STATIC) {
+      if (immediate) {
+        // already set by setValue, apart from when the animation stops
+        if (staticValuePending) {
+          staticValuePending = false;
+          actualValue = targetValue.next();
           effect.setValue(actualValue);
         }
-        return effect.apply(count, vector);
+        return true;
+      }
+      if (staticValuePending || targetValue.isRamping()) {
+        actualValue = targetValue.next();
+        staticValuePending = false;
+        effect.setValue(actualValue);
       }
+      return true;
+    }
+    double targetValue = this.targetValue.next();
+    double normalisedTargetValue = (targetValue - minValue) / range;
+    double normalisedActualValue = (actualValue - minValue) / range;
+    switch (blockType) {
       case SEESAW -> {
         double scalar = 10 * Math.max(Math.min(normalisedActualValue, 1 - normalisedActualValue), 0.01);
         double change = range * scalar * SPEED_SCALE * normalisedTargetValue / sampleRate;
@@ -101,16 +240,24 @@ public class EffectAnimator extends PhaseEffect implements SettableEffect {
       }
     }
     effect.setValue(actualValue);
-    return effect.apply(count, vector);
+    return true;
   }
 
+  // sets the effect's value again, for when what the effect does with it has
+  // changed. Audio rate effects are set again at the next block.
   public void updateValue() {
-    effect.setValue(targetValue);
+    if (immediate && type == AnimationType.STATIC) {
+      effect.setValue(targetValue.get());
+    } else {
+      reapply = true;
+    }
   }
 
   @Override
   public void setValue(double value) {
-    this.targetValue = value;
-    effect.setValue(value);
+    targetValue.set(value);
+    if (immediate && type == AnimationType.STATIC) {
+      effect.setValue(value);
+    }
   }
 }
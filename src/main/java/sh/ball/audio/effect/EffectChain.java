@@ -0,0 +1,196 @@
+package sh.ball.audio.effect;
+
+import sh.ball.math.BlockKernels;
+import sh.ball.shapes.Affine2;
+import sh.ball.shapes.MutableVector2;
+
+import java.util.Arrays;
+import java.util.List;
+
+// The effects applied to every sample, compiled once whenever the selected
+// effects change.
+//
+// The effects and their types are an immutable snapshot ordered by
+// precedence. Adding or removing an effect makes a new chain, which is
+// published to the audio thread through a single volatile reference, so the
+// audio thread never sees a chain that is being changed.
+//
+// At the start of each block, every run of consecutive AffineEffects that are
+// static is collapsed into a single 2x3 transform, and runs that do nothing,
+// such as the sliders that only pass on their value, are dropped. For the
+// rest of the block, a run costs one transform per sample and none of its
+// effects are called. A change to a static effect takes effect from the next
+// block. Any other effect is applied on its own, since composing a transform
+// per sample costs more than applying the effects to the vector in turn.
+//
+// If every effect left is isolated, the chain can be applied to the whole
+// block after it has been generated, with BlockEffects and collapsed runs
+// using the SIMD BlockKernels and any other effect applied a sample at a
+// time.
+//
+// Apart from making new chains, used only by the audio thread.
+public class EffectChain {
+
+  public static final EffectChain EMPTY = new EffectChain(List.of());
+
+  // each effect's type, or null if it was given without one
+  private final EffectType[] types;
+  private final Effect[] effects;
+  // each effect if it's affine, otherwise null
+  private final AffineEffect[] affineEffects;
+  // each effect if it can be applied a block at a time, otherwise null
+  private final BlockEffect[] blockEffects;
+  private final Affine2[] transforms;
+  // What's applied in this block, in order. An index into effects, or the
+  // complement of an index into transforms for a collapsed run.
+  private final int[] stages;
+  private int numStages;
+  private boolean blockable;
+  // scratch space for applying an effect that isn't a BlockEffect to a block
+  private final MutableVector2 blockSample = new MutableVector2();
+
+  // the effects in the order they're applied, without types
+  public EffectChain(List<? extends Effect> effects) {
+    this(new EffectType[effects.size()], effects.toArray(new Effect[0]));
+  }
+
+  private EffectChain(EffectType[] types, Effect[] effects) {
+    int size = effects.length;
+    this.types = types;
+    this.effects = effects;
+    this.affineEffects = new AffineEffect[size];
+    this.blockEffects = new BlockEffect[size];
+    this.transforms = new Affine2[size];
+    this.stages = new int[size];
+    for (int i = 0; i < size; i++) {
+      if (this.effects[i] instanceof AffineEffect affine && affine.isAffine()) {
+        affineEffects[i] = affine;
+      }
+      if (this.effects[i] instanceof BlockEffect block) {
+        blockEffects[i] = block;
+      }
+      transforms[i] = new Affine2();
+      // every effect is applied on its own until the first block begins
+      stages[i] = i;
+    }
+    this.numStages = size;
+  }
+
+  public int size() {
+    return effects.length;
+  }
+
+  public Effect effect(int index) {
+    return effects[index];
+  }
+
+  // A new chain with the effect added after every effect of the same or
+  // lower precedence, so effects of the same precedence keep the order they
+  // were added in.
+  public EffectChain withEffect(EffectType type, Effect effect) {
+    int index = effects.length;
+    while (index > 0 && types[index - 1] != null && types[index - 1].precedence > type.precedence) {
+      index--;
+    }
+    EffectType[] newTypes = new EffectType[effects.length + 1];
+    Effect[] newEffects = new Effect[effects.length + 1];
+    System.arraycopy(types, 0, newTypes, 0, index);
+    System.arraycopy(effects, 0, newEffects, 0, index);
+    newTypes[index] = type;
+    newEffects[index] = effect;
+    System.arraycopy(types, index, newTypes, index + 1, effects.length - index);
+    System.arraycopy(effects, index, newEffects, index + 1, effects.length - index);
+    return new EffectChain(newTypes, newEffects);
+  }
+
+  // a new chain without any effects of the given type
+  public EffectChain withoutEffect(EffectType type) {
+    int size = 0;
+    EffectType[] newTypes = new EffectType[effects.length];
+    Effect[] newEffects = new Effect[effects.length];
+    for (int i = 0; i < effects.length; i++) {
+      if (types[i] != type) {
+        newTypes[size] = types[i];
+        newEffects[size++] = effects[i];
+      }
+    }
+    if (size == effects.length) {
+      return this;
+    }
+    return new EffectChain(Arrays.copyOf(newTypes, size), Arrays.copyOf(newEffects, size));
+  }
+
+  // Lets every effect pick up its new settings and collapses the runs of
+  // static effects for the coming block. Must be called at the start of
+  // every block.
+  public void beginBlock() {
+    numStages = 0;
+    blockable = true;
+    int numTransforms = 0;
+    Affine2 run = null;
+    for (int i = 0; i < effects.length; i++) {
+      effects[i].beginBlock();
+      AffineEffect affine = affineEffects[i];
+      if (affine != null && affine.isStatic()) {
+        if (run == null) {
+          run = transforms[numTransforms];
+          run.setIdentity();
+          stages[numStages++] = ~numTransforms++;
+        }
+        affine.transform(0, run);
+      } else {
+        dropIdentity(run);
+        run = null;
+        stages[numStages++] = i;
+        blockable &= effects[i].isIsolated();
+      }
+    }
+    dropIdentity(run);
+  }
+
+  // removes the run just finished if it doesn't change the vector
+  private void dropIdentity(Affine2 run) {
+    if (run != null && run.isIdentity()) {
+      numStages--;
+    }
+  }
+
+  // True if the chain can be applied to a block after every sample in it
+  // has been generated. Only valid once beginBlock has been called.
+  public boolean isBlockable() {
+    return blockable;
+  }
+
+  public void apply(int count, MutableVector2 vector) {
+    for (int i = 0; i < numStages; i++) {
+      int stage = stages[i];
+      if (stage >= 0) {
+        effects[stage].apply(count, vector);
+      } else {
+        transforms[~stage].apply(vector);
+      }
+    }
+  }
+
+  // Applies the chain in place to the first n samples. The first sample is
+  // at the given count and each one after at the next count, without
+  // wrapping.
+  public void apply(int count, double[] x, double[] y, int n, BlockKernels kernels) {
+    for (int i = 0; i < numStages; i++) {
+      int stage = stages[i];
+      if (stage < 0) {
+        transforms[~stage].apply(x, y, n, kernels);
+      } else if (blockEffects[stage] != null) {
+        blockEffects[stage].apply(count, x, y, n, kernels);
+      } else {
+        Effect effect = effects[stage];
+        for (int j = 0; j < n; j++) {
+          blockSample.set(x[j], y[j]);
+          effect.apply(count + j, blockSample);
+          x[j] = blockSample.x;
+          y[j] = blockSample.y;
+        }
+      }
+    }
+  }
+}
@@ -1,8 +1,10 @@
 package sh.ball.audio.effect;
 
+import sh.ball.math.BlockKernels;
+import sh.ball.shapes.MutableVector2;
 import sh.ball.shapes.Vector2;
 
-public class HorizontalDistortEffect implements SettableEffect {
+public class HorizontalDistortEffect implements SettableEffect, BlockEffect {
 
   private double value;
 
@@ -19,6 +21,20 @@ public class HorizontalDistortEffect implements SettableEffect {
     }
   }
 
+  @Override
+  public void apply(int count, MutableVector2 vector) {
+    if (count % 2 == 0) {
+      vector.x += value;
+    } else {
+      vector.x -= value;
+    }
+  }
+
+  @Override
+  public void apply(int count, double[] x, double[] y, int n, BlockKernels kernels) {
+    kernels.alternate(x, n, count % 2 == 0 ? value : -value);
+  }
+
   @Override
   public void setValue(double value) {
     this.value = value;
@@ -0,0 +1,104 @@
+package sh.ball.audio.effect;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+// A value set by any thread, such as the GUI or a MIDI controller, and used by
+// the audio thread.
+//
+// Writers publish the value with a release store, so it is seen along with
+// anything written before it, and never lock. The audio thread reads it once
+// at the start of each block. When it has changed, the value the audio thread
+// uses moves to it in a straight line over a few milliseconds of samples
+// rather than jumping, which would be heard as zipper noise.
+public final class Parameter {
+
+  private static final VarHandle TARGET;
+
+  static {
+    try {
+      TARGET = MethodHandles.lookup().findVarHandle(Parameter.class, "target", double.class);
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  // only accessed through TARGET
+  @SuppressWarnings("unused")
+  private double target;
+
+  // only used by the audio thread
+  private boolean started = false;
+  private double value;
+  private double rampTarget;
+  private double step;
+  private int remaining = 0;
+
+  public Parameter(double value) {
+    this.target = value;
+    this.value = value;
+    this.rampTarget = value;
+  }
+
+  // publishes a new value, which the audio thread moves to from its next
+  // block
+  public void set(double value) {
+    TARGET.setRelease(this, value);
+  }
+
+  // the newest value published
+  public double get() {
+    return (double) TARGET.getAcquire(this);
+  }
+
+  // Reads the newest value and, if it has changed, starts a ramp to it over
+  // the given number of samples. The first value read is jumped to, so that
+  // there is no ramp from the initial value. Called by the audio thread at
+  // the start of each block.
+  public void beginBlock(int rampSamples) {
+    double target = get();
+    if (!started) {
+      started = true;
+      value = target;
+      rampTarget = target;
+      remaining = 0;
+    } else if (Double.compare(target, rampTarget) != 0) {
+      rampFrom(value, rampSamples);
+    }
+  }
+
+  // Restarts the ramp to the newest value from the given value. A ramp of no
+  // samples jumps straight to the value.
+  public void rampFrom(double from, int rampSamples) {
+    rampTarget = get();
+    if (rampSamples <= 0) {
+      value = rampTarget;
+      remaining = 0;
+      return;
+    }
+    value = from;
+    remaining = rampSamples;
+    step = (rampTarget - value) / remaining;
+  }
+
+  public boolean isRamping() {
+    return remaining > 0;
+  }
+
+  // moves the ramp on by a sample and returns the value for that sample
+  public double next() {
+    if (remaining > 0) {
+      if (--remaining == 0) {
+        value = rampTarget;
+      } else {
+        value += step;
+      }
+    }
+    return value;
+  }
+
+  // the value of the last sample
+  public double value() {
+    return value;
+  }
+}
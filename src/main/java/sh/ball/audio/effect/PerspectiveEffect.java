@@ -10,10 +10,11 @@ public class PerspectiveEffect implements SettableEffect {
 
   private final LuaExecutor executor;
 
-  private double zPos = 1.0;
-  private Vector3 baseRotation = new Vector3(Math.PI, Math.PI, 0);
-  private Vector3 currentRotation = new Vector3();
-  private double rotateSpeed = 0.0;
+  // set by the GUI, and read by the audio thread
+  private volatile double zPos = 1.0;
+  private volatile Vector3 baseRotation = new Vector3(Math.PI, Math.PI, 0);
+  private volatile Vector3 currentRotation = new Vector3();
+  private volatile double rotateSpeed = 0.0;
   private double effectScale = 1.0;
 
   public PerspectiveEffect(LuaExecutor executor) {
@@ -6,9 +6,9 @@ public abstract class PhaseEffect implements Effect {
   // there are audio artifacts
   private static final double LARGE_VAL = 2 << 20;
 
-  protected int sampleRate;
-
-  protected double speed;
+  // set by the GUI, and read by the audio thread
+  protected volatile int sampleRate;
+  protected volatile double speed;
   private double phase = -LARGE_VAL;
 
   protected PhaseEffect(int sampleRate, double speed) {
@@ -1,9 +1,17 @@
 package sh.ball.audio.effect;
 
+import sh.ball.shapes.Affine2;
+import sh.ball.shapes.MutableVector2;
 import sh.ball.shapes.Vector2;
 
 // rotates the vector about (0,0)
-public class RotateEffect extends PhaseEffect implements SettableEffect {
+public class RotateEffect extends PhaseEffect implements SettableEffect, AffineEffect {
+
+  // the angle doesn't change while the speed is 0, so its sine and cosine are
+  // only worked out again when it does
+  private double lastTheta = Double.NaN;
+  private double cosTheta;
+  private double sinTheta;
 
   public RotateEffect(int sampleRate, double speed) {
     super(sampleRate, speed);
@@ -18,6 +26,35 @@ public class RotateEffect extends PhaseEffect implements SettableEffect {
     return vector.rotate(nextTheta());
   }
 
+  @Override
+  public void apply(int count, MutableVector2 vector) {
+    updateTheta();
+    vector.set(
+      vector.x * cosTheta - vector.y * sinTheta,
+      vector.x * sinTheta + vector.y * cosTheta
+    );
+  }
+
+  @Override
+  public void transform(int count, Affine2 transform) {
+    updateTheta();
+    transform.rotate(cosTheta, sinTheta);
+  }
+
+  @Override
+  public boolean isStatic() {
+    return speed == 0;
+  }
+
+  private void updateTheta() {
+    double theta = nextTheta();
+    if (theta != lastTheta) {
+      lastTheta = theta;
+      cosTheta = Math.cos(theta);
+      sinTheta = Math.sin(theta);
+    }
+  }
+
   @Override
   public void setValue(double value) {
     setSpeed(value);
@@ -2,4 +2,13 @@ package sh.ball.audio.effect;
 
 public interface SettableEffect extends Effect {
   void setValue(double value);
+
+  // False if the value is passed on to something other than the samples,
+  // such as the frame producer or a Lua script, which must get it even when
+  // the effect isn't being applied. EffectAnimator sets such values straight
+  // away on the thread that sets them, rather than ramping them on the audio
+  // thread.
+  default boolean isAudioRate() {
+    return true;
+  }
 }
@@ -1,5 +1,6 @@
 package sh.ball.audio.effect;
 
+import sh.ball.shapes.MutableVector2;
 import sh.ball.shapes.Vector2;
 
 // Plays a sine wave at the given frequency and volume
@@ -36,4 +37,11 @@ public class SineEffect extends PhaseEffect {
 
     return new Vector2(x, y);
   }
+
+  @Override
+  public void apply(int count, MutableVector2 vector) {
+    double theta = nextTheta();
+    vector.x += volume * Math.sin(frequency * theta);
+    vector.y += volume * Math.cos(frequency * theta);
+  }
 }
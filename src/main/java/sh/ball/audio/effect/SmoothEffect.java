@@ -1,53 +1,244 @@
 package sh.ball.audio.effect;
 
+import sh.ball.shapes.MutableVector2;
 import sh.ball.shapes.Vector2;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
+// Smooths the vector over the last windowSize samples, by default by taking
+// their mean. Every filter costs the same per sample whatever the window.
+//
+// The mean is kept as a running sum of the window, updated as each sample
+// enters and leaves it. The sum is compensated so that the rounding error of
+// adding and subtracting samples forever doesn't build up. When the window
+// changes size, only the samples entering or leaving it are added or
+// subtracted, using the recent samples kept in a ring. At most
+// MAX_RESIZE_STEP samples are added or subtracted each sample, so a big
+// change of window is spread over several samples rather than stalling the
+// audio thread.
+//
+// The ring starts small and is only grown, to the next power of two, when
+// the window is set bigger than it, so a smoother that is never turned up
+// doesn't hold a big ring. The grown ring is picked up by the audio thread,
+// which copies the samples over.
+//
+// The window is set from any thread and picked up by the audio thread on the
+// next sample, so there is no lock.
 public class SmoothEffect implements SettableEffect {
 
-  private static final int MAX_WINDOW_SIZE = 2048;
+  public static final int MAX_WINDOW_SIZE = 1 << 16;
+  // The slider's value of 1 smooths over this many samples, and values up to
+  // that are linear as they always were. Values from 1 to 2 grow the window
+  // exponentially up to MAX_WINDOW_SIZE.
+  private static final int WINDOW_SCALE = 256;
+  private static final int MIN_RING_SIZE = 256;
+  private static final int MAX_RESIZE_STEP = 64;
+  private static final int POLES = 4;
 
-  private final Vector2[] window;
-  private int windowSize;
+  public enum Filter {
+    // mean of the window, the original smoothing
+    MOVING_AVERAGE,
+    // a single exponential smoother with the same delay as the window
+    ONE_POLE,
+    // four exponential smoothers in series, which cut high frequencies more
+    // sharply than one
+    FOUR_POLE
+  }
+
+  // set when the window is, and swapped in by the audio thread
+  private volatile Ring grownRing = new Ring(MIN_RING_SIZE);
+  private volatile int windowSize;
+  private volatile Filter filter = Filter.MOVING_AVERAGE;
+
+  // Only used by the audio thread. The running sum, and its compensation,
+  // of the last sumSize samples, of which the newest is at head - 1.
+  private Ring ring = grownRing;
   private int head = 0;
+  private int sumSize = 1;
+  private double sumX, sumY;
+  private double compensationX, compensationY;
+  // state of each pole of the IIR filters
+  private final double[] polesX = new double[POLES];
+  private final double[] polesY = new double[POLES];
+  private Filter lastFilter = Filter.MOVING_AVERAGE;
+  private int coefficientWindowSize = 0;
+  private int coefficientPoles = 0;
+  private double coefficient = 1;
+  private double lastX, lastY;
 
   public SmoothEffect(int windowSize) {
-    this.windowSize = windowSize <= 0 ? 1 : windowSize;
-    this.window = new Vector2[MAX_WINDOW_SIZE];
+    setWindowSize(windowSize);
   }
 
   @Override
-  public synchronized void setValue(double value) {
-    int windowSize = (int) (256 * value);
-    this.windowSize = Math.max(1, Math.min(MAX_WINDOW_SIZE, windowSize));
+  public void setValue(double value) {
+    if (value <= 1) {
+      setWindowSize((int) (WINDOW_SCALE * value));
+    } else {
+      setWindowSize((int) (WINDOW_SCALE * Math.pow((double) MAX_WINDOW_SIZE / WINDOW_SCALE, value - 1)));
+    }
+  }
+
+  public void setWindowSize(int windowSize) {
+    windowSize = Math.max(1, Math.min(MAX_WINDOW_SIZE, windowSize));
+    // the ring is grown before the window is set, so the audio thread never
+    // sees a window bigger than the ring it gets
+    Ring ring = grownRing;
+    if (ring.size() < windowSize) {
+      grownRing = new Ring(Integer.highestOneBit(windowSize - 1) << 1);
+    }
+    this.windowSize = windowSize;
+  }
+
+  public void setFilter(Filter filter) {
+    this.filter = filter;
+  }
+
+  public Filter getFilter() {
+    return filter;
   }
 
-  // could be made much more efficient by just subbing prev vector and adding
-  // new vector to the aggregate previous average
   @Override
-  public synchronized Vector2 apply(int count, Vector2 vector) {
-    window[head++] = vector;
-    if (head >= MAX_WINDOW_SIZE) {
-      head = 0;
+  public Vector2 apply(int count, Vector2 vector) {
+    MutableVector2 smoothed = new MutableVector2(vector.x, vector.y);
+    apply(count, smoothed);
+    return smoothed.toVector2();
+  }
+
+  @Override
+  public void apply(int count, MutableVector2 vector) {
+    int windowSize = this.windowSize;
+    Filter filter = this.filter;
+
+    Ring grownRing = this.grownRing;
+    if (grownRing != ring) {
+      grow(grownRing);
+    }
+    // the window is always kept so that switching filter is seamless
+    add(vector.x, vector.y);
+    resize(windowSize);
+    if (filter != lastFilter) {
+      // The poles start from the last output so that changing to an IIR
+      // filter doesn't jump. Changing back to the moving average jumps to
+      // the mean of the window.
+      lastFilter = filter;
+      Arrays.fill(polesX, lastX);
+      Arrays.fill(polesY, lastY);
     }
-    double totalX = 0;
-    double totalY = 0;
-    int newHead = head - 1;
-    for (int i = 0; i < windowSize; i++) {
-      if (newHead < 0) {
-        newHead = MAX_WINDOW_SIZE - 1;
-      }
 
-      if (window[newHead] != null) {
-        totalX += window[newHead].getX();
-        totalY += window[newHead].getY();
-      }
+    switch (filter) {
+      case MOVING_AVERAGE -> vector.set((sumX + compensationX) / sumSize, (sumY + compensationY) / sumSize);
+      case ONE_POLE -> smooth(vector, windowSize, 1);
+      case FOUR_POLE -> smooth(vector, windowSize, POLES);
+    }
+    lastX = vector.x;
+    lastY = vector.y;
+  }
 
-      newHead--;
+  // adds the newest sample to the ring and the sum, and drops the oldest
+  // sample in the window from the sum
+  private void add(double x, double y) {
+    int oldest = (head - sumSize) & ring.mask;
+    addX(x);
+    addX(-ring.x[oldest]);
+    addY(y);
+    addY(-ring.y[oldest]);
+    ring.x[head] = x;
+    ring.y[head] = y;
+    head = (head + 1) & ring.mask;
+  }
+
+  // Grows or shrinks the window towards the given size by adding or removing
+  // its oldest samples, by at most MAX_RESIZE_STEP samples.
+  private void resize(int windowSize) {
+    int steps = MAX_RESIZE_STEP;
+    while (sumSize < windowSize && steps-- > 0) {
+      int sample = index(sumSize);
+      addX(ring.x[sample]);
+      addY(ring.y[sample]);
+      sumSize++;
+    }
+    while (sumSize > windowSize && steps-- > 0) {
+      sumSize--;
+      int sample = index(sumSize);
+      addX(-ring.x[sample]);
+      addY(-ring.y[sample]);
     }
+  }
+
+  // Copies the ring into the bigger one, oldest sample first. The samples
+  // older than any that were kept are 0, as they are when the effect starts.
+  private void grow(Ring grown) {
+    int size = ring.size();
+    System.arraycopy(ring.x, head, grown.x, 0, size - head);
+    System.arraycopy(ring.x, 0, grown.x, size - head, head);
+    System.arraycopy(ring.y, head, grown.y, 0, size - head);
+    System.arraycopy(ring.y, 0, grown.y, size - head, head);
+    head = size & grown.mask;
+    ring = grown;
+  }
+
+  // index in the ring of the sample the given number of samples before the
+  // newest
+  private int index(int age) {
+    return (head - 1 - age) & ring.mask;
+  }
+
+  // Neumaier's compensated summation, which keeps the error in the lost low
+  // bits of each addition
+  private void addX(double value) {
+    double sum = sumX + value;
+    if (Math.abs(sumX) >= Math.abs(value)) {
+      compensationX += (sumX - sum) + value;
+    } else {
+      compensationX += (value - sum) + sumX;
+    }
+    sumX = sum;
+  }
+
+  private void addY(double value) {
+    double sum = sumY + value;
+    if (Math.abs(sumY) >= Math.abs(value)) {
+      compensationY += (sumY - sum) + value;
+    } else {
+      compensationY += (value - sum) + sumY;
+    }
+    sumY = sum;
+  }
+
+  // Runs the vector through the given number of one-pole smoothers. Their
+  // time constants add up to half the window, which is the delay of the
+  // moving average, so the filters lag the shape by about the same amount.
+  private void smooth(MutableVector2 vector, int windowSize, int poles) {
+    if (windowSize != coefficientWindowSize || poles != coefficientPoles) {
+      coefficientWindowSize = windowSize;
+      coefficientPoles = poles;
+      double timeConstant = (windowSize - 1) / 2.0 / poles;
+      coefficient = timeConstant == 0 ? 1 : 1 - Math.exp(-1 / timeConstant);
+    }
+    double x = vector.x;
+    double y = vector.y;
+    for (int i = 0; i < poles; i++) {
+      x = polesX[i] += coefficient * (x - polesX[i]);
+      y = polesY[i] += coefficient * (y - polesY[i]);
+    }
+    vector.set(x, y);
+  }
 
-    return new Vector2(totalX / windowSize, totalY / windowSize);
+  private static class Ring {
+
+    private final double[] x;
+    private final double[] y;
+    private final int mask;
+
+    private Ring(int size) {
+      this.x = new double[size];
+      this.y = new double[size];
+      this.mask = size - 1;
+    }
+
+    private int size() {
+      return mask + 1;
+    }
   }
 }
@@ -1,13 +1,16 @@
 package sh.ball.audio.effect;
 
+import sh.ball.shapes.Affine2;
+import sh.ball.shapes.MutableVector2;
 import sh.ball.shapes.Vector2;
 
 // Translates the given vector in a sinusoidal fashion if ellipse is true,
 // otherwise applies a constant translation
-public class TranslateEffect extends PhaseEffect implements SettableEffect {
+public class TranslateEffect extends PhaseEffect implements SettableEffect, AffineEffect {
 
-  private Vector2 translation;
-  private boolean ellipse = false;
+  // set by the GUI, and read by the audio thread
+  private volatile Vector2 translation;
+  private volatile boolean ellipse = false;
   private double scale = 1;
 
   public TranslateEffect(int sampleRate, double speed, Vector2 translation) {
@@ -29,6 +32,35 @@ public class TranslateEffect extends PhaseEffect implements SettableEffect {
     }
   }
 
+  @Override
+  public void apply(int count, MutableVector2 vector) {
+    Vector2 translation = this.translation;
+    if (ellipse) {
+      double theta = nextTheta();
+      vector.x += translation.x * Math.sin(theta) * scale;
+      vector.y += translation.y * Math.cos(theta) * scale;
+    } else {
+      vector.x += translation.x * scale;
+      vector.y += translation.y * scale;
+    }
+  }
+
+  @Override
+  public void transform(int count, Affine2 transform) {
+    Vector2 translation = this.translation;
+    if (ellipse) {
+      double theta = nextTheta();
+      transform.translate(translation.x * Math.sin(theta) * scale, translation.y * Math.cos(theta) * scale);
+    } else {
+      transform.translate(translation.x * scale, translation.y * scale);
+    }
+  }
+
+  @Override
+  public boolean isStatic() {
+    return !ellipse || speed == 0;
+  }
+
   public void setTranslation(Vector2 translation) {
     this.translation = translation;
   }
@@ -1,8 +1,10 @@
 package sh.ball.audio.effect;
 
+import sh.ball.math.BlockKernels;
+import sh.ball.shapes.MutableVector2;
 import sh.ball.shapes.Vector2;
 
-public class VectorCancellingEffect implements SettableEffect {
+public class VectorCancellingEffect implements SettableEffect, BlockEffect {
 
   private double frequency = 1;
   private double nextInvert;
@@ -18,15 +20,62 @@ public class VectorCancellingEffect implements SettableEffect {
 
   @Override
   public Vector2 apply(int count, Vector2 v) {
+    return invert(count) ? v.scale(-1) : v;
+  }
+
+  @Override
+  public void apply(int count, MutableVector2 vector) {
+    if (invert(count)) {
+      vector.scale(-1);
+    }
+  }
+
+  // Inverts every sample, then puts back the few that invert(count) would
+  // leave alone, stepping from one to the next rather than checking each
+  // sample.
+  @Override
+  public void apply(int count, double[] x, double[] y, int n, BlockKernels kernels) {
+    if (n <= 0) {
+      return;
+    }
+    if (count < lastCount) {
+      nextInvert = nextInvert - lastCount + frequency;
+    }
+    lastCount = count + n - 1;
+    kernels.negate(x, n);
+    kernels.negate(y, n);
+    int i = 0;
+    while (true) {
+      // the first sample at or after i that isn't inverted
+      if (count + i < nextInvert) {
+        i = (int) Math.min(n, Math.ceil(nextInvert - count));
+        while (i > 0 && count + i - 1 >= nextInvert) {
+          i--;
+        }
+        while (i < n && count + i < nextInvert) {
+          i++;
+        }
+      }
+      if (i >= n) {
+        return;
+      }
+      x[i] = -x[i];
+      y[i] = -y[i];
+      nextInvert += frequency;
+      i++;
+    }
+  }
+
+  private boolean invert(int count) {
     if (count < lastCount) {
       nextInvert = nextInvert - lastCount + frequency;
     }
     lastCount = count;
     if (count >= nextInvert) {
       nextInvert += frequency;
-      return v;
+      return false;
     } else {
-      return v.scale(-1);
+      return true;
     }
   }
 }
@@ -1,6 +1,7 @@
 package sh.ball.audio.effect;
 
 import sh.ball.audio.FrequencyListener;
+import sh.ball.shapes.MutableVector2;
 import sh.ball.shapes.Vector2;
 
 // Plays a sine wave at the same frequency as provided by the FrequencyListener
@@ -11,7 +12,8 @@ public class WobbleEffect extends PhaseEffect implements FrequencyListener, Sett
   private static final double DEFAULT_VOLUME = 0.2;
 
   private double frequency;
-  private double lastFrequency;
+  // set by the FrequencyAnalyser's thread
+  private volatile double lastFrequency;
   private double volume;
 
   public WobbleEffect(int sampleRate, double volume) {
@@ -46,6 +48,14 @@ public class WobbleEffect extends PhaseEffect implements FrequencyListener, Sett
     return new Vector2(x, y);
   }
 
+  @Override
+  public void apply(int count, MutableVector2 vector) {
+    double theta = nextTheta();
+    double delta = volume * Math.sin(frequency * theta);
+    vector.x += delta;
+    vector.y += delta;
+  }
+
   @Override
   public void setValue(double value) {
     this.volume = value;
@@ -4,19 +4,75 @@ import sh.ball.shapes.Vector2;
 
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.locks.LockSupport;
 
 public interface AudioEngine {
   boolean isPlaying();
 
+  void play(BlockRenderer renderer, AudioDevice device) throws Exception;
+
+  // legacy per-sample contract, adapted to a BlockRenderer by each engine
   void play(Callable<Vector2> channelGenerator, AudioDevice device) throws Exception;
 
   void stop();
 
+  // Blocks until play has returned after stop was called. Engines without
+  // anything to wait on check every millisecond.
+  default void awaitStopped() throws InterruptedException {
+    while (isPlaying()) {
+      LockSupport.parkNanos(1_000_000);
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+    }
+  }
+
+  // Moves playback to another device without play returning, if the engine
+  // can. Returns false if it can't, in which case the engine must be
+  // stopped and played again on the device.
+  default boolean swapDevice(AudioDevice device) {
+    return false;
+  }
+
   List<AudioDevice> devices();
 
   AudioDevice getDefaultDevice();
 
+  // Runs the listener, on any thread, whenever the devices returned by
+  // devices() change.
+  default void onDevicesChanged(Runnable listener) {}
+
   AudioDevice currentDevice();
 
   void setBrightness(double brightness);
+
+  // Fills the audio device only as far as it needs to keep up, rather than
+  // to a fixed latency. Engines that can't are unaffected.
+  default void setAdaptiveLatency(boolean adaptiveLatency) {}
+
+  // timing of every block rendered, which is every block the audio device
+  // asked for unless the engine renders ahead of it
+  RenderMetrics metrics();
+
+  // number of times the audio device asked for more samples than were ready
+  default long underruns() {
+    return 0;
+  }
+
+  // number of times samples were ready faster than the audio device took them
+  default long overruns() {
+    return 0;
+  }
+
+  // fraction of the engine's buffer holding samples ready for the audio
+  // device, or 0 if it doesn't buffer ahead
+  default double bufferFill() {
+    return 0;
+  }
+
+  // audio queued between the engine and the audio device, in milliseconds,
+  // or 0 if unknown
+  default double latencyMillis() {
+    return 0;
+  }
 }
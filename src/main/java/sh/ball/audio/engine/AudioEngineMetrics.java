@@ -0,0 +1,73 @@
+package sh.ball.audio.engine;
+
+import java.util.function.Supplier;
+
+// Reports the RenderMetrics of whichever engine is currently playing. Every
+// getter takes a snapshot, so the audio thread does no more than record.
+public class AudioEngineMetrics implements AudioEngineMetricsMXBean {
+
+  private final Supplier<AudioEngine> audioEngine;
+
+  public AudioEngineMetrics(Supplier<AudioEngine> audioEngine) {
+    this.audioEngine = audioEngine;
+  }
+
+  private RenderMetrics.Snapshot snapshot() {
+    return audioEngine.get().metrics().snapshot();
+  }
+
+  @Override
+  public long getCallbacks() {
+    return snapshot().callbacks();
+  }
+
+  @Override
+  public long getDeadlineMisses() {
+    return snapshot().deadlineMisses();
+  }
+
+  @Override
+  public long getUnderruns() {
+    return audioEngine.get().underruns();
+  }
+
+  @Override
+  public long getOverruns() {
+    return audioEngine.get().overruns();
+  }
+
+  @Override
+  public double getBufferFill() {
+    return audioEngine.get().bufferFill();
+  }
+
+  @Override
+  public double getLatencyMillis() {
+    return audioEngine.get().latencyMillis();
+  }
+
+  @Override
+  public double getRenderTimeMeanMicros() {
+    return snapshot().meanNanos() / 1000;
+  }
+
+  @Override
+  public double getRenderTimeP50Micros() {
+    return snapshot().percentileNanos(0.5) / 1000.0;
+  }
+
+  @Override
+  public double getRenderTimeP99Micros() {
+    return snapshot().percentileNanos(0.99) / 1000.0;
+  }
+
+  @Override
+  public double getRenderTimeP999Micros() {
+    return snapshot().percentileNanos(0.999) / 1000.0;
+  }
+
+  @Override
+  public double getRenderTimeMaxMicros() {
+    return snapshot().maxNanos() / 1000.0;
+  }
+}
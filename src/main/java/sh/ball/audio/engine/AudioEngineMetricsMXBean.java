@@ -0,0 +1,29 @@
+package sh.ball.audio.engine;
+
+// Health of the audio thread, exposed over JMX. Times are in microseconds
+// and counts are totals since the engine was created.
+public interface AudioEngineMetricsMXBean {
+
+  long getCallbacks();
+
+  // callbacks that took longer to render than the audio they rendered lasts
+  long getDeadlineMisses();
+
+  long getUnderruns();
+
+  long getOverruns();
+
+  double getBufferFill();
+
+  double getLatencyMillis();
+
+  double getRenderTimeMeanMicros();
+
+  double getRenderTimeP50Micros();
+
+  double getRenderTimeP99Micros();
+
+  double getRenderTimeP999Micros();
+
+  double getRenderTimeMaxMicros();
+}
@@ -1,6 +1,6 @@
 package sh.ball.audio.engine;
 
-import java.util.function.Consumer;
+import java.nio.ByteBuffer;
 
 // defines the different kinds of support audio samples for different audio
 // devices
@@ -21,64 +21,27 @@ public enum AudioSample {
     this.signed = signed;
   }
 
-  public static void writeAudioSample(AudioSample sample, double[] channels, Consumer<Byte> writeByte) {
-    switch (sample) {
-      case UINT8 -> {
-        for (double channel : channels) {
-          writeByte.accept((byte) ((int) (127 * (channel + 1))));
-        }
-      }
-      case INT8 -> {
-        for (double channel : channels) {
-          writeByte.accept((byte) ((int) (127 * channel)));
-        }
-      }
-      case INT16 -> {
-        for (double channel : channels) {
-          short shortChannel = (short) (channel * Short.MAX_VALUE);
-          writeByte.accept((byte) shortChannel);
-          writeByte.accept((byte) (shortChannel >> 8));
-        }
-      }
+  // number of bytes used to store one sample of one channel
+  public int bytes() {
+    return size / 8;
+  }
+
+  // writes a single sample in this format to the buffer, which should be
+  // little endian
+  public void write(double sample, ByteBuffer buffer) {
+    switch (this) {
+      case UINT8 -> buffer.put((byte) ((int) (127 * (sample + 1))));
+      case INT8 -> buffer.put((byte) ((int) (127 * sample)));
+      case INT16 -> buffer.putShort((short) (sample * Short.MAX_VALUE));
       case INT24 -> {
-        for (double channel : channels) {
-          int intChannel = (int) (channel * 8388606);
-          writeByte.accept((byte) intChannel);
-          writeByte.accept((byte) (intChannel >> 8));
-          writeByte.accept((byte) (intChannel >> 16));
-        }
-      }
-      case INT32 -> {
-        for (double channel : channels) {
-          int intChannel = (int) (channel * Integer.MAX_VALUE);
-          writeByte.accept((byte) intChannel);
-          writeByte.accept((byte) (intChannel >> 8));
-          writeByte.accept((byte) (intChannel >> 16));
-          writeByte.accept((byte) (intChannel >> 24));
-        }
-      }
-      case FLOAT32 -> {
-        for (double channel : channels) {
-          int intChannel = Float.floatToIntBits((float) channel);
-          writeByte.accept((byte) intChannel);
-          writeByte.accept((byte) (intChannel >> 8));
-          writeByte.accept((byte) (intChannel >> 16));
-          writeByte.accept((byte) (intChannel >> 24));
-        }
-      }
-      case FLOAT64 -> {
-        for (double channel : channels) {
-          long longChannel = Double.doubleToLongBits(channel);
-          writeByte.accept((byte) longChannel);
-          writeByte.accept((byte) (longChannel >> 8));
-          writeByte.accept((byte) (longChannel >> 16));
-          writeByte.accept((byte) (longChannel >> 24));
-          writeByte.accept((byte) (longChannel >> 32));
-          writeByte.accept((byte) (longChannel >> 40));
-          writeByte.accept((byte) (longChannel >> 48));
-          writeByte.accept((byte) (longChannel >> 56));
-        }
+        int intSample = (int) (sample * 8388606);
+        buffer.put((byte) intSample);
+        buffer.put((byte) (intSample >> 8));
+        buffer.put((byte) (intSample >> 16));
       }
+      case INT32 -> buffer.putInt((int) (sample * Integer.MAX_VALUE));
+      case FLOAT32 -> buffer.putFloat((float) sample);
+      case FLOAT64 -> buffer.putDouble(sample);
     }
   }
 }
@@ -0,0 +1,14 @@
+package sh.ball.audio.engine;
+
+// Renders audio a block at a time. The AudioEngine owns a preallocated
+// interleaved buffer and hands it to the renderer along with the number of
+// frames it needs, so there is only one call per block rather than one per
+// sample. Each frame is made up of `channels` consecutive samples.
+public interface BlockRenderer {
+  void render(float[] buffer, int frames, int channels) throws Exception;
+
+  // Called by the AudioEngine before it starts asking for blocks, and again
+  // if it moves to another device, with the most frames it will ask for at
+  // once.
+  default void prepare(int maxFrames, int channels) throws Exception {}
+}
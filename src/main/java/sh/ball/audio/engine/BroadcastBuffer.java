@@ -0,0 +1,155 @@
+package sh.ball.audio.engine;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.LockSupport;
+
+// Ring buffer of interleaved float frames with one writer and any number of
+// readers (taps). The audio thread publishes each block once and every tap
+// keeps its own position, so taps read at their own pace without the writer
+// knowing they exist.
+//
+// The writer never waits for taps. A tap that falls more than the capacity
+// behind the writer has been lapped and skips ahead to the newest frames,
+// counting the frames it missed, so a slow tap can never stall the audio
+// thread.
+//
+// Before writing a block the writer claims the frames it's about to
+// overwrite. After copying, a tap checks the claim to make sure the frames it
+// copied weren't overwritten part way through, and retries if they were.
+public class BroadcastBuffer {
+
+  private static final long WAIT_NANOS = 1_000_000;
+
+  private final float[] buffer;
+  private final int capacity;
+  private final int mask;
+  private final int channels;
+  // frames that have been fully written and can be read
+  private final Sequence cursor = new Sequence();
+  // frames that the writer has started writing
+  private final Sequence claim = new Sequence();
+
+  // the capacity is rounded up to a power of two frames
+  public BroadcastBuffer(int minFrames, int channels) {
+    this.capacity = Integer.highestOneBit(Math.max(minFrames, 2) - 1) << 1;
+    this.mask = capacity - 1;
+    this.channels = channels;
+    this.buffer = new float[capacity * channels];
+  }
+
+  public int capacity() {
+    return capacity;
+  }
+
+  public int channels() {
+    return channels;
+  }
+
+  // Only to be called by the single writer. Copies the first channels() of
+  // every frame in the interleaved src buffer, filling any missing channels
+  // with zero.
+  public void publish(float[] src, int frames, int srcChannels) {
+    long start = cursor.get();
+    claim.setRelease(start + frames);
+    // make sure taps can't see the new data before they see the claim
+    VarHandle.releaseFence();
+
+    int copied = Math.min(srcChannels, channels);
+    for (int frame = 0; frame < frames; frame++) {
+      int index = (int) ((start + frame) & mask) * channels;
+      int srcIndex = frame * srcChannels;
+      for (int channel = 0; channel < copied; channel++) {
+        buffer[index + channel] = src[srcIndex + channel];
+      }
+      for (int channel = copied; channel < channels; channel++) {
+        buffer[index + channel] = 0;
+      }
+    }
+
+    cursor.setRelease(start + frames);
+  }
+
+  // creates a tap that starts reading from the next frame to be published
+  public Tap tap() {
+    return new Tap(cursor.get());
+  }
+
+  public class Tap {
+
+    private long position;
+    private long dropped = 0;
+    private float[] scratch = new float[0];
+
+    private Tap(long position) {
+      this.position = position;
+    }
+
+    public int channels() {
+      return channels;
+    }
+
+    // number of frames skipped because this tap fell too far behind
+    public long dropped() {
+      return dropped;
+    }
+
+    // Blocks until the next `frames` frames have been published and copies
+    // them into dst, interleaved.
+    public void read(float[] dst, int frames) throws InterruptedException {
+      if (frames > capacity) {
+        throw new IllegalArgumentException("Cannot read " + frames + " frames from a buffer of " + capacity + " frames");
+      }
+      while (true) {
+        long available = cursor.get();
+        while (available - position < frames) {
+          LockSupport.parkNanos(this, WAIT_NANOS);
+          if (Thread.interrupted()) {
+            throw new InterruptedException();
+          }
+          available = cursor.get();
+        }
+        if (available - position > capacity) {
+          skipTo(available - frames);
+        }
+
+        long start = position;
+        int index = (int) (start & mask) * channels;
+        int samples = frames * channels;
+        int firstPart = Math.min(samples, buffer.length - index);
+        System.arraycopy(buffer, index, dst, 0, firstPart);
+        System.arraycopy(buffer, 0, dst, firstPart, samples - firstPart);
+
+        // make sure the data is read before checking whether it was overwritten
+        VarHandle.acquireFence();
+        long claimed = claim.get();
+        if (claimed - capacity <= start) {
+          position = start + frames;
+          return;
+        }
+        // the writer overwrote some of what was copied, so skip to newer frames
+        skipTo(Math.max(start + 1, claimed - capacity));
+      }
+    }
+
+    // Reads dst.length / (2 * channels()) frames into dst as 16-bit little
+    // endian samples.
+    public void read(byte[] dst) throws InterruptedException {
+      int frames = dst.length / (2 * channels);
+      int samples = frames * channels;
+      if (scratch.length < samples) {
+        scratch = new float[samples];
+      }
+      read(scratch, frames);
+      for (int i = 0; i < samples; i++) {
+        int sample = (int) (scratch[i] * Short.MAX_VALUE);
+        dst[2 * i] = (byte) sample;
+        dst[2 * i + 1] = (byte) (sample >> 8);
+      }
+    }
+
+    private void skipTo(long newPosition) {
+      dropped += newPosition - position;
+      position = newPosition;
+    }
+  }
+}
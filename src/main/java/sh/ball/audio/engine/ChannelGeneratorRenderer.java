@@ -0,0 +1,39 @@
+package sh.ball.audio.engine;
+
+import sh.ball.shapes.Vector2;
+
+import java.util.concurrent.Callable;
+import java.util.function.DoubleSupplier;
+
+// Shim that adapts the legacy per-sample Callable<Vector2> contract to a
+// BlockRenderer. The x and y of each vector are written to the first two
+// channels and any remaining channels are filled with the brightness.
+public class ChannelGeneratorRenderer implements BlockRenderer {
+
+  private final Callable<Vector2> channelGenerator;
+  private final DoubleSupplier brightness;
+
+  public ChannelGeneratorRenderer(Callable<Vector2> channelGenerator, DoubleSupplier brightness) {
+    this.channelGenerator = channelGenerator;
+    this.brightness = brightness;
+  }
+
+  @Override
+  public void render(float[] buffer, int frames, int channels) throws Exception {
+    float fill = (float) brightness.getAsDouble();
+    int index = 0;
+    for (int frame = 0; frame < frames; frame++) {
+      Vector2 vector = channelGenerator.call();
+      for (int channel = 2; channel < channels; channel++) {
+        buffer[index + channel] = fill;
+      }
+      if (channels > 0) {
+        buffer[index] = (float) vector.getX();
+      }
+      if (channels > 1) {
+        buffer[index + 1] = (float) vector.getY();
+      }
+      index += channels;
+    }
+  }
+}
@@ -3,10 +3,13 @@ package sh.ball.audio.engine;
 import sh.ball.shapes.Vector2;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 
 import static sh.ball.gui.Gui.logger;
@@ -19,17 +22,32 @@ public class ConglomerateAudioEngine implements AudioEngine {
   // used to determine which OS we are on
   private static final String OS = System.getProperty("os.name", "generic").toLowerCase(Locale.ENGLISH);
   private static final boolean MAC_OS = OS.contains("mac") || OS.contains("darwin");
+  private static final int DEFAULT_BUFFER_MS = 20;
+
+  // Shared by every engine as the player makes a new one each time it's
+  // reset. XtAudio does not support MacOS so no XtAudio devices are looked
+  // for on a mac.
+  private static final DeviceRegistry javaDevices = new DeviceRegistry("java",
+    () -> new JavaAudioEngine().devices(), () -> new JavaAudioEngine().mixerNames());
+  private static final DeviceRegistry xtDevices = new DeviceRegistry("xt",
+    () -> MAC_OS ? List.of() : new XtAudioEngine().tryDevices(), () -> MAC_OS ? List.of() : new XtAudioEngine().deviceIds());
 
   private final XtAudioEngine xtEngine = new XtAudioEngine();
   private final JavaAudioEngine javaEngine = new JavaAudioEngine();
+  private final RenderMetrics metrics = new RenderMetrics();
 
-  // TODO: Try and make non-static
-  private static List<AudioDevice> xtDevices;
-  private static List<AudioDevice> javaDevices;
+  private volatile boolean playing = false;
+  // counted down when play returns
+  private volatile CountDownLatch finished = new CountDownLatch(0);
+  private volatile AudioDevice device;
+  private volatile BufferedRenderer bufferedRenderer;
+  private int bufferMs = DEFAULT_BUFFER_MS;
+  private double brightness = 1.0;
 
-  private boolean playing = false;
-  private AudioDevice device;
-  private BufferedChannelGenerator bufferedChannelGenerator;
+  public ConglomerateAudioEngine() {
+    javaDevices.start();
+    xtDevices.start();
+  }
 
   @Override
   public boolean isPlaying() {
@@ -38,52 +56,135 @@ public class ConglomerateAudioEngine implements AudioEngine {
 
   @Override
   public void play(Callable<Vector2> channelGenerator, AudioDevice device) throws Exception {
+    play(new ChannelGeneratorRenderer(channelGenerator, () -> brightness), device);
+  }
+
+  @Override
+  public void play(BlockRenderer renderer, AudioDevice device) throws Exception {
+    CountDownLatch finished = new CountDownLatch(1);
+    this.finished = finished;
     playing = true;
     this.device = device;
-    if (bufferedChannelGenerator != null) {
-      bufferedChannelGenerator.stop();
-    }
-    bufferedChannelGenerator = new BufferedChannelGenerator(channelGenerator);
-    new Thread(bufferedChannelGenerator).start();
-    if (xtDevices.contains(device)) {
-      xtEngine.play(bufferedChannelGenerator, device);
-    } else {
-      javaEngine.play(bufferedChannelGenerator, device);
+    // the producer thread is started once the engine says how big its
+    // blocks are
+    BufferedRenderer bufferedRenderer = new BufferedRenderer(renderer, device, bufferMs, metrics);
+    this.bufferedRenderer = bufferedRenderer;
+    try {
+      if (xtDevices.contains(device)) {
+        xtEngine.play(bufferedRenderer, device);
+      } else {
+        javaEngine.play(bufferedRenderer, device);
+      }
+    } finally {
+      // also stops the producer if the engine failed to play, and waits for
+      // it so that only one producer at a time records metrics
+      bufferedRenderer.close();
+      playing = false;
+      this.device = null;
+      finished.countDown();
     }
-    playing = false;
-    this.device = null;
   }
 
   @Override
   public void stop() {
     xtEngine.stop();
     javaEngine.stop();
-    bufferedChannelGenerator.stop();
+    BufferedRenderer bufferedRenderer = this.bufferedRenderer;
+    if (bufferedRenderer != null) {
+      bufferedRenderer.stop();
+    }
   }
 
   @Override
-  public List<AudioDevice> devices() {
-    List<AudioDevice> devices = new ArrayList<>();
+  public void awaitStopped() throws InterruptedException {
+    finished.await();
+  }
 
-    if (javaDevices == null) {
-      javaDevices = javaEngine.devices();
+  // Only XtAudio devices can be swapped between, and only with the same
+  // number of channels and sample rate, as the ring holds frames of the
+  // current device's channels and the producer renders, times and sizes the
+  // ring at its sample rate.
+  @Override
+  public boolean swapDevice(AudioDevice device) {
+    AudioDevice current = this.device;
+    if (current == null || !xtDevices.contains(current) || !xtDevices.contains(device)
+      || current.channels() != device.channels() || current.sampleRate() != device.sampleRate()) {
+      return false;
     }
-
-    if (xtDevices == null) {
-      // XtAudio does not support MacOS so we should ignore all devices on XtAudio if on a mac
-      if (MAC_OS) {
-        xtDevices = new ArrayList<>();
-      } else {
-        xtDevices = xtEngine.devices();
-      }
+    if (!xtEngine.swapDevice(device)) {
+      return false;
     }
+    this.device = device;
+    return true;
+  }
+
+  // sets how much audio is rendered ahead of the audio device. Takes effect
+  // the next time the engine starts playing.
+  public void setBufferMs(int bufferMs) {
+    this.bufferMs = Math.max(1, bufferMs);
+  }
+
+  // Timing of the blocks rendered by the producer thread. The engines only
+  // copy out of the ring, so their timings don't show how long the project
+  // takes to render.
+  @Override
+  public RenderMetrics metrics() {
+    return metrics;
+  }
+
+  // Underruns of the ring between the renderer and the audio thread, and of
+  // the line if it's a Java Sound device.
+  @Override
+  public long underruns() {
+    BufferedRenderer renderer = bufferedRenderer;
+    return (renderer == null ? 0 : renderer.underruns()) + javaEngine.underruns();
+  }
+
+  @Override
+  public long overruns() {
+    BufferedRenderer renderer = bufferedRenderer;
+    return renderer == null ? 0 : renderer.overruns();
+  }
+
+  @Override
+  public double bufferFill() {
+    BufferedRenderer renderer = bufferedRenderer;
+    return renderer == null ? 0 : renderer.fill();
+  }
+
+  // the ring's latency is set by setBufferMs and isn't included
+  @Override
+  public double latencyMillis() {
+    return javaEngine.latencyMillis();
+  }
 
-    devices.addAll(javaDevices);
-    devices.addAll(xtDevices);
+  // only Java Sound devices adapt, see JavaAudioEngine.setAdaptiveLatency
+  @Override
+  public void setAdaptiveLatency(boolean adaptiveLatency) {
+    javaEngine.setAdaptiveLatency(adaptiveLatency);
+  }
+
+  // Never waits for devices to be probed. Before any are known, which is
+  // only the first time the program runs, this is just the default device.
+  @Override
+  public List<AudioDevice> devices() {
+    List<AudioDevice> devices = new ArrayList<>();
+
+    if (!javaDevices.isKnown() && !xtDevices.isKnown()) {
+      devices.add(getDefaultDevice());
+    }
+    devices.addAll(javaDevices.devices());
+    devices.addAll(xtDevices.devices());
 
     return devices;
   }
 
+  @Override
+  public void onDevicesChanged(Runnable listener) {
+    javaDevices.addListener(devices -> listener.run());
+    xtDevices.addListener(devices -> listener.run());
+  }
+
   @Override
   public AudioDevice getDefaultDevice() {
     return javaEngine.getDefaultDevice();
@@ -96,63 +197,155 @@ public class ConglomerateAudioEngine implements AudioEngine {
 
   @Override
   public void setBrightness(double brightness) {
+    this.brightness = brightness;
     javaEngine.setBrightness(brightness);
     xtEngine.setBrightness(brightness);
   }
 
-  // This ensures that the channelGenerator is ALWAYS being called regardless
-  // of whether the underlying AudioEngine is requesting channels as soon as they
+  // This ensures that the renderer is ALWAYS being called regardless of
+  // whether the underlying AudioEngine is requesting blocks as soon as they
   // are needed. This significantly improves performance of JavaAudioEngine and
-  // keeps expensive computation out of the audio thread, in exchange for
-  // potentially blocking on a buffer.
-  private static class BufferedChannelGenerator implements Callable<Vector2>, Runnable {
+  // keeps expensive computation out of the audio thread.
+  //
+  // Rendered samples are handed to the audio thread through a lock-free ring
+  // buffer. The audio thread never blocks: if the ring is empty it outputs
+  // silence and counts an underrun. The producer parks rather than spins when
+  // the ring is full and is woken by the audio thread after it reads.
+  //
+  // The ring holds at least the requested buffer, and always enough for the
+  // largest block the audio device asks for plus a block from the producer,
+  // so that a full block is ready whenever it's asked for.
+  private static class BufferedRenderer implements BlockRenderer, Runnable {
 
     private static final int BLOCK_SIZE = 1024;
-    private static final int BUFFER_SIZE = 2;
+    // upper bound on how long the producer parks for if it misses a wakeup
+    private static final long MAX_PARK_NANOS = 1_000_000;
 
-    private final ArrayBlockingQueue<Vector2[]> buffer;
-    private final Callable<Vector2> channelGenerator;
+    private final BlockRenderer renderer;
+    private final int channels;
+    private final int sampleRate;
+    private final int bufferFrames;
+    private final RenderMetrics metrics;
+    private final AtomicLong underruns = new AtomicLong();
+    private final AtomicLong overruns = new AtomicLong();
 
-    private Vector2[] currentBlock = null;
-    private int currentVector = 0;
-    private boolean stopped = true;
+    // null until prepared, and only replaced while the audio device isn't
+    // asking for blocks
+    private volatile FloatRingBuffer ring;
+    private volatile Thread producer;
+    private volatile boolean producerParked = false;
+    private volatile boolean stopped = true;
+    // set once the engine stops, after which the producer is never started
+    private boolean closed = false;
 
-    private BufferedChannelGenerator(Callable<Vector2> channelGenerator) {
-      this.buffer = new ArrayBlockingQueue<>(BUFFER_SIZE);
-      this.channelGenerator = channelGenerator;
+    private BufferedRenderer(BlockRenderer renderer, AudioDevice device, int bufferMs, RenderMetrics metrics) {
+      this.renderer = renderer;
+      this.channels = device.channels();
+      this.sampleRate = device.sampleRate();
+      this.metrics = metrics;
+      this.bufferFrames = (int) ((long) device.sampleRate() * bufferMs / 1000);
     }
 
-    public void stop() {
+    // Makes a ring big enough for the audio device's blocks and starts the
+    // producer filling it. If a swap to another device needs a bigger ring,
+    // the producer is stopped and started again on a new one.
+    @Override
+    public synchronized void prepare(int maxFrames, int channels) throws Exception {
+      int frames = Math.max(bufferFrames, maxFrames + BLOCK_SIZE);
+      FloatRingBuffer ring = this.ring;
+      if (closed || (ring != null && ring.capacity() >= frames * this.channels)) {
+        return;
+      }
+      stopProducer();
+      // the producer always renders whole blocks for this device
+      renderer.prepare(BLOCK_SIZE, this.channels);
+      this.ring = new FloatRingBuffer(frames * this.channels, this.channels);
+      stopped = false;
+      Thread thread = new Thread(this, "buffered-renderer");
+      producer = thread;
+      thread.start();
+    }
+
+    public synchronized void stop() {
+      closed = true;
       stopped = true;
+      Thread producer = this.producer;
+      if (producer != null) {
+        LockSupport.unpark(producer);
+      }
+    }
+
+    private synchronized void close() {
+      closed = true;
+      try {
+        stopProducer();
+      } catch (InterruptedException e) {
+        logger.log(Level.SEVERE, e.getMessage(), e);
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private void stopProducer() throws InterruptedException {
+      stopped = true;
+      Thread producer = this.producer;
+      if (producer != null) {
+        LockSupport.unpark(producer);
+        producer.join();
+      }
     }
 
     @Override
     public void run() {
-      stopped = false;
+      FloatRingBuffer ring = this.ring;
+      float[] block = new float[BLOCK_SIZE * channels];
       while (!stopped) {
-        Vector2[] block = new Vector2[BLOCK_SIZE];
-        for (int i = 0; i < block.length; i++) {
-          try {
-            block[i] = channelGenerator.call();
-          } catch (Exception e) {
-            logger.log(Level.SEVERE, e.getMessage(), e);
-          }
-        }
+        long start = System.nanoTime();
         try {
-          buffer.put(block);
-        } catch (InterruptedException e) {
+          renderer.render(block, BLOCK_SIZE, channels);
+        } catch (Exception e) {
           logger.log(Level.SEVERE, e.getMessage(), e);
         }
+        metrics.record(System.nanoTime() - start, BLOCK_SIZE, sampleRate);
+        int offset = ring.write(block, 0, block.length);
+        if (offset < block.length) {
+          overruns.incrementAndGet();
+        }
+        while (offset < block.length && !stopped) {
+          producerParked = true;
+          LockSupport.parkNanos(this, MAX_PARK_NANOS);
+          producerParked = false;
+          offset += ring.write(block, offset, block.length - offset);
+        }
       }
     }
 
     @Override
-    public Vector2 call() throws Exception {
-      if (currentBlock == null || currentVector >= BLOCK_SIZE) {
-        currentBlock = buffer.take();
-        currentVector = 0;
+    public void render(float[] output, int frames, int channels) {
+      int samples = frames * channels;
+      FloatRingBuffer ring = this.ring;
+      int read = ring == null ? 0 : ring.read(output, 0, samples);
+      if (read < samples) {
+        underruns.incrementAndGet();
+        Arrays.fill(output, read, samples, 0);
+      }
+      if (producerParked) {
+        LockSupport.unpark(producer);
       }
-      return currentBlock[currentVector++];
+    }
+
+    // number of times the audio thread asked for more samples than were ready
+    private long underruns() {
+      return underruns.get();
+    }
+
+    // number of times the producer filled the ring and had to wait
+    private long overruns() {
+      return overruns.get();
+    }
+
+    private double fill() {
+      FloatRingBuffer ring = this.ring;
+      return ring == null ? 0 : (double) ring.size() / ring.capacity();
     }
   }
 }
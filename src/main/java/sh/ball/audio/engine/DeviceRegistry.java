@@ -0,0 +1,176 @@
+package sh.ball.audio.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+import static sh.ball.gui.Gui.logger;
+
+// Keeps the devices of an audio engine, which can take seconds to find as
+// every device is opened and probed for the formats it supports. Probing
+// happens in the background, so asking for the devices never waits.
+//
+// The devices found are saved to the user's preferences so that the next
+// time the program starts they're known straight away, while they're probed
+// again in the background. Afterwards, a cheap fingerprint of the connected
+// devices, such as their names, is checked every few seconds and the devices
+// are probed again when it changes. Listeners are told whenever the devices
+// found differ from the ones known.
+public class DeviceRegistry {
+
+  private static final String DEVICE = "DEVICE_";
+  private static final String SEPARATOR = "\t";
+  private static final long POLL_SECONDS = 5;
+
+  // shared by every registry so that engines are probed in parallel
+  private static final ScheduledExecutorService executor = Executors.newScheduledThreadPool(2, runnable -> {
+    Thread thread = new Thread(runnable, "device-registry");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Callable<List<AudioDevice>> probe;
+  private final Callable<?> fingerprint;
+  private final Preferences preferences;
+  private final List<Consumer<List<AudioDevice>>> listeners = new CopyOnWriteArrayList<>();
+
+  // null until devices have been found or loaded
+  private volatile List<AudioDevice> devices;
+  private volatile Object lastFingerprint;
+  private CompletableFuture<List<AudioDevice>> probing;
+  private ScheduledFuture<?> polling;
+
+  // The probe and fingerprint return null if the devices can't be checked
+  // right now, which skips that check. A skipped probe is tried again after
+  // POLL_SECONDS, so that the pool threads never wait on the engine. The
+  // name keeps the saved devices of each registry apart.
+  public DeviceRegistry(String name, Callable<List<AudioDevice>> probe, Callable<?> fingerprint) {
+    this.probe = probe;
+    this.fingerprint = fingerprint;
+    this.preferences = Preferences.userNodeForPackage(DeviceRegistry.class).node(name);
+    this.devices = load();
+  }
+
+  // probes the devices and then keeps checking for changes
+  public synchronized void start() {
+    if (polling == null) {
+      refresh();
+      polling = executor.scheduleWithFixedDelay(this::poll, POLL_SECONDS, POLL_SECONDS, TimeUnit.SECONDS);
+    }
+  }
+
+  // the devices last found, or saved from last time, or none if neither
+  public List<AudioDevice> devices() {
+    List<AudioDevice> devices = this.devices;
+    return devices == null ? List.of() : devices;
+  }
+
+  public boolean isKnown() {
+    return devices != null;
+  }
+
+  public boolean contains(AudioDevice device) {
+    return devices().contains(device);
+  }
+
+  // called on a background thread with the new devices whenever they change
+  public void addListener(Consumer<List<AudioDevice>> listener) {
+    listeners.add(listener);
+  }
+
+  // Probes the devices in the background, unless already probing, and
+  // completes with the devices found, or the devices already known if they
+  // couldn't be probed.
+  public synchronized CompletableFuture<List<AudioDevice>> refresh() {
+    if (probing == null || probing.isDone()) {
+      probing = CompletableFuture.supplyAsync(this::probe, executor);
+    }
+    return probing;
+  }
+
+  private List<AudioDevice> probe() {
+    Object fingerprint = null;
+    try {
+      fingerprint = this.fingerprint.call();
+      List<AudioDevice> probed = probe.call();
+      if (probed == null) {
+        executor.schedule(this::refresh, POLL_SECONDS, TimeUnit.SECONDS);
+        return devices();
+      }
+      if (fingerprint != null) {
+        lastFingerprint = fingerprint;
+      }
+      List<AudioDevice> found = List.copyOf(probed);
+      if (!found.equals(devices)) {
+        devices = found;
+        save(found);
+        for (Consumer<List<AudioDevice>> listener : listeners) {
+          listener.accept(found);
+        }
+      }
+      return found;
+    } catch (Exception e) {
+      // not probed again until the devices change, rather than failing again
+      // on every poll
+      if (fingerprint != null) {
+        lastFingerprint = fingerprint;
+      }
+      logger.log(Level.SEVERE, e.getMessage(), e);
+      throw new CompletionException(e);
+    }
+  }
+
+  private void poll() {
+    try {
+      Object fingerprint = this.fingerprint.call();
+      if (fingerprint != null && !Objects.equals(fingerprint, lastFingerprint)) {
+        refresh();
+      }
+    } catch (Exception e) {
+      logger.log(Level.WARNING, e.getMessage(), e);
+    }
+  }
+
+  private List<AudioDevice> load() {
+    List<AudioDevice> devices = new ArrayList<>();
+    for (int i = 0; ; i++) {
+      String device = preferences.get(DEVICE + i, null);
+      if (device == null) {
+        break;
+      }
+      String[] fields = device.split(SEPARATOR, 5);
+      try {
+        devices.add(new SimpleAudioDevice(fields[3], fields[4], Integer.parseInt(fields[0]), AudioSample.valueOf(fields[1]), Integer.parseInt(fields[2])));
+      } catch (RuntimeException e) {
+        // saved by a different version, so probe from scratch
+        logger.log(Level.WARNING, e.getMessage(), e);
+        return null;
+      }
+    }
+    return devices.isEmpty() ? null : List.copyOf(devices);
+  }
+
+  private void save(List<AudioDevice> devices) {
+    try {
+      preferences.clear();
+      for (int i = 0; i < devices.size(); i++) {
+        AudioDevice device = devices.get(i);
+        preferences.put(DEVICE + i, String.join(SEPARATOR,
+          Integer.toString(device.sampleRate()),
+          device.sample().name(),
+          Integer.toString(device.channels()),
+          device.id(),
+          device.name()
+        ));
+      }
+      preferences.flush();
+    } catch (BackingStoreException | IllegalArgumentException e) {
+      logger.log(Level.WARNING, e.getMessage(), e);
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package sh.ball.audio.engine;
+
+// Lock-free single-producer/single-consumer ring buffer of interleaved float
+// samples. The buffer is preallocated and reading or writing never blocks or
+// allocates - callers decide what to do when it is empty or full.
+//
+// Reads and writes are always a whole number of frames so that channels can
+// never get out of step, even on a partial read or write.
+public class FloatRingBuffer {
+
+  private final float[] buffer;
+  private final int mask;
+  private final int frameSize;
+  // head is the next sample to read and is only written by the consumer
+  private final Sequence head = new Sequence();
+  // tail is the next sample to write and is only written by the producer
+  private final Sequence tail = new Sequence();
+
+  // the capacity is rounded up to a power of two samples
+  public FloatRingBuffer(int minCapacity, int frameSize) {
+    int capacity = Integer.highestOneBit(Math.max(Math.max(minCapacity, frameSize), 2) - 1) << 1;
+    this.buffer = new float[capacity];
+    this.mask = capacity - 1;
+    this.frameSize = frameSize;
+  }
+
+  public int capacity() {
+    return buffer.length;
+  }
+
+  // number of samples available to read
+  public int size() {
+    return (int) (tail.get() - head.get());
+  }
+
+  // producer side. Writes as many whole frames from src as there is room for
+  // and returns the number of samples written.
+  public int write(float[] src, int offset, int length) {
+    long currentTail = tail.get();
+    int free = buffer.length - (int) (currentTail - head.get());
+    int samples = Math.min(length, free);
+    samples -= samples % frameSize;
+    if (samples <= 0) {
+      return 0;
+    }
+
+    int index = (int) (currentTail & mask);
+    int firstPart = Math.min(samples, buffer.length - index);
+    System.arraycopy(src, offset, buffer, index, firstPart);
+    System.arraycopy(src, offset + firstPart, buffer, 0, samples - firstPart);
+
+    tail.setRelease(currentTail + samples);
+    return samples;
+  }
+
+  // consumer side. Reads as many whole frames into dst as are available and
+  // returns the number of samples read.
+  public int read(float[] dst, int offset, int length) {
+    long currentHead = head.get();
+    int available = (int) (tail.get() - currentHead);
+    int samples = Math.min(length, available);
+    samples -= samples % frameSize;
+    if (samples <= 0) {
+      return 0;
+    }
+
+    int index = (int) (currentHead & mask);
+    int firstPart = Math.min(samples, buffer.length - index);
+    System.arraycopy(buffer, index, dst, offset, firstPart);
+    System.arraycopy(buffer, 0, dst, offset + firstPart, samples - firstPart);
+
+    head.setRelease(currentHead + samples);
+    return samples;
+  }
+}
@@ -3,10 +3,12 @@ package sh.ball.audio.engine;
 import sh.ball.shapes.Vector2;
 
 import javax.sound.sampled.*;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.stream.Stream;
 
@@ -17,19 +19,49 @@ public class JavaAudioEngine implements AudioEngine {
   private static final int DEFAULT_SAMPLE_RATE = 192000;
   // stereo audio
   private static final int DEFAULT_NUM_CHANNELS = 2;
+  // set to true to start in adaptive latency mode
+  public static final String ADAPTIVE_LATENCY_PROPERTY = "sh.ball.adaptiveLatency";
+
   private static final int LATENCY_MS = 30;
   private static final int MAX_FRAME_LATENCY = 512;
+  // bounds of the adaptive latency
+  private static final int MIN_LATENCY_MS = 5;
+  private static final int MAX_LATENCY_MS = 250;
+  // how long the line must play without starving before the latency drops
+  private static final long STABLE_NANOS = 10_000_000_000L;
   // java sound doesn't support anything more than 16 bit :(
   private static final int BIT_DEPTH = 16;
   private static final boolean BIG_ENDIAN = false;
   private static final boolean SIGNED_SAMPLE = true;
 
+  private final RenderMetrics metrics = new RenderMetrics();
+
+  private final AtomicLong underruns = new AtomicLong();
+
   private volatile boolean stopped = false;
+  // counted down when play returns
+  private volatile CountDownLatch finished = new CountDownLatch(0);
+  private volatile boolean adaptiveLatency = Boolean.getBoolean(ADAPTIVE_LATENCY_PROPERTY);
+  private volatile int latencyFrames = 0;
+  private volatile double bufferFill = 0;
 
   private SourceDataLine source;
   private AudioDevice device;
   private double brightness = 1.0;
 
+  // In adaptive mode the line is only filled to a target latency, starting
+  // at LATENCY_MS, which LineLatency moves to just above the lowest latency
+  // the machine can keep up with. Takes effect the next time the engine
+  // starts playing.
+  @Override
+  public void setAdaptiveLatency(boolean adaptiveLatency) {
+    this.adaptiveLatency = adaptiveLatency;
+  }
+
+  public boolean isAdaptiveLatency() {
+    return adaptiveLatency;
+  }
+
   @Override
   public boolean isPlaying() {
     return source.isRunning();
@@ -41,77 +73,136 @@ public class JavaAudioEngine implements AudioEngine {
 
   @Override
   public void play(Callable<Vector2> channelGenerator, AudioDevice device) throws Exception {
+    play(new ChannelGeneratorRenderer(channelGenerator, () -> brightness), device);
+  }
+
+  @Override
+  public void play(BlockRenderer renderer, AudioDevice device) throws Exception {
+    CountDownLatch finished = new CountDownLatch(1);
+    this.finished = finished;
+    try {
+      playLine(renderer, device);
+    } finally {
+      finished.countDown();
+    }
+  }
+
+  private void playLine(BlockRenderer renderer, AudioDevice device) throws Exception {
     this.device = device;
 
     AudioFormat format = new AudioFormat((float) device.sampleRate(), BIT_DEPTH, device.channels(), SIGNED_SAMPLE, BIG_ENDIAN);
     this.source = AudioSystem.getSourceDataLine(format);
 
     int frameSize = device.channels() * BIT_DEPTH / 8;
+    int channels = device.channels();
+    boolean adaptive = adaptiveLatency;
 
     int bufferSize = calculateBufferSize(device, frameSize, LATENCY_MS);
+    // in adaptive mode the line can hold the most latency allowed, but is
+    // only ever filled to the target
+    int lineSize = adaptive ? framesForMs(device, MAX_LATENCY_MS) * frameSize : bufferSize * 2;
+    int maxBlockFrames = adaptive ? framesForMs(device, MAX_LATENCY_MS) / 2 : bufferSize / frameSize;
 
-    byte[] buffer = new byte[bufferSize * 2];
-    short[] channels = new short[device.channels()];
+    byte[] buffer = new byte[maxBlockFrames * channels * 2];
+    float[] block = new float[maxBlockFrames * channels];
 
-    source.open(format, buffer.length);
+    renderer.prepare(maxBlockFrames, channels);
+    source.open(format, lineSize);
+    int lineFrames = source.getBufferSize() / frameSize;
+    LineLatency latency = new LineLatency(adaptive, lineFrames, framesForMs(device, LATENCY_MS),
+      framesForMs(device, MIN_LATENCY_MS), STABLE_NANOS, System.nanoTime());
+    latencyFrames = latency.targetFrames();
 
     source.start();
     this.stopped = false;
     while (!stopped) {
-      int requiredSamples = bufferSize / frameSize;
+      if (latency.update(source.getLongFramePosition(), source.available() / frameSize, System.nanoTime())) {
+        underruns.lazySet(underruns.get() + 1);
+      }
+      latencyFrames = latency.targetFrames();
+      bufferFill = latency.fill();
+
+      int requiredSamples = latency.blockFrames(maxBlockFrames);
+      // in adaptive mode, waits until there's room for another block
+      // without going over the target, rather than letting the write block
+      // on a full line
+      long excess = latency.excessFrames(requiredSamples);
+      if (excess > 0) {
+        LockSupport.parkNanos(excess * 1_000_000_000L / device.sampleRate());
+        continue;
+      }
 
-      if (requiredSamples * channels.length > buffer.length / 2) {
-        buffer = new byte[requiredSamples * channels.length * 2];
+      if (requiredSamples * channels > buffer.length / 2) {
+        buffer = new byte[requiredSamples * channels * 2];
+      }
+      if (requiredSamples * channels > block.length) {
+        block = new float[requiredSamples * channels];
       }
 
-      for (int i = 0; i < requiredSamples; i++) {
-        try {
-          Arrays.fill(channels, (short) (Short.MAX_VALUE * brightness));
-          Vector2 vector = channelGenerator.call();
-          // converting doubles from Vector2 into shorts and then bytes so
-          // that the byte buffer supports them
-          if (channels.length > 0) {
-            channels[0] = (short) (vector.getX() * Short.MAX_VALUE);
-          }
-          if (channels.length > 1) {
-            channels[1] = (short) (vector.getY() * Short.MAX_VALUE);
-          }
-
-          for (int j = 0; j < channels.length; j++) {
-            buffer[i * channels.length * 2 + j * 2] = (byte) channels[j];
-            buffer[i * channels.length * 2 + j * 2 + 1] = (byte) (channels[j] >> 8);
-          }
-        } catch (Exception e) {
-          logger.log(Level.SEVERE, e.getMessage(), e);
-        }
+      long start = System.nanoTime();
+      try {
+        renderer.render(block, requiredSamples, channels);
+      } catch (Exception e) {
+        logger.log(Level.SEVERE, e.getMessage(), e);
       }
 
+      // converting floats into shorts and then bytes so that the byte buffer
+      // supports them
+      for (int i = 0; i < requiredSamples * channels; i++) {
+        short sample = (short) (block[i] * Short.MAX_VALUE);
+        buffer[i * 2] = (byte) sample;
+        buffer[i * 2 + 1] = (byte) (sample >> 8);
+      }
+      // the write below blocks until the device has room, so isn't timed
+      metrics.record(System.nanoTime() - start, requiredSamples, device.sampleRate());
+
       source.write(buffer, 0, requiredSamples * frameSize);
+      latency.written(requiredSamples);
     }
     source.stop();
     this.device = null;
   }
 
+  private static int framesForMs(AudioDevice device, int ms) {
+    return (int) ((long) device.sampleRate() * ms / 1000);
+  }
+
   @Override
   public void stop() {
     stopped = true;
   }
 
   @Override
+  public void awaitStopped() throws InterruptedException {
+    finished.await();
+  }
+
+  @Override
+  // every format is probed at once, and the devices are in the same order
+  // as the formats
   public List<AudioDevice> devices() {
-    List<AudioDevice> devices = new ArrayList<>();
+    List<AudioDevice> formats = Stream.of(192000, 96000, 48000, 44100)
+      .flatMap(rate -> Stream.of(1, 2, 3, 4, 6, 8).<AudioDevice>map(channels ->
+        new SimpleAudioDevice("default-" + rate, "default", rate, AudioSample.INT16, channels)))
+      .toList();
+
+    return formats.parallelStream().filter(JavaAudioEngine::isSupported).toList();
+  }
 
-    Stream.of(192000, 96000, 48000, 44100).forEach(rate ->
-      Stream.of(1, 2, 3, 4, 6, 8).forEach(channels -> {
-        try {
-          AudioFormat format = new AudioFormat((float) rate, BIT_DEPTH, channels, SIGNED_SAMPLE, BIG_ENDIAN);
-          this.source = AudioSystem.getSourceDataLine(format);
-          devices.add(new SimpleAudioDevice("default-" + rate, "default", rate, AudioSample.INT16, channels));
-        } catch (Exception ignored) {}
-      })
-    );
+  private static boolean isSupported(AudioDevice device) {
+    try {
+      AudioFormat format = new AudioFormat((float) device.sampleRate(), BIT_DEPTH, device.channels(), SIGNED_SAMPLE, BIG_ENDIAN);
+      AudioSystem.getSourceDataLine(format);
+      return true;
+    } catch (Exception e) {
+      return false;
+    }
+  }
 
-    return devices;
+  // names of the Java Sound mixers, which change when devices are connected
+  // or disconnected
+  public List<String> mixerNames() {
+    return Arrays.stream(AudioSystem.getMixerInfo()).map(Mixer.Info::getName).toList();
   }
 
   @Override
@@ -128,4 +219,27 @@ public class JavaAudioEngine implements AudioEngine {
   public void setBrightness(double brightness) {
     this.brightness = brightness;
   }
+
+  @Override
+  public RenderMetrics metrics() {
+    return metrics;
+  }
+
+  // number of times the line played everything written to it and starved
+  @Override
+  public long underruns() {
+    return underruns.get();
+  }
+
+  @Override
+  public double bufferFill() {
+    return bufferFill;
+  }
+
+  // the most audio queued in the line, which is the latency added by it
+  @Override
+  public double latencyMillis() {
+    AudioDevice device = this.device;
+    return device == null ? 0 : 1000.0 * latencyFrames / device.sampleRate();
+  }
 }
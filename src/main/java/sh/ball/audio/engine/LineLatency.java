@@ -0,0 +1,85 @@
+package sh.ball.audio.engine;
+
+// Decides how much JavaAudioEngine writes to its SourceDataLine, and
+// notices when the line starves.
+//
+// The line is said to have starved if everything written to it has been
+// played, or if it has no audio left in its buffer. Both are checked as
+// some mixers only move the frame position once audio reaches the device,
+// and others keep counting frames of silence while the line is empty. An
+// underrun is counted at most once per write, so the line staying empty
+// while the engine waits only doubles the target once.
+//
+// In adaptive mode the line is only filled to a target latency. The target
+// doubles every time the line starves and drops by a quarter after every
+// stableNanos without starving, so it settles just above the lowest latency
+// the machine can keep up with. Otherwise the target is the whole line.
+final class LineLatency {
+
+  private final boolean adaptive;
+  private final int lineFrames;
+  private final int minFrames;
+  private final long stableNanos;
+
+  private int targetFrames;
+  private long framesWritten = 0;
+  private long queuedFrames = 0;
+  private boolean starved = false;
+  private long stableSince;
+
+  LineLatency(boolean adaptive, int lineFrames, int targetFrames, int minFrames, long stableNanos, long now) {
+    this.adaptive = adaptive;
+    this.lineFrames = lineFrames;
+    this.targetFrames = adaptive ? Math.min(targetFrames, lineFrames) : lineFrames;
+    this.minFrames = Math.min(minFrames, this.targetFrames);
+    this.stableNanos = stableNanos;
+    this.stableSince = now;
+  }
+
+  // Called before every write with the frames the line has played and the
+  // frames free in its buffer. Returns true if the line starved since the
+  // last write.
+  boolean update(long position, int availableFrames, long now) {
+    queuedFrames = Math.max(0, lineFrames - availableFrames);
+    boolean starving = framesWritten > 0 && !starved && (position >= framesWritten || queuedFrames == 0);
+    if (starving) {
+      starved = true;
+      // the position carries on from here if the line counted silence
+      framesWritten = Math.max(framesWritten, position);
+      stableSince = now;
+      if (adaptive) {
+        targetFrames = Math.min(targetFrames * 2, lineFrames);
+      }
+    } else if (adaptive && now - stableSince > stableNanos && targetFrames > minFrames) {
+      targetFrames = Math.max(minFrames, targetFrames * 3 / 4);
+      stableSince = now;
+    }
+    return starving;
+  }
+
+  // frames to render for the next write, at most maxBlockFrames
+  int blockFrames(int maxBlockFrames) {
+    return adaptive ? Math.max(1, Math.min(targetFrames / 2, maxBlockFrames)) : maxBlockFrames;
+  }
+
+  // Frames that must be played before a block can be written without going
+  // over the target. Never positive outside adaptive mode, as the write
+  // blocks on a full line instead.
+  long excessFrames(int blockFrames) {
+    return adaptive ? queuedFrames + blockFrames - targetFrames : 0;
+  }
+
+  void written(int frames) {
+    framesWritten += frames;
+    starved = false;
+  }
+
+  int targetFrames() {
+    return targetFrames;
+  }
+
+  // fraction of the line holding audio, as of the last update
+  double fill() {
+    return (double) queuedFrames / lineFrames;
+  }
+}
@@ -0,0 +1,114 @@
+package sh.ball.audio.engine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Records how long each audio callback takes to render, written by the audio
+// thread and read from any other thread.
+//
+// Render times go into a log-linear histogram like HdrHistogram: every power
+// of two nanoseconds is split into 16 equal buckets, so a recorded time is
+// within 6.25% of the real one. There is only ever one writer, so recording
+// is a plain read and an ordered write per counter, with no locks, CAS loops
+// or allocation. All aggregation happens in snapshot() on the reading thread.
+public class RenderMetrics {
+
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // times from 2^32ns (about 4.3s) up go in the last bucket
+  private static final int MAX_EXPONENT = 32;
+  private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong callbacks = new AtomicLong();
+  private final AtomicLong deadlineMisses = new AtomicLong();
+  private final AtomicLong framesRendered = new AtomicLong();
+  private final AtomicLong totalNanos = new AtomicLong();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  // Records a callback that took the given time to render the given number of
+  // frames. It's a deadline miss if rendering took longer than the frames
+  // last when played. Must only be called by one thread at a time.
+  public void record(long nanos, int frames, int sampleRate) {
+    nanos = Math.max(0, nanos);
+    int bucket = bucket(nanos);
+    counts.lazySet(bucket, counts.get(bucket) + 1);
+    callbacks.lazySet(callbacks.get() + 1);
+    framesRendered.lazySet(framesRendered.get() + frames);
+    totalNanos.lazySet(totalNanos.get() + nanos);
+    if (nanos > maxNanos.get()) {
+      maxNanos.lazySet(nanos);
+    }
+    if (nanos * sampleRate > frames * 1_000_000_000L) {
+      deadlineMisses.lazySet(deadlineMisses.get() + 1);
+    }
+  }
+
+  private static int bucket(long nanos) {
+    if (nanos < SUB_BUCKETS) {
+      return (int) nanos;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+    if (exponent >= MAX_EXPONENT) {
+      return BUCKETS - 1;
+    }
+    int shift = exponent - SUB_BUCKET_BITS;
+    int subBucket = (int) (nanos >>> shift) - SUB_BUCKETS;
+    return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+  }
+
+  // the highest time that goes in the bucket
+  private static long highestInBucket(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+    long subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+    return ((subBucket + 1) << shift) - 1;
+  }
+
+  // Copies the counters. Callbacks may be recorded while copying, so the
+  // counters can be off by one callback from each other.
+  public Snapshot snapshot() {
+    long[] copy = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      copy[i] = counts.get(i);
+    }
+    return new Snapshot(
+      copy,
+      callbacks.get(),
+      deadlineMisses.get(),
+      framesRendered.get(),
+      totalNanos.get(),
+      maxNanos.get()
+    );
+  }
+
+  public record Snapshot(long[] counts, long callbacks, long deadlineMisses, long framesRendered, long totalNanos, long maxNanos) {
+
+    public double meanNanos() {
+      return callbacks == 0 ? 0 : (double) totalNanos / callbacks;
+    }
+
+    // Render time that the given fraction of callbacks were at or below, e.g.
+    // 0.99 for the 99th percentile. Rounded up to the top of its bucket.
+    public long percentileNanos(double fraction) {
+      long total = 0;
+      for (long count : counts) {
+        total += count;
+      }
+      if (total == 0) {
+        return 0;
+      }
+      long target = Math.max(1, (long) Math.ceil(fraction * total));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= target) {
+          return Math.min(highestInBucket(i), maxNanos);
+        }
+      }
+      return maxNanos;
+    }
+  }
+}
@@ -0,0 +1,230 @@
+package sh.ball.audio.engine;
+
+// Converts a block of interleaved float samples, which should be in [-1, 1],
+// into the array an audio library expects for an AudioSample format. An
+// encoder is picked once when a stream opens so that converting a block is
+// one loop with no per-sample switch on the format.
+//
+// The integer formats can add TPDF dither: the sum of two uniform random
+// values of up to half a step each is added before rounding to the nearest
+// step, which turns the distortion of quantising quiet or slowly changing
+// signals into a low, even noise. Without dither, samples are truncated
+// towards zero. Either way they're clamped to the format's range. An encoder
+// with dither keeps random state, so must only be used by one thread.
+public abstract class SampleEncoder {
+
+  private final AudioSample sample;
+
+  private SampleEncoder(AudioSample sample) {
+    this.sample = sample;
+  }
+
+  public static SampleEncoder of(AudioSample sample, boolean dither) {
+    return switch (sample) {
+      case UINT8 -> new UInt8Encoder(dither);
+      case INT8 -> new Int8Encoder(dither);
+      case INT16 -> new Int16Encoder(dither);
+      case INT24 -> new Int24Encoder(dither);
+      case INT32 -> new Int32Encoder(dither);
+      case FLOAT32 -> new Float32Encoder();
+      case FLOAT64 -> new Float64Encoder();
+    };
+  }
+
+  public AudioSample sample() {
+    return sample;
+  }
+
+  // a new output array big enough for the given number of samples
+  public abstract Object allocate(int samples);
+
+  // Converts the first n samples of the block into the output, which must be
+  // the type of array returned by allocate.
+  public abstract void encode(float[] block, Object output, int n);
+
+  // An integer format, scaled so that 1 is scale steps above the offset,
+  // which is where 0 is.
+  private abstract static class IntegerEncoder extends SampleEncoder {
+
+    private final double scale;
+    private final double offset;
+    private final double min;
+    private final double max;
+    private final boolean dither;
+    // xorshift state for the dither, never zero
+    private long random = 0x9E3779B97F4A7C15L;
+
+    IntegerEncoder(AudioSample sample, double scale, double offset, double min, double max, boolean dither) {
+      super(sample);
+      this.scale = scale;
+      this.offset = offset;
+      this.min = min;
+      this.max = max;
+      this.dither = dither;
+    }
+
+    // the sample as a whole number of steps, clamped to the format's range
+    final int quantise(float value) {
+      double scaled = offset + scale * value;
+      if (dither) {
+        scaled = Math.floor(scaled + triangular() + 0.5);
+      }
+      return (int) Math.max(min, Math.min(max, scaled));
+    }
+
+    // a random value in (-1, 1) with a triangular distribution, made from
+    // the two halves of one xorshift output
+    private double triangular() {
+      long r = random;
+      r ^= r << 13;
+      r ^= r >>> 7;
+      r ^= r << 17;
+      random = r;
+      return ((r >>> 32) + (r & 0xFFFFFFFFL)) * 0x1p-32 - 1;
+    }
+  }
+
+  private static final class UInt8Encoder extends IntegerEncoder {
+
+    UInt8Encoder(boolean dither) {
+      super(AudioSample.UINT8, 128, 128, 0, 255, dither);
+    }
+
+    @Override
+    public Object allocate(int samples) {
+      return new byte[samples];
+    }
+
+    @Override
+    public void encode(float[] block, Object output, int n) {
+      byte[] bytes = (byte[]) output;
+      for (int i = 0; i < n; i++) {
+        bytes[i] = (byte) quantise(block[i]);
+      }
+    }
+  }
+
+  private static final class Int8Encoder extends IntegerEncoder {
+
+    Int8Encoder(boolean dither) {
+      super(AudioSample.INT8, 128, 0, Byte.MIN_VALUE, Byte.MAX_VALUE, dither);
+    }
+
+    @Override
+    public Object allocate(int samples) {
+      return new byte[samples];
+    }
+
+    @Override
+    public void encode(float[] block, Object output, int n) {
+      byte[] bytes = (byte[]) output;
+      for (int i = 0; i < n; i++) {
+        bytes[i] = (byte) quantise(block[i]);
+      }
+    }
+  }
+
+  private static final class Int16Encoder extends IntegerEncoder {
+
+    Int16Encoder(boolean dither) {
+      super(AudioSample.INT16, Short.MAX_VALUE, 0, Short.MIN_VALUE, Short.MAX_VALUE, dither);
+    }
+
+    @Override
+    public Object allocate(int samples) {
+      return new short[samples];
+    }
+
+    @Override
+    public void encode(float[] block, Object output, int n) {
+      short[] shorts = (short[]) output;
+      for (int i = 0; i < n; i++) {
+        shorts[i] = (short) quantise(block[i]);
+      }
+    }
+  }
+
+  // packed little endian, three bytes a sample
+  private static final class Int24Encoder extends IntegerEncoder {
+
+    private static final int MAX = (1 << 23) - 1;
+
+    Int24Encoder(boolean dither) {
+      super(AudioSample.INT24, MAX, 0, -MAX - 1, MAX, dither);
+    }
+
+    @Override
+    public Object allocate(int samples) {
+      return new byte[3 * samples];
+    }
+
+    @Override
+    public void encode(float[] block, Object output, int n) {
+      byte[] bytes = (byte[]) output;
+      for (int i = 0, j = 0; i < n; i++, j += 3) {
+        int sample = quantise(block[i]);
+        bytes[j] = (byte) sample;
+        bytes[j + 1] = (byte) (sample >> 8);
+        bytes[j + 2] = (byte) (sample >> 16);
+      }
+    }
+  }
+
+  private static final class Int32Encoder extends IntegerEncoder {
+
+    Int32Encoder(boolean dither) {
+      super(AudioSample.INT32, Integer.MAX_VALUE, 0, Integer.MIN_VALUE, Integer.MAX_VALUE, dither);
+    }
+
+    @Override
+    public Object allocate(int samples) {
+      return new int[samples];
+    }
+
+    @Override
+    public void encode(float[] block, Object output, int n) {
+      int[] ints = (int[]) output;
+      for (int i = 0; i < n; i++) {
+        ints[i] = quantise(block[i]);
+      }
+    }
+  }
+
+  // floats are never dithered
+  private static final class Float32Encoder extends SampleEncoder {
+
+    Float32Encoder() {
+      super(AudioSample.FLOAT32);
+    }
+
+    @Override
+    public Object allocate(int samples) {
+      return new float[samples];
+    }
+
+    @Override
+    public void encode(float[] block, Object output, int n) {
+      System.arraycopy(block, 0, (float[]) output, 0, n);
+    }
+  }
+
+  private static final class Float64Encoder extends SampleEncoder {
+
+    Float64Encoder() {
+      super(AudioSample.FLOAT64);
+    }
+
+    @Override
+    public Object allocate(int samples) {
+      return new double[samples];
+    }
+
+    @Override
+    public void encode(float[] block, Object output, int n) {
+      double[] doubles = (double[]) output;
+      for (int i = 0; i < n; i++) {
+        doubles[i] = block[i];
+      }
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package sh.ball.audio.engine;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+// A position counter shared between two threads. The value is padded on both
+// sides so that it sits on its own cache line and writes to one counter don't
+// invalidate the cache line holding another (false sharing). Writers publish
+// with a release store and readers see everything written before it.
+public class Sequence extends SequenceValue {
+
+  private long p9, p10, p11, p12, p13, p14, p15;
+
+  public Sequence(long initialValue) {
+    setRelease(initialValue);
+  }
+
+  public Sequence() {
+    this(0);
+  }
+}
+
+abstract class SequencePadding {
+  private long p1, p2, p3, p4, p5, p6, p7;
+}
+
+abstract class SequenceValue extends SequencePadding {
+
+  private static final VarHandle VALUE;
+
+  static {
+    try {
+      VALUE = MethodHandles.lookup().findVarHandle(SequenceValue.class, "value", long.class);
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private volatile long value;
+
+  public long get() {
+    return (long) VALUE.getAcquire(this);
+  }
+
+  // only to be called by the thread that owns this sequence
+  public void setRelease(long value) {
+    VALUE.setRelease(this, value);
+  }
+}
@@ -0,0 +1,227 @@
+package sh.ball.audio.engine;
+
+import sh.ball.shapes.Vector2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+
+// AudioEngine that doesn't use a sound card. Time is measured in frames
+// rendered rather than by a device clock, so blocks are rendered back to back
+// as fast as the CPU allows. Each block is handed to every BlockListener
+// before the next is rendered.
+//
+// play() renders on the calling thread and returns once the requested number
+// of frames has been rendered or stop() is called.
+//
+// Events, such as MIDI messages, can be scheduled at a frame. A block is cut
+// short so that the event runs on the rendering thread exactly before that
+// frame is rendered, which makes the output the same whatever the block size.
+//
+// The time taken to render each block is measured. If a budget is set, blocks
+// that take longer are counted, ignoring the first few blocks while the JIT
+// warms up.
+public class VirtualAudioEngine implements AudioEngine {
+
+  public static final int DEFAULT_BLOCK_FRAMES = 512;
+  public static final int DEFAULT_WARMUP_BLOCKS = 0;
+
+  private final AudioDevice device;
+  private final int blockFrames;
+  private final List<BlockListener> listeners = new ArrayList<>();
+  private final PriorityQueue<ScheduledEvent> events = new PriorityQueue<>();
+  private final RenderMetrics metrics = new RenderMetrics();
+
+  private volatile long maxFrames = Long.MAX_VALUE;
+  private volatile long framesRendered = 0;
+  private volatile boolean playing = false;
+  private volatile boolean stopped = false;
+  private volatile double brightness = 1.0;
+
+  private long blockBudgetNanos = 0;
+  private int warmupBlocks = DEFAULT_WARMUP_BLOCKS;
+  private long eventsScheduled = 0;
+
+  // timing of every block rendered after the warmup
+  private long blocksTimed = 0;
+  private long renderNanos = 0;
+  private long maxBlockNanos = 0;
+  private long blocksOverBudget = 0;
+
+  public VirtualAudioEngine(AudioDevice device, int blockFrames) {
+    this.device = device;
+    this.blockFrames = blockFrames;
+  }
+
+  public VirtualAudioEngine(AudioDevice device) {
+    this(device, DEFAULT_BLOCK_FRAMES);
+  }
+
+  public void addListener(BlockListener listener) {
+    listeners.add(listener);
+  }
+
+  // number of frames to render before play() returns
+  public void setDuration(long frames) {
+    this.maxFrames = frames;
+  }
+
+  // Runs the event on the rendering thread just before the given frame is
+  // rendered. Events at the same frame run in the order they were scheduled.
+  // Must not be called while playing.
+  public void schedule(long frame, Runnable event) {
+    events.add(new ScheduledEvent(frame, eventsScheduled++, event));
+  }
+
+  // The most time a block of blockFrames() frames may take to render, in
+  // nanoseconds. Shorter blocks get a proportional share. Zero disables the
+  // budget.
+  public void setBlockBudget(long nanos) {
+    this.blockBudgetNanos = nanos;
+  }
+
+  // number of blocks rendered before timing starts
+  public void setWarmupBlocks(int warmupBlocks) {
+    this.warmupBlocks = warmupBlocks;
+  }
+
+  public int blockFrames() {
+    return blockFrames;
+  }
+
+  public long framesRendered() {
+    return framesRendered;
+  }
+
+  // time that has passed on the virtual clock
+  public double seconds() {
+    return (double) framesRendered / device.sampleRate();
+  }
+
+  public long blocksTimed() {
+    return blocksTimed;
+  }
+
+  public long maxBlockNanos() {
+    return maxBlockNanos;
+  }
+
+  public double meanBlockNanos() {
+    return blocksTimed == 0 ? 0 : (double) renderNanos / blocksTimed;
+  }
+
+  public long blocksOverBudget() {
+    return blocksOverBudget;
+  }
+
+  @Override
+  public boolean isPlaying() {
+    return playing;
+  }
+
+  @Override
+  public void play(BlockRenderer renderer, AudioDevice device) throws Exception {
+    int channels = device.channels();
+    float[] buffer = new float[blockFrames * channels];
+    renderer.prepare(blockFrames, channels);
+    stopped = false;
+    playing = true;
+    try {
+      long rendered = framesRendered;
+      long blocks = 0;
+      while (!stopped && rendered < maxFrames) {
+        runEvents(rendered);
+        int frames = (int) Math.min(blockFrames, maxFrames - rendered);
+        ScheduledEvent next = events.peek();
+        if (next != null && next.frame() < rendered + frames) {
+          frames = (int) (next.frame() - rendered);
+        }
+
+        long start = System.nanoTime();
+        renderer.render(buffer, frames, channels);
+        long elapsed = System.nanoTime() - start;
+        if (blocks++ >= warmupBlocks) {
+          time(elapsed, frames);
+        }
+
+        // indexed so that no iterator is allocated each block
+        for (int i = 0; i < listeners.size(); i++) {
+          listeners.get(i).accept(buffer, frames, channels);
+        }
+        rendered += frames;
+        framesRendered = rendered;
+      }
+    } finally {
+      playing = false;
+    }
+  }
+
+  // runs every event due at or before the given frame
+  private void runEvents(long frame) {
+    while (!events.isEmpty() && events.peek().frame() <= frame) {
+      events.poll().event().run();
+    }
+  }
+
+  private void time(long elapsed, int frames) {
+    metrics.record(elapsed, frames, device.sampleRate());
+    blocksTimed++;
+    renderNanos += elapsed;
+    maxBlockNanos = Math.max(maxBlockNanos, elapsed);
+    if (blockBudgetNanos > 0 && elapsed > blockBudgetNanos * frames / blockFrames) {
+      blocksOverBudget++;
+    }
+  }
+
+  @Override
+  public void play(Callable<Vector2> channelGenerator, AudioDevice device) throws Exception {
+    play(new ChannelGeneratorRenderer(channelGenerator, () -> brightness), device);
+  }
+
+  @Override
+  public void stop() {
+    stopped = true;
+  }
+
+  @Override
+  public List<AudioDevice> devices() {
+    return List.of(device);
+  }
+
+  @Override
+  public AudioDevice getDefaultDevice() {
+    return device;
+  }
+
+  @Override
+  public AudioDevice currentDevice() {
+    return device;
+  }
+
+  @Override
+  public void setBrightness(double brightness) {
+    this.brightness = brightness;
+  }
+
+  // a deadline miss is a block that took longer to render than to play
+  @Override
+  public RenderMetrics metrics() {
+    return metrics;
+  }
+
+  // Receives each block once it has been rendered. The buffer is reused for
+  // the next block so must be copied if it's needed later.
+  public interface BlockListener {
+    void accept(float[] buffer, int frames, int channels) throws Exception;
+  }
+
+  private record ScheduledEvent(long frame, long order, Runnable event) implements Comparable<ScheduledEvent> {
+
+    @Override
+    public int compareTo(ScheduledEvent event) {
+      int compare = Long.compare(frame, event.frame);
+      return compare != 0 ? compare : Long.compare(order, event.order);
+    }
+  }
+}
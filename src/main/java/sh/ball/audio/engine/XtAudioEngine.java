@@ -5,6 +5,8 @@ import xt.audio.*;
 
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.stream.Stream;
 
@@ -13,152 +15,316 @@ import static sh.ball.gui.Gui.logger;
 // Audio engine that connects to devices using the XtAudio library
 public class XtAudioEngine implements AudioEngine {
 
+  // set to true to dither integer sample formats
+  public static final String DITHER_PROPERTY = "sh.ball.dither";
+
   private static final int DEFAULT_SAMPLE_RATE = 192000;
   private static final int DEFAULT_NUM_CHANNELS = 2;
   private static final Enums.XtSample DEFAULT_AUDIO_SAMPLE = Enums.XtSample.FLOAT32;
 
-  private volatile boolean stopped = false;
-
-  private AudioDevice device;
-  private boolean playing = false;
-  private Callable<Vector2> channelGenerator;
+  // Only one XtPlatform can be initialised at once, so every engine shares
+  // one, which is open while any engine is playing or listing devices. The
+  // platform lock guards it and every call made on it, and is only held for
+  // as long as each call takes, so devices can be listed and probed through
+  // the platform while an engine plays.
+  private static final ReentrantLock platformLock = new ReentrantLock();
+  private static XtPlatform platform;
+  private static XtService service;
+  private static int platformUsers = 0;
+  // the id of the device with an open stream, if any
+  private static String playingId;
+  // held by a playing engine, so that engines play one at a time
+  private static final ReentrantLock playLock = new ReentrantLock();
+
+  private final RenderMetrics metrics = new RenderMetrics();
+
+  private volatile boolean dither = Boolean.getBoolean(DITHER_PROPERTY);
+
+  // guards stopped, swap and playing, and is waited on by play and
+  // swapDevice until one of them changes
+  private final Object lifecycle = new Object();
+  private boolean stopped = false;
+  // a swap that play hasn't started on yet
+  private Swap swap;
+  // set if the stream stopped by itself
+  private boolean lost = false;
+  private volatile boolean playing = false;
+
+  private volatile AudioDevice device;
+  private BlockRenderer renderer;
+  private float[] block = new float[0];
+  // converts each rendered block to the device's sample format
+  private SampleEncoder encoder;
   private double brightness = 1.0;
 
   public XtAudioEngine() {}
 
+  // whether to add TPDF dither to integer sample formats, from the next time
+  // a device is played
+  public void setDither(boolean dither) {
+    this.dither = dither;
+  }
+
+  public boolean isDither() {
+    return dither;
+  }
+
   private int render(XtStream stream, Structs.XtBuffer buffer, Object user) throws Exception {
+    long start = System.nanoTime();
     XtSafeBuffer safe = XtSafeBuffer.get(stream);
     safe.lock(buffer);
     Object output = safe.getOutput();
 
-    for (int f = 0; f < buffer.frames; f++) {
-      Vector2 channels = channelGenerator.call();
-      writeChannels(channels, output, f);
+    int channels = device.channels();
+    if (block.length < buffer.frames * channels) {
+      block = new float[buffer.frames * channels];
     }
+    renderer.render(block, buffer.frames, channels);
+    encoder.encode(block, output, buffer.frames * channels);
     safe.unlock(buffer);
+    metrics.record(System.nanoTime() - start, buffer.frames, device.sampleRate());
     return 0;
   }
 
-  // fully compatible function to write a Vector2 (i.e. stereo) channels to
-  // any AudioSample. This ensures maximum compatibility for audio devices.
-  private void writeChannels(Vector2 vector, Object output, int frame) {
-    int index = frame * device.channels();
-    double[] channels = new double[device.channels()];
-    Arrays.fill(channels, brightness);
+  @Override
+  public boolean isPlaying() {
+    return playing;
+  }
 
-    if (channels.length > 0) {
-      channels[0] = vector.getX();
-    }
-    if (channels.length > 1) {
-      channels[1] = vector.getY();
-    }
+  @Override
+  public void play(Callable<Vector2> channelGenerator, AudioDevice device) throws Exception {
+    play(new ChannelGeneratorRenderer(channelGenerator, () -> brightness), device);
+  }
 
-    switch (device.sample()) {
-      case UINT8 -> {
-        byte[] byteOutput = (byte[]) output;
-        for (int i = 0; i < channels.length; i++) {
-          byteOutput[index + i] = (byte) ((int) (128 * (channels[i] + 1)));
+  // XtAudio boilerplate for connecting to an audio device and playing audio.
+  //
+  // The platform is used for as long as the engine plays. Each device gets
+  // its own stream, and this thread waits without using the CPU until the
+  // engine is stopped or asked to swap to another device, which closes the
+  // stream and opens one on the new device.
+  @Override
+  public void play(BlockRenderer renderer, AudioDevice device) throws Exception {
+    this.playing = true;
+    this.renderer = renderer;
+    playLock.lock();
+    try {
+      XtService service = withPlatform(XtAudioEngine::openService);
+      try {
+        Swap swap = null;
+        while (device != null) {
+          try {
+            playStream(service, device, swap);
+          } catch (Exception e) {
+            if (swap == null || swap.answered) {
+              throw e;
+            }
+            // the engine stops, and is played again on the device by whoever
+            // asked for the swap
+            logger.log(Level.WARNING, e.getMessage(), e);
+            swap.answer(false);
+            return;
+          }
+          swap = takeSwap();
+          device = swap == null ? null : swap.device;
         }
+      } finally {
+        withPlatform(XtAudioEngine::closeService);
       }
-      case INT8 -> {
-        byte[] byteOutput = (byte[]) output;
-        for (int i = 0; i < channels.length; i++) {
-          byteOutput[index + i] = (byte) ((int) (128 * channels[i]));
+    } finally {
+      playLock.unlock();
+      synchronized (lifecycle) {
+        if (this.swap != null) {
+          this.swap.answer(false);
+          this.swap = null;
         }
+        playing = false;
+        this.device = null;
+        lifecycle.notifyAll();
       }
-      case INT16 -> {
-        short[] shortOutput = (short[]) output;
-        for (int i = 0; i < channels.length; i++) {
-          shortOutput[index + i] = (short) (channels[i] * Short.MAX_VALUE);
-        }
+    }
+  }
+
+  // Plays the device until the engine is stopped or asked to swap device.
+  // If the device was swapped to, the swap is answered once the stream has
+  // started.
+  private void playStream(XtService service, AudioDevice device, Swap swap) throws Exception {
+    this.device = device;
+    this.encoder = SampleEncoder.of(device.sample(), dither);
+    OpenStream open = withPlatform(() -> openStream(service, device));
+    try {
+      // preallocate the largest block the stream will ask for
+      block = new float[open.frames() * device.channels()];
+      renderer.prepare(open.frames(), device.channels());
+      synchronized (lifecycle) {
+        lost = false;
       }
-      case INT24 -> {
-        index *= 3;
-        byte[] byteOutput = (byte[]) output;
-        for (int i = 0; i < channels.length; i++) {
-          int channel = (int) (channels[i] * 8388607);
-          byteOutput[index + 3 * i] = (byte) channel;
-          byteOutput[index + 3 * i + 1] = (byte) (channel >> 8);
-          byteOutput[index + 3 * i + 2] = (byte) (channel >> 16);
-        }
+      withPlatform(open.stream()::start);
+      if (swap != null) {
+        swap.answer(true);
       }
-      case INT32 -> {
-        int[] intOutput = (int[]) output;
-        for (int i = 0; i < channels.length; i++) {
-          intOutput[index + i] = (int) (channels[i] * Integer.MAX_VALUE);
-        }
+      boolean lost = awaitStopOrSwap();
+      withPlatform(open.stream()::stop);
+      if (lost) {
+        throw new RuntimeException("Audio device " + device + " stopped playing");
       }
-      case FLOAT32 -> {
-        float[] floatOutput = (float[]) output;
-        for (int i = 0; i < channels.length; i++) {
-          floatOutput[index + i] = (float) channels[i];
-        }
+    } finally {
+      withPlatform(open::close);
+    }
+  }
+
+  // called holding the platform lock
+  private OpenStream openStream(XtService service, AudioDevice device) {
+    XtDevice xtDevice = service.openDevice(device.id());
+    try {
+      Structs.XtMix mix = new Structs.XtMix(device.sampleRate(), AudioSampleToXtSample(device.sample()));
+      Structs.XtChannels channels = new Structs.XtChannels(0, 0, device.channels(), 0);
+      Structs.XtFormat format = new Structs.XtFormat(mix, channels);
+
+      if (!xtDevice.supportsFormat(format)) {
+        throw new RuntimeException("Audio device does not support audio format");
       }
-      case FLOAT64 -> {
-        double[] doubleOutput = (double[]) output;
-        for (int i = 0; i < channels.length; i++) {
-          doubleOutput[index + i] = channels[i];
-        }
+      Structs.XtBufferSize size = xtDevice.getBufferSize(format);
+      Structs.XtStreamParams streamParams = new Structs.XtStreamParams(true, this::render, null, this::onRunning);
+      Structs.XtDeviceStreamParams deviceParams = new Structs.XtDeviceStreamParams(streamParams, format, size.current);
+
+      XtStream stream = xtDevice.openStream(deviceParams, null);
+      try {
+        int frames = stream.getFrames();
+        OpenStream open = new OpenStream(xtDevice, stream, XtSafeBuffer.register(stream), frames);
+        playingId = device.id();
+        return open;
+      } catch (RuntimeException e) {
+        stream.close();
+        throw e;
       }
+    } catch (RuntimeException e) {
+      xtDevice.close();
+      throw e;
     }
   }
 
-  @Override
-  public boolean isPlaying() {
-    return playing;
+  // returns true if the stream stopped by itself
+  private boolean awaitStopOrSwap() {
+    synchronized (lifecycle) {
+      while (!stopped && swap == null && !lost) {
+        try {
+          lifecycle.wait();
+        } catch (InterruptedException e) {
+          logger.log(Level.SEVERE, e.getMessage(), e);
+          stopped = true;
+        }
+      }
+      return lost;
+    }
   }
 
-  // XtAudio boilerplate for connecting to an audio device and playing audio
-  @Override
-  public void play(Callable<Vector2> channelGenerator, AudioDevice device) {
-    this.playing = true;
-    this.device = device;
-    this.channelGenerator = channelGenerator;
-    try (XtPlatform platform = XtAudio.init(null, null)) {
-      XtService service = getService(platform);
+  // Called by XtAudio when the stream starts or stops. A stream that stops
+  // with an error has most likely lost its device, which is disconnected, so
+  // play stops rather than waiting on a stream that will never ask for more.
+  private void onRunning(XtStream stream, boolean running, long error, Object user) {
+    if (!running && error != 0) {
+      synchronized (lifecycle) {
+        lost = true;
+        lifecycle.notifyAll();
+      }
+    }
+  }
 
-      try (XtDevice xtDevice = service.openDevice(device.id())) {
-        Structs.XtMix mix = new Structs.XtMix(device.sampleRate(), AudioSampleToXtSample(device.sample()));
-        Structs.XtChannels channels = new Structs.XtChannels(0, 0, device.channels(), 0);
-        Structs.XtFormat format = new Structs.XtFormat(mix, channels);
+  // the swap to start, or null if the engine has been stopped
+  private Swap takeSwap() {
+    synchronized (lifecycle) {
+      Swap swap = this.swap;
+      this.swap = null;
+      if (stopped && swap != null) {
+        swap.answer(false);
+        return null;
+      }
+      return swap;
+    }
+  }
 
-        if (xtDevice.supportsFormat(format)) {
-          Structs.XtBufferSize size = xtDevice.getBufferSize(format);
-          Structs.XtStreamParams streamParams = new Structs.XtStreamParams(true, this::render, null, null);
-          Structs.XtDeviceStreamParams deviceParams = new Structs.XtDeviceStreamParams(streamParams, format, size.current);
-
-          try (XtStream stream = xtDevice.openStream(deviceParams, null);
-               XtSafeBuffer safe = XtSafeBuffer.register(stream)) {
-            stream.start();
-            while (!stopped) {
-              Thread.onSpinWait();
-            }
-            stream.stop();
-          }
-        } else {
-          throw new RuntimeException("Audio device does not support audio format");
+  // Moves playback to the device by closing the current stream and opening
+  // one on the device, using the same renderer. Waits until the stream on
+  // the device has started. Returns false if the engine isn't playing, is
+  // stopped first, or can't open the device, in which case the engine stops
+  // and must be played again on the device.
+  @Override
+  public boolean swapDevice(AudioDevice device) {
+    Swap swap = new Swap(device);
+    synchronized (lifecycle) {
+      if (!playing || stopped || this.swap != null) {
+        return false;
+      }
+      this.swap = swap;
+      lifecycle.notifyAll();
+      // play always answers, even if it fails or is stopped
+      boolean interrupted = false;
+      while (!swap.answered) {
+        try {
+          lifecycle.wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
         }
       }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      return swap.started;
     }
-    playing = false;
-    this.device = null;
   }
 
   @Override
   public void stop() {
-    stopped = true;
+    synchronized (lifecycle) {
+      stopped = true;
+      lifecycle.notifyAll();
+    }
+  }
+
+  @Override
+  public void awaitStopped() throws InterruptedException {
+    synchronized (lifecycle) {
+      while (playing) {
+        lifecycle.wait();
+      }
+    }
   }
 
   // XtAudio boilerplate for getting a list of connected audio devices
   @Override
   public List<AudioDevice> devices() {
+    return withPlatform(() -> probeDevices(false));
+  }
+
+  // The connected audio devices, or null if they can't be probed right now.
+  // Never waits for the platform, and gives it up between devices if an
+  // engine is waiting for it, so that probing every device doesn't hold up
+  // playback.
+  public List<AudioDevice> tryDevices() {
+    if (!platformLock.tryLock()) {
+      return null;
+    }
+    try {
+      return probeDevices(true);
+    } finally {
+      platformLock.unlock();
+    }
+  }
+
+  // Called holding the platform lock. No devices is an empty list rather
+  // than an error, so that the registry waits for the devices to change
+  // before probing again.
+  private List<AudioDevice> probeDevices(boolean yield) {
     List<AudioDevice> devices = new ArrayList<>();
 
-    try (XtPlatform platform = XtAudio.init(null, null)) {
-      XtService service = getService(platform);
+    XtService service = openService();
+    try {
       XtDeviceList xtDevices = service.openDeviceList(EnumSet.of(Enums.XtEnumFlags.OUTPUT));
 
       for (int i = 0; i < xtDevices.getCount(); i++) {
+        if (yield && platformLock.hasQueuedThreads()) {
+          return null;
+        }
         String deviceId = xtDevices.getId(i);
         String deviceName = xtDevices.getName(deviceId);
 
@@ -183,13 +349,20 @@ public class XtAudioEngine implements AudioEngine {
             }
           });
         } catch (XtException e) {
+          // the device being played can't always be opened twice, in which
+          // case it's probed once it stops rather than being left out
+          if (yield && deviceId.equals(playingId)) {
+            return null;
+          }
           logger.log(Level.SEVERE, e.getMessage(), e);
         }
       }
+    } finally {
+      closeService();
     }
 
     if (devices.isEmpty()) {
-      throw new RuntimeException("No suitable audio devices found");
+      logger.log(Level.WARNING, "No suitable audio devices found");
     }
 
     return devices;
@@ -198,8 +371,9 @@ public class XtAudioEngine implements AudioEngine {
   // XtAudio boilerplate for getting default device
   @Override
   public AudioDevice getDefaultDevice() {
-    try (XtPlatform platform = XtAudio.init(null, null)) {
-      XtService service = getService(platform);
+    platformLock.lock();
+    try {
+      XtService service = openService();
       String deviceId = service.getDefaultDeviceId(true);
 
       try (XtDevice xtDevice = service.openDevice(deviceId)) {
@@ -219,7 +393,78 @@ public class XtAudioEngine implements AudioEngine {
         } else {
           return null;
         }
+      } finally {
+        closeService();
+      }
+    } finally {
+      platformLock.unlock();
+    }
+  }
+
+  // The ids of the output devices, which is quick to get as no device is
+  // opened. null if another thread is using the platform.
+  public List<String> deviceIds() {
+    if (!platformLock.tryLock()) {
+      return null;
+    }
+    try {
+      XtService service = openService();
+      try {
+        XtDeviceList xtDevices = service.openDeviceList(EnumSet.of(Enums.XtEnumFlags.OUTPUT));
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < xtDevices.getCount(); i++) {
+          ids.add(xtDevices.getId(i));
+        }
+        return ids;
+      } finally {
+        closeService();
+      }
+    } finally {
+      platformLock.unlock();
+    }
+  }
+
+  // runs the action holding the platform lock
+  private static <T> T withPlatform(Supplier<T> action) {
+    platformLock.lock();
+    try {
+      return action.get();
+    } finally {
+      platformLock.unlock();
+    }
+  }
+
+  private static void withPlatform(Runnable action) {
+    withPlatform(() -> {
+      action.run();
+      return null;
+    });
+  }
+
+  // The shared platform's service, initialising the platform if nothing is
+  // using it. Called holding the platform lock, and must be matched by a
+  // call to closeService.
+  private static XtService openService() {
+    if (platformUsers == 0) {
+      XtPlatform opened = XtAudio.init(null, null);
+      try {
+        service = getService(opened);
+      } catch (RuntimeException e) {
+        opened.close();
+        throw e;
       }
+      platform = opened;
+    }
+    platformUsers++;
+    return service;
+  }
+
+  // called holding the platform lock
+  private static void closeService() {
+    if (--platformUsers == 0) {
+      platform.close();
+      platform = null;
+      service = null;
     }
   }
 
@@ -233,9 +478,47 @@ public class XtAudioEngine implements AudioEngine {
     this.brightness = brightness;
   }
 
+  @Override
+  public RenderMetrics metrics() {
+    return metrics;
+  }
+
+  // a stream open on a device, with the largest block it asks for
+  private record OpenStream(XtDevice device, XtStream stream, XtSafeBuffer safe, int frames) {
+
+    // called holding the platform lock
+    private void close() {
+      // closes the safe buffer, then the stream, then the device
+      try (device; stream; safe) {
+        playingId = null;
+      }
+    }
+  }
+
+  // a request from swapDevice, answered by play with whether the stream on
+  // the device started
+  private class Swap {
+
+    private final AudioDevice device;
+    private boolean answered = false;
+    private boolean started = false;
+
+    private Swap(AudioDevice device) {
+      this.device = device;
+    }
+
+    private void answer(boolean started) {
+      synchronized (lifecycle) {
+        this.started = started;
+        answered = true;
+        lifecycle.notifyAll();
+      }
+    }
+  }
+
 
   // connects to an XtAudio XtService in order of lowest latency to highest latency
-  private XtService getService(XtPlatform platform) {
+  private static XtService getService(XtPlatform platform) {
     XtService service = platform.getService(platform.setupToSystem(Enums.XtSetup.SYSTEM_AUDIO));
     if (service == null) {
       service = platform.getService(platform.setupToSystem(Enums.XtSetup.PRO_AUDIO));
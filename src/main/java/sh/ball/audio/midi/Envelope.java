@@ -0,0 +1,73 @@
+package sh.ball.audio.midi;
+
+// Attack, decay, sustain and release settings for a MIDI note. Times are in
+// seconds and the sustain level is from 0 to 1. The curve is shared by every
+// stage of the envelope.
+public class Envelope {
+
+  public static final Envelope DEFAULT = new Envelope(0.1, 0, 1, 0.2, Curve.LINEAR);
+
+  public enum Curve {
+    LINEAR,
+    EXPONENTIAL
+  }
+
+  private final double attack;
+  private final double decay;
+  private final double sustain;
+  private final double release;
+  private final Curve curve;
+
+  public Envelope(double attack, double decay, double sustain, double release, Curve curve) {
+    this.attack = Math.max(0, attack);
+    this.decay = Math.max(0, decay);
+    this.sustain = Math.max(0, Math.min(sustain, 1));
+    this.release = Math.max(0, release);
+    this.curve = curve;
+  }
+
+  public double attack() {
+    return attack;
+  }
+
+  public double decay() {
+    return decay;
+  }
+
+  public double sustain() {
+    return sustain;
+  }
+
+  public double release() {
+    return release;
+  }
+
+  public Curve curve() {
+    return curve;
+  }
+
+  public Envelope withAttack(double attack) {
+    return new Envelope(attack, decay, sustain, release, curve);
+  }
+
+  public Envelope withDecay(double decay) {
+    return new Envelope(attack, decay, sustain, release, curve);
+  }
+
+  public Envelope withSustain(double sustain) {
+    return new Envelope(attack, decay, sustain, release, curve);
+  }
+
+  public Envelope withRelease(double release) {
+    return new Envelope(attack, decay, sustain, release, curve);
+  }
+
+  public Envelope withCurve(Curve curve) {
+    return new Envelope(attack, decay, sustain, release, curve);
+  }
+
+  @Override
+  public String toString() {
+    return "Envelope{attack=" + attack + ", decay=" + decay + ", sustain=" + sustain + ", release=" + release + ", curve=" + curve + "}";
+  }
+}
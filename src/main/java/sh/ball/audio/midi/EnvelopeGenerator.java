@@ -0,0 +1,120 @@
+package sh.ball.audio.midi;
+
+// Generates an Envelope one sample at a time for a single voice. Each stage
+// is run for an exact number of samples and every sample is computed as
+// value * multiplier + offset, which covers both a linear ramp and an
+// exponential approach, so the per-sample cost is the same for either curve.
+//
+// The exponential curve aims slightly past the stage's target and lands on
+// it exactly when the stage ends, rather than approaching it forever.
+class EnvelopeGenerator {
+
+  // how far past the target the exponential curve aims. Smaller values give a
+  // more pronounced curve.
+  private static final double EXPONENTIAL_OVERSHOOT = 0.001;
+
+  private enum Stage {
+    IDLE,
+    ATTACK,
+    DECAY,
+    SUSTAIN,
+    RELEASE
+  }
+
+  private Envelope envelope = Envelope.DEFAULT;
+  private int sampleRate = 1;
+  private Stage stage = Stage.IDLE;
+  private double value = 0;
+  private double target = 0;
+  private double multiplier = 1;
+  private double offset = 0;
+  private int remaining = 0;
+
+  // starts the attack from the current value so that retriggering a note
+  // that is still sounding doesn't click
+  void noteOn(Envelope envelope, int sampleRate) {
+    this.envelope = envelope;
+    this.sampleRate = sampleRate;
+    enter(Stage.ATTACK, 1, envelope.attack());
+  }
+
+  void noteOff() {
+    if (stage != Stage.IDLE && stage != Stage.RELEASE) {
+      enter(Stage.RELEASE, 0, envelope.release());
+    }
+  }
+
+  // holds the given value until the note is released
+  void hold(Envelope envelope, int sampleRate, double value) {
+    this.envelope = envelope;
+    this.sampleRate = sampleRate;
+    this.value = value;
+    this.target = value;
+    this.remaining = 0;
+    this.stage = Stage.SUSTAIN;
+  }
+
+  void reset() {
+    stage = Stage.IDLE;
+    value = 0;
+    remaining = 0;
+  }
+
+  double next() {
+    if (remaining > 0) {
+      value = value * multiplier + offset;
+      if (--remaining == 0) {
+        value = target;
+        advance();
+      }
+    }
+    return value;
+  }
+
+  double value() {
+    return value;
+  }
+
+  boolean isIdle() {
+    return stage == Stage.IDLE;
+  }
+
+  boolean isReleased() {
+    return stage == Stage.RELEASE || stage == Stage.IDLE;
+  }
+
+  private void advance() {
+    switch (stage) {
+      case ATTACK -> enter(Stage.DECAY, envelope.sustain(), envelope.decay());
+      case DECAY -> enter(Stage.SUSTAIN, envelope.sustain(), 0);
+      case RELEASE -> stage = Stage.IDLE;
+      default -> {}
+    }
+  }
+
+  private void enter(Stage stage, double target, double seconds) {
+    this.stage = stage;
+    this.target = target;
+    this.remaining = (int) (seconds * sampleRate);
+    if (stage == Stage.SUSTAIN) {
+      remaining = 0;
+      return;
+    }
+    if (remaining == 0 || value == target) {
+      remaining = 0;
+      value = target;
+      advance();
+      return;
+    }
+
+    if (envelope.curve() == Envelope.Curve.EXPONENTIAL) {
+      double distance = Math.abs(target - value);
+      double aim = target + Math.signum(target - value) * EXPONENTIAL_OVERSHOOT;
+      multiplier = Math.pow(EXPONENTIAL_OVERSHOOT / (distance + EXPONENTIAL_OVERSHOOT), 1.0 / remaining);
+      offset = aim * (1 - multiplier);
+    } else {
+      multiplier = 1;
+      offset = (target - value) / remaining;
+    }
+  }
+}
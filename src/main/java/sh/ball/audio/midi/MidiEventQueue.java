@@ -0,0 +1,44 @@
+package sh.ball.audio.midi;
+
+import sh.ball.audio.engine.Sequence;
+
+// Hands MIDI events from the MIDI and GUI threads to the audio thread without
+// locking the audio thread. Events are packed into ints so that nothing is
+// allocated per event. Offers must be serialised by the caller, polls must
+// only happen on the audio thread.
+class MidiEventQueue {
+
+  private final int[] events;
+  private final int mask;
+  private final Sequence head = new Sequence();
+  private final Sequence tail = new Sequence();
+
+  MidiEventQueue(int minCapacity) {
+    int capacity = Integer.highestOneBit(Math.max(minCapacity, 2) - 1) << 1;
+    this.events = new int[capacity];
+    this.mask = capacity - 1;
+  }
+
+  // returns false and drops the event if the audio thread has fallen behind
+  boolean offer(int event) {
+    long t = tail.get();
+    if (t - head.get() == events.length) {
+      return false;
+    }
+    events[(int) (t & mask)] = event;
+    tail.setRelease(t + 1);
+    return true;
+  }
+
+  boolean isEmpty() {
+    return head.get() == tail.get();
+  }
+
+  // must only be called when isEmpty() is false
+  int poll() {
+    long h = head.get();
+    int event = events[(int) (h & mask)];
+    head.setRelease(h + 1);
+    return event;
+  }
+}
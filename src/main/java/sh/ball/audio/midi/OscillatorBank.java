@@ -0,0 +1,97 @@
+package sh.ball.audio.midi;
+
+// A bank of sine oscillators with the same output as SineEffect: x follows the
+// sine and y the cosine of the oscillator's phase. Rather than calling
+// Math.sin and Math.cos every sample, each oscillator stores its current
+// (sin, cos) pair and rotates it by a fixed angle per sample, which costs four
+// multiplies and two adds. Trig is only used when the frequency changes.
+//
+// Rounding error makes the rotated pair slowly drift off the unit circle, so
+// every RENORMALISE_INTERVAL samples it is scaled back onto it.
+//
+// State is stored as parallel arrays indexed by oscillator so that the hot
+// loop touches contiguous memory.
+class OscillatorBank {
+
+  private static final int RENORMALISE_INTERVAL = 256;
+
+  private final double[] sin;
+  private final double[] cos;
+  private final double[] sinDelta;
+  private final double[] cosDelta;
+  private final double[] frequency;
+  private final int[] untilRenormalise;
+  private int sampleRate;
+
+  OscillatorBank(int size, int sampleRate) {
+    this.sin = new double[size];
+    this.cos = new double[size];
+    this.sinDelta = new double[size];
+    this.cosDelta = new double[size];
+    this.frequency = new double[size];
+    this.untilRenormalise = new int[size];
+    this.sampleRate = sampleRate;
+    for (int i = 0; i < size; i++) {
+      reset(i);
+    }
+  }
+
+  void setSampleRate(int sampleRate) {
+    this.sampleRate = sampleRate;
+    for (int i = 0; i < frequency.length; i++) {
+      updateDelta(i);
+    }
+  }
+
+  // restarts the oscillator at a phase of zero
+  void reset(int index) {
+    sin[index] = 0;
+    cos[index] = 1;
+    untilRenormalise[index] = RENORMALISE_INTERVAL;
+  }
+
+  void setFrequency(int index, double frequency) {
+    if (this.frequency[index] != frequency) {
+      this.frequency[index] = frequency;
+      updateDelta(index);
+    }
+  }
+
+  double sin(int index) {
+    return sin[index];
+  }
+
+  double cos(int index) {
+    return cos[index];
+  }
+
+  // advances the oscillator by one sample
+  void next(int index) {
+    double s = sin[index];
+    double c = cos[index];
+    double sd = sinDelta[index];
+    double cd = cosDelta[index];
+    double nextSin = s * cd + c * sd;
+    double nextCos = c * cd - s * sd;
+
+    if (--untilRenormalise[index] <= 0) {
+      untilRenormalise[index] = RENORMALISE_INTERVAL;
+      // the pair is always very close to the unit circle, so a single Newton
+      // step towards 1 / sqrt(magnitude) is enough
+      double scale = 1.5 - 0.5 * (nextSin * nextSin + nextCos * nextCos);
+      nextSin *= scale;
+      nextCos *= scale;
+    }
+
+    sin[index] = nextSin;
+    cos[index] = nextCos;
+  }
+
+  private void updateDelta(int index) {
+    // matches the phase increment of SineEffect, which advances by
+    // 2 * pi * frequency / sampleRate each sample
+    double delta = sampleRate == 0 ? 0 : 2 * Math.PI * frequency[index] / sampleRate;
+    sinDelta[index] = Math.sin(delta);
+    cosDelta[index] = Math.cos(delta);
+  }
+}
@@ -0,0 +1,382 @@
+package sh.ball.audio.midi;
+
+import sh.ball.shapes.MutableVector2;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Keeps track of the MIDI notes that are currently sounding. Only voices that
+// are sounding are stored, in a compact array, so the cost on the audio thread
+// grows with the number of held notes rather than the number of possible keys.
+//
+// Note events are sent from the MIDI thread and queued, and are applied by the
+// audio thread at control rate, once every CONTROL_INTERVAL samples. Each voice
+// runs its own EnvelopeGenerator which is advanced every sample. When more
+// notes are held than the polyphony limit allows, the quietest released voice
+// is stolen, or the oldest voice if none have been released. The note held by
+// reset is never stolen and doesn't count towards the limit until it's
+// released.
+//
+// If the audio thread falls so far behind that the queue fills up, note ons
+// are dropped and counted, but releases never are. Note offs, all notes off
+// and resets that don't fit are kept to one side, coalesced per key, and
+// every event after them is dropped until the audio thread has applied them,
+// so they're never applied out of order and no note is left stuck.
+public class VoiceAllocator {
+
+  public static final int DEFAULT_POLYPHONY = 32;
+  public static final int MAX_POLYPHONY = 128;
+  // one more than the polyphony as the pinned voice isn't counted
+  private static final int MAX_VOICES = MAX_POLYPHONY + 1;
+  // number of samples between applying queued note events
+  private static final int CONTROL_INTERVAL = 32;
+  private static final int EVENT_QUEUE_SIZE = 1024;
+  private static final int NUM_KEYS = 128;
+
+  private static final int NOTE = 0;
+  private static final int ALL_NOTES_OFF = 1;
+  private static final int RESET = 2;
+
+  private static final double[] FREQUENCIES = new double[NUM_KEYS];
+  private static final int NO_RESET = -1;
+
+  static {
+    for (int key = 0; key < NUM_KEYS; key++) {
+      FREQUENCIES[key] = new MidiNote(key).frequency();
+    }
+  }
+
+  private final MidiEventQueue events = new MidiEventQueue(EVENT_QUEUE_SIZE);
+  private final Voice[] pool = new Voice[MAX_VOICES];
+  private final OscillatorBank oscillators;
+  private final Voice[] active = new Voice[MAX_VOICES];
+  private final Voice[][] voicesByKey = new Voice[MidiNote.NUM_CHANNELS][NUM_KEYS];
+  private final double[] pitchBends = new double[MidiNote.NUM_CHANNELS];
+
+  private volatile int polyphony = DEFAULT_POLYPHONY;
+  private volatile Envelope envelope = Envelope.DEFAULT;
+  private volatile int sampleRate;
+  private volatile long stolenVoices = 0;
+  private volatile long droppedEvents = 0;
+
+  // Releases that didn't fit in the queue, applied by the audio thread once
+  // the queue is drained. A reset supersedes an all notes off, which
+  // supersedes any note offs before it.
+  private final AtomicLongArray pendingNoteOffs = new AtomicLongArray(MidiNote.NUM_CHANNELS * NUM_KEYS / Long.SIZE);
+  private final AtomicBoolean pendingAllNotesOff = new AtomicBoolean();
+  // the event of a reset that didn't fit, or NO_RESET
+  private final AtomicInteger pendingReset = new AtomicInteger(NO_RESET);
+  // set once anything is pending, and cleared by the audio thread before it
+  // applies it
+  private volatile boolean overflowed = false;
+
+  // only accessed by the audio thread
+  private int numActive = 0;
+  private int untilControl = 0;
+  private long notesStarted = 0;
+  // the voice held by reset, until it's released
+  private Voice pinned;
+
+  public VoiceAllocator(int sampleRate) {
+    this.sampleRate = sampleRate;
+    this.oscillators = new OscillatorBank(MAX_VOICES, sampleRate);
+    for (int i = 0; i < pool.length; i++) {
+      pool[i] = new Voice(i);
+    }
+    Arrays.fill(pitchBends, 1.0);
+  }
+
+  public void setSampleRate(int sampleRate) {
+    this.sampleRate = sampleRate;
+    oscillators.setSampleRate(sampleRate);
+  }
+
+  // used by notes started from now on. Notes that are already sounding keep
+  // the envelope they started with.
+  public void setEnvelope(Envelope envelope) {
+    this.envelope = envelope;
+  }
+
+  public Envelope getEnvelope() {
+    return envelope;
+  }
+
+  public void setPolyphony(int polyphony) {
+    this.polyphony = Math.max(1, Math.min(polyphony, MAX_POLYPHONY));
+  }
+
+  public int getPolyphony() {
+    return polyphony;
+  }
+
+  public void setPitchBend(int channel, double pitchBend) {
+    pitchBends[channel] = pitchBend;
+  }
+
+  // The methods below are called from the MIDI and GUI threads and are
+  // synchronized so that only one thread writes to the event queue at a time.
+
+  public synchronized void noteOn(int channel, int key, int velocity) {
+    if (overflowed || !events.offer(encode(NOTE, channel, key, velocity))) {
+      droppedEvents++;
+    }
+  }
+
+  public synchronized void noteOff(int channel, int key) {
+    if (overflowed || !events.offer(encode(NOTE, channel, key, 0))) {
+      int bit = channel * NUM_KEYS + key;
+      pendingNoteOffs.getAndAccumulate(bit / Long.SIZE, 1L << (bit % Long.SIZE), (a, b) -> a | b);
+      overflow();
+    }
+  }
+
+  public synchronized void allNotesOff() {
+    if (overflowed || !events.offer(encode(ALL_NOTES_OFF, 0, 0, 0))) {
+      clearPendingNoteOffs();
+      pendingAllNotesOff.set(true);
+      overflow();
+    }
+  }
+
+  // removes every voice and holds the given note at full volume
+  public synchronized void reset(int channel, int key) {
+    int event = encode(RESET, channel, key, MidiNote.MAX_VELOCITY);
+    if (overflowed || !events.offer(event)) {
+      clearPendingNoteOffs();
+      pendingAllNotesOff.set(false);
+      pendingReset.set(event);
+      overflow();
+    }
+  }
+
+  private void overflow() {
+    droppedEvents++;
+    overflowed = true;
+  }
+
+  private void clearPendingNoteOffs() {
+    for (int i = 0; i < pendingNoteOffs.length(); i++) {
+      pendingNoteOffs.set(i, 0);
+    }
+  }
+
+  public long stolenVoices() {
+    return stolenVoices;
+  }
+
+  // number of events that didn't fit in the queue. Releases among them were
+  // still applied.
+  public long droppedEvents() {
+    return droppedEvents;
+  }
+
+  // The methods below must only be called from the audio thread.
+
+  // advances the allocator and every voice's envelope by one sample
+  public void tick() {
+    if (--untilControl <= 0) {
+      untilControl = CONTROL_INTERVAL;
+      control();
+    }
+    for (int i = 0; i < numActive; i++) {
+      Voice voice = active[i];
+      voice.level = voice.velocity * voice.envelope.next();
+    }
+  }
+
+  public int activeVoices() {
+    return numActive;
+  }
+
+  // volume of the note, from 0 to 1
+  public double level(int channel, int key) {
+    Voice voice = voicesByKey[channel][key];
+    return voice == null ? 0 : voice.level;
+  }
+
+  // adds the sine wave of every sounding voice, other than the excluded note,
+  // to the vector
+  public void mix(int excludeChannel, int excludeKey, double volume, MutableVector2 vector) {
+    for (int i = 0; i < numActive; i++) {
+      Voice voice = active[i];
+      if (voice.level > 0 && !(voice.key == excludeKey && voice.channel == excludeChannel)) {
+        int oscillator = voice.oscillator;
+        oscillators.next(oscillator);
+        double voiceVolume = volume * voice.level;
+        vector.x += voiceVolume * oscillators.sin(oscillator);
+        vector.y += voiceVolume * oscillators.cos(oscillator);
+      }
+    }
+  }
+
+  private void control() {
+    while (!events.isEmpty()) {
+      apply(events.poll());
+    }
+    if (overflowed) {
+      overflowed = false;
+      applyPending();
+    }
+
+    int i = 0;
+    while (i < numActive) {
+      Voice voice = active[i];
+      if (voice.envelope.isIdle()) {
+        remove(i);
+      } else {
+        oscillators.setFrequency(voice.oscillator, FREQUENCIES[voice.key] * pitchBends[voice.channel]);
+        i++;
+      }
+    }
+
+    int limit = polyphony;
+    while (stealableVoices() > limit) {
+      remove(stealIndex());
+      stolenVoices++;
+    }
+  }
+
+  // in the order they were superseded, so that later releases still apply
+  private void applyPending() {
+    int reset = pendingReset.getAndSet(NO_RESET);
+    if (reset != NO_RESET) {
+      apply(reset);
+    }
+    if (pendingAllNotesOff.getAndSet(false)) {
+      apply(encode(ALL_NOTES_OFF, 0, 0, 0));
+    }
+    for (int i = 0; i < pendingNoteOffs.length(); i++) {
+      long bits = pendingNoteOffs.getAndSet(i, 0);
+      while (bits != 0) {
+        int bit = i * Long.SIZE + Long.numberOfTrailingZeros(bits);
+        bits &= bits - 1;
+        apply(encode(NOTE, bit / NUM_KEYS, bit % NUM_KEYS, 0));
+      }
+    }
+  }
+
+  private int stealableVoices() {
+    return pinned == null ? numActive : numActive - 1;
+  }
+
+  private void apply(int event) {
+    int type = event >>> 24;
+    int channel = (event >>> 16) & 0xFF;
+    int key = (event >>> 8) & 0xFF;
+    int velocity = event & 0xFF;
+
+    switch (type) {
+      case NOTE -> {
+        Voice voice = voicesByKey[channel][key];
+        if (velocity == 0) {
+          if (voice != null) {
+            voice.envelope.noteOff();
+            if (voice == pinned) {
+              pinned = null;
+            }
+          }
+        } else if (voice != null) {
+          voice.velocity = (double) velocity / MidiNote.MAX_VELOCITY;
+          voice.envelope.noteOn(envelope, sampleRate);
+        } else {
+          start(channel, key, velocity).envelope.noteOn(envelope, sampleRate);
+        }
+      }
+      case ALL_NOTES_OFF -> {
+        for (int i = 0; i < numActive; i++) {
+          active[i].envelope.noteOff();
+        }
+        pinned = null;
+      }
+      case RESET -> {
+        while (numActive > 0) {
+          remove(numActive - 1);
+        }
+        Voice voice = start(channel, key, velocity);
+        voice.envelope.hold(envelope, sampleRate, 1);
+        voice.level = voice.velocity;
+        pinned = voice;
+      }
+    }
+  }
+
+  private Voice start(int channel, int key, int velocity) {
+    if (stealableVoices() >= polyphony) {
+      remove(stealIndex());
+      stolenVoices++;
+    }
+    Voice voice = null;
+    for (Voice candidate : pool) {
+      if (!candidate.sounding) {
+        voice = candidate;
+        break;
+      }
+    }
+    voice.sounding = true;
+    voice.channel = channel;
+    voice.key = key;
+    voice.velocity = (double) velocity / MidiNote.MAX_VELOCITY;
+    voice.level = 0;
+    voice.envelope.reset();
+    voice.started = notesStarted++;
+    oscillators.reset(voice.oscillator);
+    oscillators.setFrequency(voice.oscillator, FREQUENCIES[key] * pitchBends[channel]);
+    voicesByKey[channel][key] = voice;
+    active[numActive++] = voice;
+    return voice;
+  }
+
+  // Prefers the quietest released voice, otherwise the oldest voice. Never
+  // the pinned voice, so must only be called if there's another voice.
+  private int stealIndex() {
+    int quietest = -1;
+    int oldest = -1;
+    for (int i = 0; i < numActive; i++) {
+      Voice voice = active[i];
+      if (voice == pinned) {
+        continue;
+      }
+      if (voice.envelope.isReleased() && (quietest < 0 || voice.level < active[quietest].level)) {
+        quietest = i;
+      }
+      if (oldest < 0 || voice.started < active[oldest].started) {
+        oldest = i;
+      }
+    }
+    return quietest >= 0 ? quietest : oldest;
+  }
+
+  private void remove(int index) {
+    Voice voice = active[index];
+    if (voice == pinned) {
+      pinned = null;
+    }
+    voice.sounding = false;
+    voicesByKey[voice.channel][voice.key] = null;
+    active[index] = active[--numActive];
+    active[numActive] = null;
+  }
+
+  private static int encode(int type, int channel, int key, int velocity) {
+    return (type << 24) | ((channel & 0xFF) << 16) | ((key & 0xFF) << 8) | (velocity & 0xFF);
+  }
+
+  private static class Voice {
+    // index of this voice's oscillator in the OscillatorBank
+    private final int oscillator;
+    private final EnvelopeGenerator envelope = new EnvelopeGenerator();
+
+    private boolean sounding = false;
+    private int channel;
+    private int key;
+    private double velocity;
+    private double level;
+    private long started;
+
+    private Voice(int oscillator) {
+      this.oscillator = oscillator;
+    }
+  }
+}
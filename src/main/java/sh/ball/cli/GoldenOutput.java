@@ -0,0 +1,100 @@
+package sh.ball.cli;
+
+import sh.ball.audio.engine.VirtualAudioEngine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+// Hashes every sample rendered so that a render can be compared against a
+// golden file recorded earlier. Samples are rounded to steps of 1 / 32768,
+// the resolution of 16-bit audio, before being hashed. Any audible change
+// to the output changes the hash, but the last bits of Math.sin and the
+// like, which can differ between JDKs and CPUs, don't.
+//
+// A golden file is a text file holding the SHA-256 hash of the output on its
+// first line that isn't a comment. Lines starting with # are comments, and
+// say what was rendered and on which platform.
+public class GoldenOutput implements VirtualAudioEngine.BlockListener {
+
+  private static final String ALGORITHM = "SHA-256";
+  private static final double STEPS = 32768;
+
+  private final MessageDigest digest;
+  private ByteBuffer bytes = ByteBuffer.allocate(0);
+  private String hash;
+
+  public GoldenOutput() {
+    try {
+      this.digest = MessageDigest.getInstance(ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      // every Java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public void accept(float[] buffer, int frames, int channels) {
+    int samples = frames * channels;
+    if (bytes.capacity() < samples * Integer.BYTES) {
+      bytes = ByteBuffer.allocate(samples * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    bytes.clear();
+    for (int i = 0; i < samples; i++) {
+      // not clamped, so samples beyond full scale are still told apart
+      bytes.putInt((int) Math.round(buffer[i] * STEPS));
+    }
+    bytes.flip();
+    digest.update(bytes);
+  }
+
+  // hash of everything rendered. No more blocks can be added once called.
+  public String hash() {
+    if (hash == null) {
+      hash = HexFormat.of().formatHex(digest.digest());
+    }
+    return hash;
+  }
+
+  // Returns whether the output matches the golden file. If update is true,
+  // the hash is written to the golden file instead and the output is
+  // treated as matching.
+  public boolean check(Path golden, String description, boolean update) throws IOException {
+    if (update) {
+      Files.writeString(golden, "# " + description + "\n# " + platform() + "\n" + hash() + "\n", StandardCharsets.UTF_8);
+      return true;
+    }
+    requireExists(golden);
+    return hash().equals(read(golden));
+  }
+
+  // so that a mistyped path fails rather than being recorded as golden
+  public static void requireExists(Path golden) throws IOException {
+    if (!Files.exists(golden)) {
+      throw new NoSuchFileException(golden.toString(), null, "no golden file, use --update-golden to record one");
+    }
+  }
+
+  private static String platform() {
+    return String.format("recorded on Java %s (%s) on %s %s",
+      System.getProperty("java.version"), System.getProperty("java.vendor"),
+      System.getProperty("os.name"), System.getProperty("os.arch"));
+  }
+
+  private static String read(Path golden) throws IOException {
+    for (String line : Files.readAllLines(golden, StandardCharsets.UTF_8)) {
+      line = line.trim();
+      if (!line.isEmpty() && !line.startsWith("#")) {
+        return line;
+      }
+    }
+    throw new IOException("Golden file " + golden + " has no hash");
+  }
+}
@@ -0,0 +1,69 @@
+package sh.ball.cli;
+
+import sh.ball.audio.engine.VirtualAudioEngine;
+import sh.ball.audio.midi.MidiListener;
+
+import javax.sound.midi.*;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// Plays a standard MIDI file into a render without a MIDI device. Every
+// ShortMessage in the file is scheduled on the VirtualAudioEngine at the frame
+// it's due, following any tempo changes, and sent to the listener from the
+// rendering thread.
+public class MidiSchedule {
+
+  private static final int TEMPO_META_TYPE = 0x51;
+  // 120 bpm, the default when a file doesn't set a tempo
+  private static final double DEFAULT_MICROSECONDS_PER_QUARTER_NOTE = 500_000;
+
+  // returns the number of messages scheduled
+  public static int schedule(Path file, VirtualAudioEngine engine, int sampleRate, MidiListener listener) throws IOException {
+    Sequence sequence;
+    try {
+      sequence = MidiSystem.getSequence(file.toFile());
+    } catch (InvalidMidiDataException e) {
+      throw new IOException("Invalid MIDI file " + file, e);
+    }
+
+    List<MidiEvent> events = new ArrayList<>();
+    for (Track track : sequence.getTracks()) {
+      for (int i = 0; i < track.size(); i++) {
+        events.add(track.get(i));
+      }
+    }
+    // a stable sort, so events at the same tick keep their order
+    events.sort(Comparator.comparingLong(MidiEvent::getTick));
+
+    double tempo = DEFAULT_MICROSECONDS_PER_QUARTER_NOTE;
+    double microseconds = 0;
+    long lastTick = 0;
+    int scheduled = 0;
+    for (MidiEvent event : events) {
+      microseconds += (event.getTick() - lastTick) * microsecondsPerTick(sequence, tempo);
+      lastTick = event.getTick();
+
+      MidiMessage message = event.getMessage();
+      if (message instanceof MetaMessage meta && meta.getType() == TEMPO_META_TYPE) {
+        byte[] data = meta.getData();
+        tempo = ((data[0] & 0xFF) << 16) | ((data[1] & 0xFF) << 8) | (data[2] & 0xFF);
+      } else if (message instanceof ShortMessage shortMessage) {
+        long frame = Math.round(microseconds * sampleRate / 1_000_000);
+        engine.schedule(frame, () -> listener.sendMidiMessage(shortMessage));
+        scheduled++;
+      }
+    }
+    return scheduled;
+  }
+
+  private static double microsecondsPerTick(Sequence sequence, double tempo) {
+    if (sequence.getDivisionType() == Sequence.PPQ) {
+      return tempo / sequence.getResolution();
+    }
+    // SMPTE timing, where the division is frames per second
+    return 1_000_000 / (sequence.getDivisionType() * sequence.getResolution());
+  }
+}
@@ -0,0 +1,332 @@
+package sh.ball.cli;
+
+import sh.ball.audio.ChannelMap;
+import sh.ball.audio.ShapeAudioPlayer;
+import sh.ball.audio.WavRecorder;
+import sh.ball.audio.engine.AudioDevice;
+import sh.ball.audio.engine.AudioSample;
+import sh.ball.audio.engine.SimpleAudioDevice;
+import sh.ball.audio.engine.VirtualAudioEngine;
+import sh.ball.audio.midi.MidiCommunicator;
+import sh.ball.gui.Gui;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+
+import static sh.ball.gui.Gui.logger;
+
+// Renders a .osci project without JavaFX or a sound card.
+//
+// The project is loaded by a ProjectPlayer and played by a ShapeAudioPlayer
+// on a VirtualAudioEngine, which renders blocks back to back on the calling
+// thread as fast as the CPU allows. If an output file is given, each block is
+// streamed to it by a WavRecorder, waiting for the disk rather than dropping
+// frames. Once done, the real-time factor achieved is printed: the length of
+// audio rendered divided by how long it took to render.
+//
+// It can also be used to check for regressions. A MIDI file can be played
+// into the render, the output can be compared against a golden file and the
+// run fails if any block takes longer to render than the budget. The exit
+// code is 1 if the run fails and 2 if the arguments are wrong.
+public class OfflineRenderer {
+
+  private static final double DEFAULT_SECONDS = 10;
+  private static final int DEFAULT_SAMPLE_RATE = 48000;
+  private static final int DEFAULT_CHANNELS = 2;
+
+  private static final String USAGE = "Usage: OfflineRenderer <project.osci> [output.wav]"
+    + " [--seconds " + DEFAULT_SECONDS + "] [--sample-rate " + DEFAULT_SAMPLE_RATE + "]"
+    + " [--channels " + DEFAULT_CHANNELS + "] [--channel-map x,y,blanking] [--sample INT16] [--block " + VirtualAudioEngine.DEFAULT_BLOCK_FRAMES + "]"
+    + " [--midi file.mid] [--golden file] [--update-golden]"
+    + " [--block-budget-us budget] [--warmup-blocks " + VirtualAudioEngine.DEFAULT_WARMUP_BLOCKS + "]";
+
+  private final Path project;
+  private Path output;
+  private double seconds = DEFAULT_SECONDS;
+  private int sampleRate = DEFAULT_SAMPLE_RATE;
+  private int channels = DEFAULT_CHANNELS;
+  // uses the project's channel map when not set
+  private ChannelMap channelMap;
+  private int blockFrames = VirtualAudioEngine.DEFAULT_BLOCK_FRAMES;
+  // uses the project's sample format when not set
+  private AudioSample sample;
+  private Path midi;
+  private Path golden;
+  private boolean updateGolden = false;
+  private long blockBudgetNanos = 0;
+  private int warmupBlocks = VirtualAudioEngine.DEFAULT_WARMUP_BLOCKS;
+
+  public OfflineRenderer(Path project) {
+    this.project = project;
+  }
+
+  public static void main(String[] args) {
+    // must be set before anything touches Gui so that it doesn't open an
+    // audio device or MIDI devices
+    System.setProperty(Gui.HEADLESS_PROPERTY, "true");
+    System.setProperty("org.luaj.luajc", "true");
+
+    OfflineRenderer renderer;
+    try {
+      renderer = parseArguments(args);
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.println(USAGE);
+      System.exit(2);
+      return;
+    }
+
+    try {
+      Result result = renderer.render();
+      System.out.println(result);
+      if (!result.passed()) {
+        System.exit(1);
+      }
+    } catch (Exception e) {
+      logger.log(Level.SEVERE, e.getMessage(), e);
+      System.exit(1);
+    }
+  }
+
+  private static OfflineRenderer parseArguments(String[] args) {
+    List<String> positional = new ArrayList<>();
+    List<String[]> options = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("--update-golden")) {
+        options.add(new String[] {args[i], null});
+      } else if (args[i].startsWith("--")) {
+        if (i + 1 >= args.length) {
+          throw new IllegalArgumentException("Missing value for " + args[i]);
+        }
+        options.add(new String[] {args[i], args[++i]});
+      } else {
+        positional.add(args[i]);
+      }
+    }
+    if (positional.isEmpty() || positional.size() > 2) {
+      throw new IllegalArgumentException("Expected a project and an optional output file");
+    }
+
+    OfflineRenderer renderer = new OfflineRenderer(Path.of(positional.get(0)));
+    if (positional.size() > 1) {
+      renderer.setOutput(Path.of(positional.get(1)));
+    }
+    for (String[] option : options) {
+      String value = option[1];
+      try {
+        switch (option[0]) {
+          case "--seconds" -> renderer.setSeconds(Double.parseDouble(value));
+          case "--sample-rate" -> renderer.setSampleRate(Integer.parseInt(value));
+          case "--channels" -> renderer.setChannels(Integer.parseInt(value));
+          case "--channel-map" -> renderer.setChannelMap(ChannelMap.parse(value));
+          case "--sample" -> renderer.setSample(AudioSample.valueOf(value.toUpperCase(Locale.ROOT)));
+          case "--block" -> renderer.setBlockFrames(Integer.parseInt(value));
+          case "--midi" -> renderer.setMidi(Path.of(value));
+          case "--golden" -> renderer.setGolden(Path.of(value));
+          case "--update-golden" -> renderer.setUpdateGolden(true);
+          case "--block-budget-us" -> renderer.setBlockBudgetNanos(Math.round(Double.parseDouble(value) * 1000));
+          case "--warmup-blocks" -> renderer.setWarmupBlocks(Integer.parseInt(value));
+          default -> throw new IllegalArgumentException("Unknown option " + option[0]);
+        }
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid value for " + option[0] + ": " + value);
+      }
+    }
+    if (renderer.updateGolden && renderer.golden == null) {
+      throw new IllegalArgumentException("--update-golden needs a --golden file");
+    }
+    return renderer;
+  }
+
+  // the WAV file to write, or null to render without saving
+  public void setOutput(Path output) {
+    this.output = output;
+  }
+
+  public void setSeconds(double seconds) {
+    if (seconds <= 0) {
+      throw new IllegalArgumentException("Length must be positive");
+    }
+    this.seconds = seconds;
+  }
+
+  public void setSampleRate(int sampleRate) {
+    if (sampleRate <= 0) {
+      throw new IllegalArgumentException("Sample rate must be positive");
+    }
+    this.sampleRate = sampleRate;
+  }
+
+  public void setChannels(int channels) {
+    if (channels <= 0) {
+      throw new IllegalArgumentException("There must be at least one channel");
+    }
+    this.channels = channels;
+  }
+
+  public void setChannelMap(ChannelMap channelMap) {
+    this.channelMap = channelMap;
+  }
+
+  public void setSample(AudioSample sample) {
+    this.sample = sample;
+  }
+
+  public void setBlockFrames(int blockFrames) {
+    if (blockFrames <= 0) {
+      throw new IllegalArgumentException("Block size must be positive");
+    }
+    this.blockFrames = blockFrames;
+  }
+
+  // MIDI file to play into the render
+  public void setMidi(Path midi) {
+    this.midi = midi;
+  }
+
+  // golden file to compare the output against
+  public void setGolden(Path golden) {
+    this.golden = golden;
+  }
+
+  // overwrite the golden file with this render's output rather than compare
+  public void setUpdateGolden(boolean updateGolden) {
+    this.updateGolden = updateGolden;
+  }
+
+  // longest a block may take to render before the run fails. Zero disables
+  // the budget.
+  public void setBlockBudgetNanos(long blockBudgetNanos) {
+    if (blockBudgetNanos < 0) {
+      throw new IllegalArgumentException("Block budget can't be negative");
+    }
+    this.blockBudgetNanos = blockBudgetNanos;
+  }
+
+  // number of blocks rendered before blocks are timed
+  public void setWarmupBlocks(int warmupBlocks) {
+    if (warmupBlocks < 0) {
+      throw new IllegalArgumentException("Warmup blocks can't be negative");
+    }
+    this.warmupBlocks = warmupBlocks;
+  }
+
+  public Result render() throws Exception {
+    if (golden != null && !updateGolden) {
+      GoldenOutput.requireExists(golden);
+    }
+    Project project = Project.load(this.project);
+    AudioSample sample = this.sample;
+    if (sample == null) {
+      sample = project.audioSample() == null ? AudioSample.INT16 : project.audioSample();
+    }
+    AudioDevice device = new SimpleAudioDevice("offline", "Offline renderer", sampleRate, sample, channels);
+    long frames = Math.round(seconds * sampleRate);
+
+    VirtualAudioEngine engine = new VirtualAudioEngine(device, blockFrames);
+    engine.setDuration(frames);
+    engine.setBlockBudget(blockBudgetNanos);
+    engine.setWarmupBlocks(warmupBlocks);
+    // MIDI devices are never opened, so notes only come from the MIDI file
+    ShapeAudioPlayer audioPlayer = new ShapeAudioPlayer(() -> engine, new MidiCommunicator());
+    audioPlayer.setDevice(device);
+    ChannelMap channelMap = this.channelMap;
+    if (channelMap == null) {
+      channelMap = project.channelMap() == null ? ChannelMap.DEFAULT : project.channelMap();
+    }
+    audioPlayer.setChannelMap(channelMap);
+    audioPlayer.setAudioSample(sample);
+    new ProjectPlayer(audioPlayer, sampleRate).load(project);
+    if (midi != null) {
+      MidiSchedule.schedule(midi, engine, sampleRate, audioPlayer);
+    }
+
+    GoldenOutput goldenOutput = null;
+    if (golden != null) {
+      goldenOutput = new GoldenOutput();
+      engine.addListener(goldenOutput);
+    }
+    WavRecorder recorder = null;
+    if (output != null) {
+      WavRecorder wav = new WavRecorder(output, sample, sampleRate, channels);
+      engine.addListener((buffer, blockLength, blockChannels) -> wav.writeBlocking(buffer, blockLength));
+      recorder = wav;
+    }
+
+    long start = System.nanoTime();
+    try {
+      audioPlayer.run();
+    } finally {
+      if (recorder != null) {
+        recorder.stop();
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+
+    if (engine.framesRendered() < frames) {
+      throw new IllegalStateException("Rendering stopped after " + engine.framesRendered() + " of " + frames + " frames");
+    }
+
+    Boolean goldenMatched = null;
+    String hash = null;
+    if (goldenOutput != null) {
+      String description = String.format(Locale.ROOT, "%s, %.3fs at %dHz, %d channels%s",
+        this.project.getFileName(), seconds, sampleRate, channels, midi == null ? "" : ", MIDI " + midi.getFileName());
+      goldenMatched = goldenOutput.check(golden, description, updateGolden);
+      hash = goldenOutput.hash();
+    }
+
+    return new Result(
+      output,
+      engine.seconds(),
+      elapsed / 1e9,
+      engine.meanBlockNanos() / 1000,
+      engine.maxBlockNanos() / 1000.0,
+      blockBudgetNanos / 1000.0,
+      engine.blocksOverBudget(),
+      hash,
+      goldenMatched
+    );
+  }
+
+  // goldenMatched is null when there was no golden file to compare with
+  public record Result(
+    Path output,
+    double audioSeconds,
+    double renderSeconds,
+    double meanBlockMicros,
+    double maxBlockMicros,
+    double blockBudgetMicros,
+    long blocksOverBudget,
+    String hash,
+    Boolean goldenMatched
+  ) {
+
+    // how many times faster than real time the audio was rendered
+    public double realTimeFactor() {
+      return audioSeconds / renderSeconds;
+    }
+
+    public boolean passed() {
+      return blocksOverBudget == 0 && !Boolean.FALSE.equals(goldenMatched);
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder builder = new StringBuilder();
+      builder.append(String.format(Locale.ROOT, "Rendered %.3fs of audio%s in %.3fs (%.1fx real time)",
+        audioSeconds, output == null ? "" : " to " + output, renderSeconds, realTimeFactor()));
+      builder.append(String.format(Locale.ROOT, "%nBlock render time: mean %.1fus, max %.1fus", meanBlockMicros, maxBlockMicros));
+      if (blockBudgetMicros > 0) {
+        builder.append(String.format(Locale.ROOT, ", %d over the budget of %.1fus", blocksOverBudget, blockBudgetMicros));
+      }
+      if (goldenMatched != null) {
+        builder.append(String.format("%nOutput hash %s %s the golden file", hash, goldenMatched ? "matches" : "DOES NOT match"));
+      }
+      return builder.toString();
+    }
+  }
+}
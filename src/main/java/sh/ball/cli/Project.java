@@ -0,0 +1,287 @@
+package sh.ball.cli;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import sh.ball.audio.ChannelMap;
+import sh.ball.audio.effect.AnimationType;
+import sh.ball.audio.effect.SmoothEffect;
+import sh.ball.audio.engine.AudioSample;
+import sh.ball.shapes.Vector2;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+
+// The settings of a .osci project that affect the audio, read without the
+// GUI. Elements are read the same way as MainController.openProject and the
+// sub-controllers' load methods read them, including the same backwards
+// compatibility for older projects.
+public class Project {
+
+  public static final String DEFAULT_DEPTH_FUNCTION = "return { x, y, z }";
+
+  private final Map<String, Double> sliders = new HashMap<>();
+  private final Map<String, EffectState> effects = new HashMap<>();
+  private final List<ProjectFile> files = new ArrayList<>();
+  private boolean hasCheckBoxes = false;
+  private int frameSource = 0;
+  private boolean flipX = false;
+  private boolean flipY = false;
+  private boolean hiddenEdges = false;
+  private int mainMidiChannel = 0;
+  private Double midiAttack;
+  private Double midiDecay;
+  private AudioSample audioSample;
+  private ChannelMap channelMap;
+  private Vector2 translation = new Vector2();
+  private boolean translationEllipse = false;
+  private String depthFunction = DEFAULT_DEPTH_FUNCTION;
+  private boolean[] perspectiveFixedRotate = new boolean[3];
+  private boolean[] objectFixedRotate = new boolean[3];
+  private SmoothEffect.Filter smoothingFilter = SmoothEffect.Filter.MOVING_AVERAGE;
+
+  public static Project load(Path path) throws Exception {
+    DocumentBuilderFactory documentFactory = DocumentBuilderFactory.newInstance();
+    documentFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+    DocumentBuilder documentBuilder = documentFactory.newDocumentBuilder();
+    Document document = documentBuilder.parse(path.toFile());
+    document.getDocumentElement().normalize();
+
+    Project project = new Project();
+    project.load(document.getDocumentElement());
+    return project;
+  }
+
+  private void load(Element root) {
+    Element slidersElement = child(root, "sliders");
+    if (slidersElement != null) {
+      NodeList nodes = slidersElement.getChildNodes();
+      for (int i = 0; i < nodes.getLength(); i++) {
+        if (nodes.item(i) instanceof Element slider) {
+          sliders.put(slider.getTagName(), loadSlider(slider));
+        }
+      }
+    }
+
+    // doesn't exist on newer projects - backwards compatibility
+    Element objectRotation = child(root, "objectRotation");
+    if (objectRotation != null) {
+      sliders.put("objectXRotate", parseDouble(child(objectRotation, "x")));
+      sliders.put("objectYRotate", parseDouble(child(objectRotation, "y")));
+      sliders.put("objectZRotate", parseDouble(child(objectRotation, "z")));
+    }
+
+    Element checkBoxes = child(root, "checkBoxes");
+    if (checkBoxes != null) {
+      hasCheckBoxes = true;
+      NodeList nodes = checkBoxes.getChildNodes();
+      for (int i = 0; i < nodes.getLength(); i++) {
+        if (nodes.item(i) instanceof Element checkBox) {
+          effects.put(checkBox.getTagName(), loadEffect(checkBox));
+        }
+      }
+    }
+
+    flipX = parseBoolean(child(root, "flipX"), false);
+    flipY = parseBoolean(child(root, "flipY"), false);
+    hiddenEdges = parseBoolean(child(root, "hiddenEdges"), false);
+
+    Element mainMidiChannel = child(root, "mainMidiChannel");
+    if (mainMidiChannel != null) {
+      this.mainMidiChannel = Integer.parseInt(mainMidiChannel.getTextContent());
+    }
+    Element midiAttack = child(root, "midiAttack");
+    if (midiAttack != null) {
+      this.midiAttack = parseDouble(midiAttack);
+    }
+    Element midiDecay = child(root, "midiDecay");
+    if (midiDecay != null) {
+      this.midiDecay = parseDouble(midiDecay);
+    }
+    Element audioSample = child(root, "audioSample");
+    if (audioSample != null) {
+      this.audioSample = AudioSample.valueOf(audioSample.getTextContent());
+    }
+    Element channelMap = child(root, "channelMap");
+    if (channelMap != null) {
+      this.channelMap = ChannelMap.parse(channelMap.getTextContent());
+    }
+
+    Element translation = child(root, "translation");
+    if (translation != null) {
+      this.translation = new Vector2(parseDouble(child(translation, "x")), parseDouble(child(translation, "y")));
+      // For backwards compatibility we assume a default value
+      this.translationEllipse = parseBoolean(child(translation, "ellipse"), false);
+    }
+
+    Element depthFunction = child(root, "depthFunction");
+    if (depthFunction != null) {
+      this.depthFunction = new String(Base64.getDecoder().decode(depthFunction.getTextContent()), StandardCharsets.UTF_8);
+    }
+    perspectiveFixedRotate = loadFixedRotate(child(root, "perspectiveFixedRotate"));
+    objectFixedRotate = loadFixedRotate(child(root, "objectFixedRotate"));
+    Element smoothingFilter = child(root, "smoothingFilter");
+    if (smoothingFilter != null) {
+      this.smoothingFilter = SmoothEffect.Filter.valueOf(smoothingFilter.getTextContent());
+    }
+
+    Element filesElement = child(root, "files");
+    if (filesElement != null) {
+      NodeList fileElements = filesElement.getElementsByTagName("file");
+      for (int i = 0; i < fileElements.getLength(); i++) {
+        Element fileElement = (Element) fileElements.item(i);
+        String name = child(fileElement, "name").getTextContent();
+        byte[] data = Base64.getDecoder().decode(child(fileElement, "data").getTextContent());
+        files.add(new ProjectFile(name, data));
+      }
+    }
+    Element frameSource = child(root, "frameSource");
+    if (frameSource != null) {
+      this.frameSource = Integer.parseInt(frameSource.getTextContent());
+    }
+  }
+
+  // The range saved with the slider only limits the GUI slider. Effects are
+  // still animated over their default range, so only the value is needed.
+  private static double loadSlider(Element slider) {
+    // backwards compatibility
+    if (slider.getChildNodes().getLength() == 1) {
+      return Double.parseDouble(slider.getTextContent());
+    }
+    return parseDouble(child(slider, "value"));
+  }
+
+  private static EffectState loadEffect(Element checkBox) {
+    // backwards compatibility
+    if (checkBox.getElementsByTagName("selected").getLength() == 0) {
+      return new EffectState(Boolean.parseBoolean(checkBox.getTextContent()), AnimationType.STATIC);
+    }
+    AnimationType animation = AnimationType.STATIC;
+    Element animationElement = child(checkBox, "animation");
+    if (animationElement != null) {
+      AnimationType type = AnimationType.fromString(animationElement.getTextContent());
+      if (type != null) {
+        animation = type;
+      }
+    }
+    return new EffectState(parseBoolean(child(checkBox, "selected"), false), animation);
+  }
+
+  private static boolean[] loadFixedRotate(Element element) {
+    if (element == null) {
+      return new boolean[3];
+    }
+    return new boolean[] {
+      parseBoolean(child(element, "x"), false),
+      parseBoolean(child(element, "y"), false),
+      parseBoolean(child(element, "z"), false),
+    };
+  }
+
+  private static Element child(Element element, String tagName) {
+    return (Element) element.getElementsByTagName(tagName).item(0);
+  }
+
+  private static double parseDouble(Element element) {
+    return element == null ? Double.NaN : Double.parseDouble(element.getTextContent());
+  }
+
+  private static boolean parseBoolean(Element element, boolean defaultValue) {
+    return element == null ? defaultValue : Boolean.parseBoolean(element.getTextContent());
+  }
+
+  // null if the project doesn't store the slider
+  public Double slider(String label) {
+    return sliders.get(label);
+  }
+
+  // Null if the project doesn't store the effect. Old projects without any
+  // checkBoxes element have no effects selected.
+  public EffectState effect(String label) {
+    return effects.get(label);
+  }
+
+  public boolean hasCheckBoxes() {
+    return hasCheckBoxes;
+  }
+
+  public List<ProjectFile> files() {
+    return files;
+  }
+
+  public int frameSource() {
+    return frameSource;
+  }
+
+  public boolean flipX() {
+    return flipX;
+  }
+
+  public boolean flipY() {
+    return flipY;
+  }
+
+  public boolean hiddenEdges() {
+    return hiddenEdges;
+  }
+
+  public int mainMidiChannel() {
+    return mainMidiChannel;
+  }
+
+  // null if the project uses the default
+  public Double midiAttack() {
+    return midiAttack;
+  }
+
+  // null if the project uses the default
+  public Double midiDecay() {
+    return midiDecay;
+  }
+
+  // null if the project doesn't store one
+  public AudioSample audioSample() {
+    return audioSample;
+  }
+
+  // null if the project doesn't store one
+  public ChannelMap channelMap() {
+    return channelMap;
+  }
+
+  public Vector2 translation() {
+    return translation;
+  }
+
+  public boolean translationEllipse() {
+    return translationEllipse;
+  }
+
+  public String depthFunction() {
+    return depthFunction;
+  }
+
+  // whether the x, y and z perspective rotation sliders set a fixed angle
+  // rather than a rotation speed
+  public boolean[] perspectiveFixedRotate() {
+    return perspectiveFixedRotate;
+  }
+
+  // whether the x, y and z object rotation sliders set a fixed angle rather
+  // than a rotation speed
+  public boolean[] objectFixedRotate() {
+    return objectFixedRotate;
+  }
+
+  public SmoothEffect.Filter smoothingFilter() {
+    return smoothingFilter;
+  }
+
+  public record EffectState(boolean selected, AnimationType animation) {}
+
+  public record ProjectFile(String name, byte[] data) {}
+}
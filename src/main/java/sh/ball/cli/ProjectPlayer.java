@@ -0,0 +1,225 @@
+package sh.ball.cli;
+
+import sh.ball.audio.FrameSource;
+import sh.ball.audio.ShapeAudioPlayer;
+import sh.ball.audio.effect.*;
+import sh.ball.audio.midi.MidiNote;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import sh.ball.parser.ParserFactory;
+import sh.ball.parser.XmlUtil;
+import sh.ball.parser.lua.LuaExecutor;
+import sh.ball.parser.lua.LuaParser;
+import sh.ball.parser.obj.ObjSettingsFactory;
+import sh.ball.parser.txt.FontStyle;
+import sh.ball.shapes.Shape;
+import sh.ball.shapes.ShapeFrameSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Sets up a ShapeAudioPlayer to play a Project without the GUI. This does the
+// work of MainController, EffectsController, ObjController, ImageController
+// and LuaController when a project is opened: the selected file is parsed
+// into a frame source, and every effect is created with the defaults read
+// from the fxml and selected and animated as saved in the project.
+//
+// Frames are pulled by the audio thread rather than pushed by a
+// FrameProducer, so the frame settings set by the OBJ effects are applied on
+// the audio thread too.
+public class ProjectPlayer {
+
+  // same as ImageController
+  private static final double MAX_FREQUENCY = 12000;
+  private static final String DEFAULT_FONT_FAMILY = "SansSerif";
+  private static final List<String> SLIDER_FXML = List.of("/fxml/effects.fxml", "/fxml/obj.fxml", "/fxml/lua.fxml");
+
+  private final ShapeAudioPlayer audioPlayer;
+  private final int sampleRate;
+  private final LuaExecutor executor = new LuaExecutor(LuaExecutor.STANDARD_GLOBALS);
+
+  private FrameSource<List<Shape>> frames;
+  private LuaParser luaParser;
+
+  public ProjectPlayer(ShapeAudioPlayer audioPlayer, int sampleRate) {
+    this.audioPlayer = audioPlayer;
+    this.sampleRate = sampleRate;
+  }
+
+  public void load(Project project) throws Exception {
+    loadFrameSource(project);
+
+    audioPlayer.flipXChannel(project.flipX());
+    audioPlayer.flipYChannel(project.flipY());
+    audioPlayer.setMainMidiChannel(project.mainMidiChannel());
+    if (project.midiAttack() != null) {
+      audioPlayer.setAttack(project.midiAttack());
+    }
+    if (project.midiDecay() != null) {
+      audioPlayer.setDecay(project.midiDecay());
+    }
+    frames.setFrameSettings(ObjSettingsFactory.hideEdges(project.hiddenEdges()));
+
+    Double frequencySlider = project.slider("frequency");
+    double frequency = frequencySlider == null ? MidiNote.MIDDLE_C : Math.pow(MAX_FREQUENCY, frequencySlider);
+    audioPlayer.setFrequency(frequency);
+
+    executor.setScript(project.depthFunction());
+    Map<String, Slider> sliders = readSliders();
+    for (EffectDefinition definition : effects(project, frequency)) {
+      Slider slider = sliders.get(definition.label());
+      if (slider == null) {
+        throw new IOException("No slider in the fxml for " + definition.label());
+      }
+      EffectAnimator animator = new EffectAnimator(sampleRate, definition.effect(), slider.min(), slider.max());
+
+      Double value = project.slider(definition.label());
+      animator.setValue(value == null ? slider.value() : value);
+
+      boolean selected = slider.alwaysEnabled();
+      Project.EffectState state = project.effect(definition.label());
+      if (state != null) {
+        selected |= state.selected();
+        animator.setAnimation(state.animation());
+      }
+      audioPlayer.updateEffect(definition.type(), selected, animator);
+    }
+  }
+
+  private void loadFrameSource(Project project) throws Exception {
+    List<Project.ProjectFile> files = project.files();
+    if (files.isEmpty()) {
+      throw new IOException("Project has no files to render");
+    }
+    int index = Math.max(0, Math.min(project.frameSource(), files.size() - 1));
+    Project.ProjectFile file = files.get(index);
+
+    if (LuaParser.isLuaFile(file.name())) {
+      luaParser = new LuaParser();
+      luaParser.setScriptFromInputStream(new ByteArrayInputStream(file.data()));
+      audioPlayer.setSampleSource(luaParser.parse());
+      // nothing is drawn from the frame while a sample source is playing
+      frames = new ShapeFrameSource(List.of());
+    } else {
+      frames = ParserFactory.getParser(file.name(), file.data(), DEFAULT_FONT_FAMILY, FontStyle.PLAIN).parse();
+    }
+    audioPlayer.setFrameSource(frames);
+  }
+
+  // the effects of every sub-controller, in the order they are set up by the
+  // GUI
+  private List<EffectDefinition> effects(Project project, double frequency) {
+    WobbleEffect wobbleEffect = new WobbleEffect(sampleRate);
+    // the GUI measures the frequency with the FrequencyAnalyser, but offline
+    // the wobble follows the frequency being drawn
+    wobbleEffect.updateFrequency(frequency, frequency);
+    wobbleEffect.update();
+
+    PerspectiveEffect perspectiveEffect = new PerspectiveEffect(executor);
+    TranslateEffect translateEffect = new TranslateEffect(sampleRate, 1, project.translation());
+    translateEffect.setEllipse(project.translationEllipse());
+    RotateEffect rotateEffect = new RotateEffect(sampleRate);
+    SmoothEffect smoothEffect = new SmoothEffect(1);
+    smoothEffect.setFilter(project.smoothingFilter());
+
+    boolean[] perspectiveFixed = project.perspectiveFixedRotate();
+    boolean[] objectFixed = project.objectFixedRotate();
+
+    List<EffectDefinition> effects = new ArrayList<>(List.of(
+      // EffectsController
+      new EffectDefinition("vectorCancelling", EffectType.VECTOR_CANCELLING, new VectorCancellingEffect()),
+      new EffectDefinition("bitCrush", EffectType.BIT_CRUSH, new BitCrushEffect()),
+      new EffectDefinition("verticalDistort", EffectType.VERTICAL_DISTORT, new VerticalDistortEffect(0.2)),
+      new EffectDefinition("horizontalDistort", EffectType.HORIZONTAL_DISTORT, new HorizontalDistortEffect(0.2)),
+      new EffectDefinition("wobble", EffectType.WOBBLE, wobbleEffect),
+      new EffectDefinition("smoothing", EffectType.SMOOTH, smoothEffect),
+      new EffectDefinition("traceMin", EffectType.TRACE_MIN, consumer(audioPlayer::setTraceMin)),
+      new EffectDefinition("traceMax", EffectType.TRACE_MAX, consumer(audioPlayer::setTraceMax)),
+      new EffectDefinition("rotateSpeed3d", EffectType.ROTATE_SPEED_3D, consumer(perspectiveEffect::setRotateSpeed)),
+      new EffectDefinition("zPos", EffectType.Z_POS_3D, consumer(perspectiveEffect::setZPos)),
+      new EffectDefinition("imageRotateX", EffectType.ROTATE_X,
+        consumer(perspectiveFixed[0] ? perspectiveEffect::setActualRotationX : perspectiveEffect::setRotationX)),
+      new EffectDefinition("imageRotateY", EffectType.ROTATE_Y,
+        consumer(perspectiveFixed[1] ? perspectiveEffect::setActualRotationY : perspectiveEffect::setRotationY)),
+      new EffectDefinition("imageRotateZ", EffectType.ROTATE_Z,
+        consumer(perspectiveFixed[2] ? perspectiveEffect::setActualRotationZ : perspectiveEffect::setRotationZ)),
+      new EffectDefinition("depthScale", EffectType.DEPTH_3D, perspectiveEffect),
+      new EffectDefinition("translationScale", EffectType.TRANSLATE, translateEffect),
+      new EffectDefinition("translationSpeed", EffectType.TRANSLATE_SPEED, consumer(translateEffect::setSpeed)),
+      new EffectDefinition("rotateSpeed", EffectType.ROTATE, rotateEffect),
+      new EffectDefinition("volume", EffectType.SCALE, consumer(value -> audioPlayer.setVolume(value / 3.0))),
+      new EffectDefinition("visibility", EffectType.VISIBILITY, consumer(audioPlayer::setBackingMidiVolume)),
+
+      // ObjController
+      new EffectDefinition("focalLength", EffectType.FOCAL_LENGTH,
+        consumer(value -> frames.setFrameSettings(ObjSettingsFactory.focalLength(value)))),
+      new EffectDefinition("objectXRotate", EffectType.OBJ_ROTATE_X,
+        consumer(value -> frames.setFrameSettings(objectFixed[0] ? ObjSettingsFactory.actualRotationX(value) : ObjSettingsFactory.baseRotationX(value)))),
+      new EffectDefinition("objectYRotate", EffectType.OBJ_ROTATE_Y,
+        consumer(value -> frames.setFrameSettings(objectFixed[1] ? ObjSettingsFactory.actualRotationY(value) : ObjSettingsFactory.baseRotationY(value)))),
+      new EffectDefinition("objectZRotate", EffectType.OBJ_ROTATE_Z,
+        consumer(value -> frames.setFrameSettings(objectFixed[2] ? ObjSettingsFactory.actualRotationZ(value) : ObjSettingsFactory.baseRotationZ(value)))),
+      new EffectDefinition("objectRotateSpeed", EffectType.OBJ_ROTATE_SPEED, consumer(this::setObjectRotateSpeed))
+    ));
+
+    // LuaController
+    if (luaParser != null) {
+      List<EffectType> luaTypes = List.of(EffectType.LUA_A, EffectType.LUA_B, EffectType.LUA_C, EffectType.LUA_D, EffectType.LUA_E);
+      for (EffectType type : luaTypes) {
+        String id = type.name().substring(type.name().length() - 1).toLowerCase();
+        String variable = "slider_" + id;
+        effects.add(new EffectDefinition("lua" + id.toUpperCase(), type, consumer(value -> luaParser.setVariable(variable, value))));
+      }
+    }
+
+    return effects;
+  }
+
+  // same mapping from the slider to the rotation speed as ObjController
+  private void setObjectRotateSpeed(double rotateSpeed) {
+    double actualSpeed = (Math.exp(3 * Math.min(10, Math.abs(rotateSpeed))) - 1) / 50;
+    frames.setFrameSettings(ObjSettingsFactory.rotateSpeed(rotateSpeed > 0 ? actualSpeed : -actualSpeed));
+  }
+
+  private static ConsumerEffect consumer(Consumer<Double> consumer) {
+    return new ConsumerEffect(consumer);
+  }
+
+  // reads the range, default and alwaysEnabled of every EffectComponentGroup
+  // from the same fxml the GUI loads, so the CLI can't drift from the sliders
+  private static Map<String, Slider> readSliders() throws Exception {
+    Map<String, Slider> sliders = new HashMap<>();
+    for (String fxml : SLIDER_FXML) {
+      try (InputStream input = ProjectPlayer.class.getResourceAsStream(fxml)) {
+        if (input == null) {
+          throw new IOException("Missing " + fxml);
+        }
+        Document document = XmlUtil.getXMLDocument(input);
+        for (Node node : XmlUtil.asList(document.getElementsByTagName("EffectComponentGroup"))) {
+          double min = attribute(node, "min", 0);
+          double max = attribute(node, "max", 0);
+          // a Slider without a value starts at 0, clamped to its range
+          double value = Math.max(min, Math.min(max, attribute(node, "value", 0)));
+          boolean alwaysEnabled = Boolean.parseBoolean(XmlUtil.getNodeValue(node, "alwaysEnabled"));
+          sliders.put(XmlUtil.getNodeValue(node, "label"), new Slider(min, max, value, alwaysEnabled));
+        }
+      }
+    }
+    return sliders;
+  }
+
+  private static double attribute(Node node, String name, double defaultValue) {
+    String value = XmlUtil.getNodeValue(node, name);
+    return value == null ? defaultValue : Double.parseDouble(value);
+  }
+
+  private record Slider(double min, double max, double value, boolean alwaysEnabled) {}
+
+  private record EffectDefinition(String label, EffectType type, SettableEffect effect) {}
+}
@@ -12,6 +12,7 @@ import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseEvent;
 import javafx.stage.Stage;
+import sh.ball.audio.AudioPlayerMetrics;
 import sh.ball.audio.ShapeAudioPlayer;
 import sh.ball.audio.engine.AudioDevice;
 import sh.ball.audio.engine.ConglomerateAudioEngine;
@@ -40,6 +41,11 @@ public class Gui extends Application {
   public static final MidiCommunicator midiCommunicator = new MidiCommunicator();
   public static String LOG_DIR = "./logs/";
   public static final Logger logger = Logger.getLogger(Gui.class.getName());
+  // When this system property is true, no audio player is created and no MIDI
+  // devices are opened. Set by entry points that run without JavaFX or a
+  // sound card, such as the offline renderer.
+  public static final String HEADLESS_PROPERTY = "sh.ball.headless";
+  public static final boolean headless = Boolean.getBoolean(HEADLESS_PROPERTY);
 
   public static ShapeAudioPlayer audioPlayer;
   public static AudioDevice defaultDevice;
@@ -49,8 +55,11 @@ public class Gui extends Application {
 
   static {
     try {
-      audioPlayer = new ShapeAudioPlayer(ConglomerateAudioEngine::new, midiCommunicator);
-      defaultDevice = audioPlayer.getDefaultDevice();
+      if (!headless) {
+        audioPlayer = new ShapeAudioPlayer(ConglomerateAudioEngine::new, midiCommunicator);
+        defaultDevice = audioPlayer.getDefaultDevice();
+        AudioPlayerMetrics.register(audioPlayer);
+      }
 
       if (PlatformUtil.isWindows()) {
         LOG_DIR = System.getenv("AppData");
@@ -76,7 +85,9 @@ public class Gui extends Application {
     } catch (Exception e) {
       logger.log(Level.SEVERE, e.getMessage(), e);
     }
-    new Thread(midiCommunicator).start();
+    if (!headless) {
+      new Thread(midiCommunicator).start();
+    }
   }
 
   private Scene scene;
@@ -4,6 +4,7 @@ import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
 import javafx.application.Platform;
 import javafx.beans.property.BooleanProperty;
+import javafx.collections.FXCollections;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
 import javafx.scene.control.*;
@@ -44,6 +45,7 @@ public class EffectsController implements Initializable, SubController {
   private final PerspectiveEffect perspectiveEffect;
   private final TranslateEffect translateEffect;
   private final RotateEffect rotateEffect;
+  private final SmoothEffect smoothEffect;
 
   private double scrollDelta = 0.05;
   private String script = DEFAULT_SCRIPT;
@@ -65,6 +67,8 @@ public class EffectsController implements Initializable, SubController {
   @FXML
   private EffectComponentGroup smoothing;
   @FXML
+  private ComboBox<SmoothEffect.Filter> smoothingFilterComboBox;
+  @FXML
   private EffectComponentGroup traceMax;
   @FXML
   private EffectComponentGroup traceMin;
@@ -118,6 +122,7 @@ public class EffectsController implements Initializable, SubController {
     this.perspectiveEffect = new PerspectiveEffect(executor);
     this.translateEffect = new TranslateEffect(DEFAULT_SAMPLE_RATE, 1, new Vector2());
     this.rotateEffect = new RotateEffect(DEFAULT_SAMPLE_RATE);
+    this.smoothEffect = new SmoothEffect(1);
   }
 
   private <K, V> Map<K, V> mergeEffectMaps(Function<EffectComponentGroup, Map<K, V>> map) {
@@ -188,7 +193,7 @@ public class EffectsController implements Initializable, SubController {
     traceMax.setAnimator(new EffectAnimator(DEFAULT_SAMPLE_RATE, new ConsumerEffect(audioPlayer::setTraceMax)));
     vectorCancelling.setAnimator(new EffectAnimator(DEFAULT_SAMPLE_RATE, new VectorCancellingEffect()));
     bitCrush.setAnimator(new EffectAnimator(DEFAULT_SAMPLE_RATE, new BitCrushEffect()));
-    smoothing.setAnimator(new EffectAnimator(DEFAULT_SAMPLE_RATE, new SmoothEffect(1)));
+    smoothing.setAnimator(new EffectAnimator(DEFAULT_SAMPLE_RATE, smoothEffect));
     verticalDistort.setAnimator(new EffectAnimator(DEFAULT_SAMPLE_RATE, new VerticalDistortEffect(0.2)));
     horizontalDistort.setAnimator(new EffectAnimator(DEFAULT_SAMPLE_RATE, new HorizontalDistortEffect(0.2)));
     translationScale.setAnimator(new EffectAnimator(DEFAULT_SAMPLE_RATE, translateEffect));
@@ -225,6 +230,14 @@ public class EffectsController implements Initializable, SubController {
     translationYTextField.textProperty().addListener(e -> updateTranslation());
     translationYTextField.setOnScroll((e) -> changeTranslation(e.getDeltaY() > 0, translationYTextField));
 
+    smoothingFilterComboBox.setItems(FXCollections.observableList(List.of(SmoothEffect.Filter.values())));
+    smoothingFilterComboBox.setValue(SmoothEffect.Filter.MOVING_AVERAGE);
+    smoothingFilterComboBox.valueProperty().addListener((options, oldFilter, filter) -> {
+      if (filter != null) {
+        smoothEffect.setFilter(filter);
+      }
+    });
+
     translateEllipseCheckBox.selectedProperty().addListener((e, old, ellipse) -> translateEffect.setEllipse(ellipse));
 
     resetRotationButton.setOnAction(e -> {
@@ -369,7 +382,10 @@ public class EffectsController implements Initializable, SubController {
     perspectiveFixedRotate.appendChild(fixedRotateY);
     perspectiveFixedRotate.appendChild(fixedRotateZ);
 
-    return List.of(translation, depthFunction, perspectiveFixedRotate);
+    Element smoothingFilter = document.createElement("smoothingFilter");
+    smoothingFilter.appendChild(document.createTextNode(smoothingFilterComboBox.getValue().name()));
+
+    return List.of(translation, depthFunction, perspectiveFixedRotate, smoothingFilter);
   }
 
   @Override
@@ -413,6 +429,14 @@ public class EffectsController implements Initializable, SubController {
     fixedAngleX.setFill(setFixedAngleX ? Color.RED : Color.WHITE);
     fixedAngleY.setFill(setFixedAngleY ? Color.RED : Color.WHITE);
     fixedAngleZ.setFill(setFixedAngleZ ? Color.RED : Color.WHITE);
+
+    // backwards compatibility
+    Element smoothingFilter = (Element) root.getElementsByTagName("smoothingFilter").item(0);
+    if (smoothingFilter == null) {
+      smoothingFilterComboBox.setValue(SmoothEffect.Filter.MOVING_AVERAGE);
+    } else {
+      smoothingFilterComboBox.setValue(SmoothEffect.Filter.valueOf(smoothingFilter.getTextContent()));
+    }
   }
 
   @Override
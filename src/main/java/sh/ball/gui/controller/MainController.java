@@ -23,6 +23,9 @@ import java.awt.*;
 import java.io.*;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.text.*;
 import java.util.*;
 import java.util.List;
@@ -37,9 +40,6 @@ import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
 import javax.sound.midi.ShortMessage;
-import javax.sound.sampled.AudioFileFormat;
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
 import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -89,6 +89,8 @@ public class MainController implements Initializable, FrequencyListener, MidiLis
 
   // audio
   private int sampleRate;
+  // true while the device list is replaced, so that it doesn't switch device
+  private boolean updatingDevices = false;
   private FrequencyAnalyser<List<Shape>> analyser;
   private final double[] micSamples = new double[64];
   private int micSampleIndex = 0;
@@ -107,6 +109,13 @@ public class MainController implements Initializable, FrequencyListener, MidiLis
   // frames
   private static final InputStream DEFAULT_OBJ = MainController.class.getResourceAsStream("/models/cube.obj");
   private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  // Switching device can wait for the audio thread to stop or swap, so it is
+  // done off the FX thread, one switch at a time in the order they're made.
+  private final ExecutorService deviceExecutor = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "audio device switch");
+    thread.setDaemon(true);
+    return thread;
+  });
   private final Set<String> unsavedFileNames = new LinkedHashSet<>();
   private List<byte[]> openFiles = new ArrayList<>();
   private List<String> frameSourcePaths = new ArrayList<>();
@@ -193,6 +202,10 @@ public class MainController implements Initializable, FrequencyListener, MidiLis
   @FXML
   private Slider brightnessSlider;
   @FXML
+  private TextField channelMapTextField;
+  @FXML
+  private CheckBox adaptiveLatencyCheckBox;
+  @FXML
   private CustomMenuItem recordLengthMenuItem;
   @FXML
   private CheckBox recordCheckBox;
@@ -291,7 +304,11 @@ public class MainController implements Initializable, FrequencyListener, MidiLis
       recordingTimeline.stop();
       generalController.setRecordResult("");
       recordMenuItem.setText("Start Recording");
-      audioPlayer.stopRecord();
+      try {
+        Files.deleteIfExists(audioPlayer.stopRecord());
+      } catch (IOException e) {
+        logger.log(Level.SEVERE, e.getMessage(), e);
+      }
     } else {
       saveRecording();
     }
@@ -303,7 +320,7 @@ public class MainController implements Initializable, FrequencyListener, MidiLis
   private void saveRecording() {
     try {
       recordMenuItem.setText("Record");
-      AudioInputStream input = audioPlayer.stopRecord();
+      Path recording = audioPlayer.stopRecord();
       File file = wavFileChooser.showSaveDialog(stage);
       if (file != null) {
         updateLastVisitedDirectory(new File(file.getParent()));
@@ -313,8 +330,7 @@ public class MainController implements Initializable, FrequencyListener, MidiLis
       if (file == null) {
         file = new File("out-" + formatter.format(date) + ".wav");
       }
-      AudioSystem.write(input, AudioFileFormat.Type.WAVE, file);
-      input.close();
+      Files.move(recording, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
       generalController.setRecordResult("Saved to " + file.getAbsolutePath());
     } catch (IOException e) {
       generalController.setRecordResult("Error saving file");
@@ -508,19 +524,32 @@ public class MainController implements Initializable, FrequencyListener, MidiLis
       recordLengthMenuItem.setDisable(!newVal);
     });
 
-    new Thread(() -> {
+    // the engine only picks the latency up when it starts playing, so the
+    // device is played again
+    adaptiveLatencyCheckBox.setSelected(audioPlayer.isAdaptiveLatency());
+    adaptiveLatencyCheckBox.selectedProperty().addListener((e, oldVal, newVal) -> {
+      audioPlayer.setAdaptiveLatency(newVal);
+      AudioDevice device = audioPlayer.getDevice();
+      if (device != null) {
+        deviceExecutor.execute(() -> switchAudioDevice(device));
+      }
+    });
+
+    // the devices are known straight away from last time, and updated once
+    // they've been probed again in the background
+    audioPlayer.onDevicesChanged(() -> {
       List<AudioDevice> devices = audioPlayer.devices();
-      Platform.runLater(() -> {
-        deviceListView.setItems(FXCollections.observableList(devices));
-        deviceListView.getSelectionModel().select(defaultDevice);
-        deviceListView.getSelectionModel().selectedItemProperty().addListener((options, oldDevice, newDevice) -> {
-          if (newDevice != null) {
-            switchAudioDevice(newDevice);
-          }
-        });
-      });
-      switchAudioDevice(defaultDevice, false);
-    }).start();
+      Platform.runLater(() -> updateDevices(devices));
+    });
+    List<AudioDevice> devices = audioPlayer.devices();
+    deviceListView.setItems(FXCollections.observableList(devices));
+    deviceListView.getSelectionModel().select(defaultDevice);
+    deviceListView.getSelectionModel().selectedItemProperty().addListener((options, oldDevice, newDevice) -> {
+      if (newDevice != null && !updatingDevices) {
+        deviceExecutor.execute(() -> switchAudioDevice(newDevice));
+      }
+    });
+    deviceExecutor.execute(() -> switchAudioDevice(defaultDevice, false));
 
     audioSampleComboBox.setItems(FXCollections.observableList(List.of(AudioSample.UINT8, AudioSample.INT8, AudioSample.INT16, AudioSample.INT24, AudioSample.INT32)));
     audioSampleComboBox.setValue(AudioSample.INT16);
@@ -531,6 +560,27 @@ public class MainController implements Initializable, FrequencyListener, MidiLis
     });
 
     brightnessSlider.valueProperty().addListener((e, old, brightness) -> audioPlayer.setBrightness(brightness.doubleValue()));
+
+    channelMapTextField.setText(audioPlayer.getChannelMap().toString());
+    channelMapTextField.setOnAction(e -> updateChannelMap());
+    channelMapTextField.focusedProperty().addListener((e, old, focused) -> {
+      if (!focused) {
+        updateChannelMap();
+      }
+    });
+  }
+
+  // applies the channel map typed in, or puts back the current one if it
+  // can't be parsed
+  private void updateChannelMap() {
+    try {
+      ChannelMap channelMap = ChannelMap.parse(channelMapTextField.getText());
+      audioPlayer.setChannelMap(channelMap);
+      channelMapTextField.setText(channelMap.toString());
+    } catch (IllegalArgumentException e) {
+      logger.log(Level.WARNING, e.getMessage(), e);
+      channelMapTextField.setText(audioPlayer.getChannelMap().toString());
+    }
   }
 
   public void setLuaVariable(String variableName, Object value) {
@@ -546,9 +596,10 @@ public class MainController implements Initializable, FrequencyListener, MidiLis
   }
 
   private void sendAudioDataToWebSocket(ByteWebSocketServer server) {
+    BroadcastBuffer.Tap tap = audioPlayer.tap();
     while (true) {
       try {
-        audioPlayer.read(buffer);
+        tap.read(buffer);
         server.send(buffer);
       } catch (InterruptedException e) {
         logger.log(Level.WARNING, e.getMessage(), e);
@@ -562,6 +613,8 @@ public class MainController implements Initializable, FrequencyListener, MidiLis
       ObjectSet set = objectServer.getObjectSet();
       disableSources();
       audioPlayer.removeSampleSource();
+      // external input is live so stale frames are skipped rather than queued
+      audioPlayer.setLatestFrameWins(true);
       set.enable();
 
       producer = new FrameProducer<>(audioPlayer, set);
@@ -580,6 +633,7 @@ public class MainController implements Initializable, FrequencyListener, MidiLis
     Platform.runLater(() -> {
       objectServer.getObjectSet().disable();
       objectServerRendering = false;
+      audioPlayer.setLatestFrameWins(false);
       changeFrameSource(currentFrameSource);
     });
   }
@@ -594,34 +648,68 @@ public class MainController implements Initializable, FrequencyListener, MidiLis
     generalController.updateLastVisitedDirectory(dir);
   }
 
+  // Replaces the listed devices without switching away from the selected
+  // one, unless the device being played has been disconnected, in which
+  // case the default device is played instead.
+  private void updateDevices(List<AudioDevice> devices) {
+    AudioDevice selected = deviceListView.getSelectionModel().getSelectedItem();
+    AudioDevice playing = audioPlayer.getDevice();
+    boolean disconnected = playing != null && deviceListView.getItems().contains(playing) && !devices.contains(playing);
+    updatingDevices = true;
+    deviceListView.setItems(FXCollections.observableList(devices));
+    if (disconnected) {
+      deviceListView.getSelectionModel().select(defaultDevice);
+    } else if (selected != null) {
+      deviceListView.getSelectionModel().select(selected);
+    }
+    updatingDevices = false;
+    if (disconnected) {
+      logger.log(Level.WARNING, "Audio device " + playing + " was disconnected, so the default device is played instead");
+      deviceExecutor.execute(() -> switchAudioDevice(defaultDevice));
+    }
+  }
+
   private void switchAudioDevice(AudioDevice device) {
     switchAudioDevice(device, true);
   }
 
-  // restarts audioPlayer and FrequencyAnalyser to support new device
+  // restarts audioPlayer and FrequencyAnalyser to support new device. The
+  // audioPlayer keeps running if its engine can swap straight to the device,
+  // and moves itself to the device on its audio thread, in which case only
+  // what depends on a changed sample rate is restarted.
   private void switchAudioDevice(AudioDevice device, boolean reset) {
-    if (reset) {
+    boolean swapped = reset && audioPlayer.swapDevice(device);
+    if (reset && !swapped) {
       try {
         audioPlayer.reset();
       } catch (Exception e) {
         logger.log(Level.SEVERE, e.getMessage(), e);
       }
     }
-    audioPlayer.setDevice(device);
+    if (!swapped) {
+      audioPlayer.setDevice(device);
+    }
     audioPlayer.setBrightness(brightnessSlider.getValue());
-    effectsController.setAudioDevice(device);
+    boolean restart = !swapped || analyser == null || sampleRate != device.sampleRate();
+    if (restart) {
+      effectsController.setAudioDevice(device);
+    }
     sampleRate = device.sampleRate();
     // brightness is configurable for many-output audio interfaces
     if (device.channels() > 2) {
       Platform.runLater(() -> brightnessSlider.setDisable(false));
     }
-    if (analyser != null) {
-      analyser.stop();
+    if (restart) {
+      if (analyser != null) {
+        analyser.stop();
+      }
+      analyser = new FrequencyAnalyser<>(audioPlayer, sampleRate);
+      startFrequencyAnalyser(analyser);
+      effectsController.setFrequencyAnalyser(analyser);
+    }
+    if (!swapped) {
+      startAudioPlayerThread();
     }
-    analyser = new FrequencyAnalyser<>(audioPlayer, 2, sampleRate);
-    startFrequencyAnalyser(analyser);
-    effectsController.setFrequencyAnalyser(analyser);
-    startAudioPlayerThread();
   }
 
   // creates a new thread for the audioPlayer and starts it
@@ -1182,6 +1270,10 @@ public class MainController implements Initializable, FrequencyListener, MidiLis
       audioSample.appendChild(document.createTextNode(audioSampleComboBox.getValue().name()));
       root.appendChild(audioSample);
 
+      Element channelMap = document.createElement("channelMap");
+      channelMap.appendChild(document.createTextNode(audioPlayer.getChannelMap().toString()));
+      root.appendChild(channelMap);
+
       Element filesElement = document.createElement("files");
       for (int i = 0; i < openFiles.size(); i++) {
         Element fileElement = document.createElement("file");
@@ -1363,6 +1455,12 @@ public class MainController implements Initializable, FrequencyListener, MidiLis
         audioSampleComboBox.setValue(AudioSample.valueOf(audioSample.getTextContent()));
       }
 
+      Element channelMap = (Element) root.getElementsByTagName("channelMap").item(0);
+      if (channelMap != null) {
+        channelMapTextField.setText(channelMap.getTextContent());
+        updateChannelMap();
+      }
+
       Element filesElement = (Element) root.getElementsByTagName("files").item(0);
       List<byte[]> files = new ArrayList<>();
       List<String> fileNames = new ArrayList<>();
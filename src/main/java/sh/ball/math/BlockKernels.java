@@ -0,0 +1,92 @@
+package sh.ball.math;
+
+import java.util.logging.Level;
+
+import static sh.ball.gui.Gui.logger;
+
+// Arithmetic applied to a whole block of samples at once, in place, to the
+// first n values of each array. Used by the audio thread so that effects on
+// a block of samples are one tight loop rather than a call per sample.
+//
+// There are two implementations that give the same results: a plain Java
+// loop, and one using the incubating Vector API which works on as many
+// samples at once as the CPU's SIMD registers hold. The Vector API is only
+// used if the app was built with the simd Maven profile and the JVM was
+// started with --add-modules jdk.incubator.vector, and can be turned off by
+// setting the sh.ball.simd system property to false or by calling setSimd at
+// any time.
+public abstract class BlockKernels {
+
+  public static final String SIMD_PROPERTY = "sh.ball.simd";
+
+  private static final String VECTOR_MODULE = "jdk.incubator.vector";
+  private static final String VECTOR_KERNELS = "sh.ball.math.VectorBlockKernels";
+
+  private static final BlockKernels SCALAR = new ScalarBlockKernels();
+  // null if the Vector API isn't available
+  private static final BlockKernels VECTOR = loadVectorKernels();
+
+  private static volatile BlockKernels current =
+    VECTOR != null && !"false".equalsIgnoreCase(System.getProperty(SIMD_PROPERTY)) ? VECTOR : SCALAR;
+
+  // The kernels to use for the next block. Read once per block, so a change
+  // takes effect from the next block.
+  public static BlockKernels current() {
+    return current;
+  }
+
+  public static boolean isSimdAvailable() {
+    return VECTOR != null;
+  }
+
+  public static boolean isSimd() {
+    return current == VECTOR;
+  }
+
+  // uses the scalar kernels if the Vector API isn't available
+  public static void setSimd(boolean simd) {
+    current = simd && VECTOR != null ? VECTOR : SCALAR;
+  }
+
+  // The Vector API classes are only loaded if the module is there, by
+  // reflection so that nothing links against them otherwise.
+  private static BlockKernels loadVectorKernels() {
+    if (ModuleLayer.boot().findModule(VECTOR_MODULE).isEmpty()) {
+      return null;
+    }
+    try {
+      BlockKernels kernels = (BlockKernels) Class.forName(VECTOR_KERNELS).getDeclaredConstructor().newInstance();
+      return kernels.lanes() > 1 ? kernels : null;
+    } catch (ClassNotFoundException e) {
+      // built without the simd profile
+      return null;
+    } catch (ReflectiveOperationException | LinkageError e) {
+      logger.log(Level.WARNING, e.getMessage(), e);
+      return null;
+    }
+  }
+
+  // number of samples worked on at once
+  public abstract int lanes();
+
+  // values[i] *= factor
+  public abstract void scale(double[] values, int n, double factor);
+
+  // clamps each value to [min, max]
+  public abstract void clamp(double[] values, int n, double min, double max);
+
+  // values[i] = -values[i]
+  public abstract void negate(double[] values, int n);
+
+  // adds value to values at even indices and subtracts it at odd indices
+  public abstract void alternate(double[] values, int n, double value);
+
+  // Rounds each value to the nearest multiple of 1 / factor, the same as
+  // sh.ball.math.Math.round with a factor of 10^places. Values must be at
+  // most 2^51 once multiplied by the factor.
+  public abstract void round(double[] values, int n, long factor);
+
+  // x' = m00 * x + m01 * y + m02
+  // y' = m10 * x + m11 * y + m12
+  public abstract void affine(double[] x, double[] y, int n, double m00, double m01, double m02, double m10, double m11, double m12);
+}
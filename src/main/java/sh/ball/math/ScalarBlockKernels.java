@@ -0,0 +1,90 @@
+package sh.ball.math;
+
+// BlockKernels as plain Java loops, used when the Vector API isn't available.
+// The vector kernels fall back on these for the samples left over at the end
+// of a block, so both must do exactly the same arithmetic.
+class ScalarBlockKernels extends BlockKernels {
+
+  @Override
+  public int lanes() {
+    return 1;
+  }
+
+  @Override
+  public void scale(double[] values, int n, double factor) {
+    scale(values, 0, n, factor);
+  }
+
+  static void scale(double[] values, int from, int to, double factor) {
+    for (int i = from; i < to; i++) {
+      values[i] *= factor;
+    }
+  }
+
+  @Override
+  public void clamp(double[] values, int n, double min, double max) {
+    clamp(values, 0, n, min, max);
+  }
+
+  static void clamp(double[] values, int from, int to, double min, double max) {
+    for (int i = from; i < to; i++) {
+      double value = values[i];
+      if (value < min) {
+        values[i] = min;
+      } else if (value > max) {
+        values[i] = max;
+      }
+    }
+  }
+
+  @Override
+  public void negate(double[] values, int n) {
+    negate(values, 0, n);
+  }
+
+  static void negate(double[] values, int from, int to) {
+    for (int i = from; i < to; i++) {
+      values[i] = -values[i];
+    }
+  }
+
+  @Override
+  public void alternate(double[] values, int n, double value) {
+    alternate(values, 0, n, value);
+  }
+
+  static void alternate(double[] values, int from, int to, double value) {
+    for (int i = from; i < to; i++) {
+      if (i % 2 == 0) {
+        values[i] += value;
+      } else {
+        values[i] -= value;
+      }
+    }
+  }
+
+  @Override
+  public void round(double[] values, int n, long factor) {
+    round(values, 0, n, factor);
+  }
+
+  static void round(double[] values, int from, int to, long factor) {
+    for (int i = from; i < to; i++) {
+      values[i] = (double) java.lang.Math.round(values[i] * factor) / factor;
+    }
+  }
+
+  @Override
+  public void affine(double[] x, double[] y, int n, double m00, double m01, double m02, double m10, double m11, double m12) {
+    affine(x, y, 0, n, m00, m01, m02, m10, m11, m12);
+  }
+
+  static void affine(double[] x, double[] y, int from, int to, double m00, double m01, double m02, double m10, double m11, double m12) {
+    for (int i = from; i < to; i++) {
+      double vx = x[i];
+      double vy = y[i];
+      x[i] = m00 * vx + m01 * vy + m02;
+      y[i] = m10 * vx + m11 * vy + m12;
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package sh.ball.math;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// BlockKernels using the Vector API, working on as many samples at once as
+// the widest SIMD registers the CPU has. Samples left over at the end of a
+// block are done by the scalar kernels. Only ever loaded by reflection from
+// BlockKernels once it knows the module is there.
+//
+// Every kernel does the same IEEE operations in the same order as the scalar
+// one, with no fused multiply-adds, so the output is exactly the same.
+class VectorBlockKernels extends BlockKernels {
+
+  private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+  // true in the even lanes. There are always an even number of lanes, so a
+  // vector starting at any multiple of the length starts on an even index.
+  private static final VectorMask<Double> EVEN_LANES = evenLanes();
+  // Adding then subtracting 1.5 * 2^52 rounds any value below 2^51 to the
+  // nearest integer, ties to even, since the sum has no fractional bits.
+  private static final double ROUNDING_MAGIC = 0x1.8p52;
+  private static final double MAX_ROUNDED = 0x1p51;
+
+  private static VectorMask<Double> evenLanes() {
+    boolean[] even = new boolean[SPECIES.length()];
+    for (int i = 0; i < even.length; i += 2) {
+      even[i] = true;
+    }
+    return VectorMask.fromArray(SPECIES, even, 0);
+  }
+
+  @Override
+  public int lanes() {
+    return SPECIES.length();
+  }
+
+  @Override
+  public void scale(double[] values, int n, double factor) {
+    int bound = SPECIES.loopBound(n);
+    for (int i = 0; i < bound; i += SPECIES.length()) {
+      DoubleVector.fromArray(SPECIES, values, i).mul(factor).intoArray(values, i);
+    }
+    ScalarBlockKernels.scale(values, bound, n, factor);
+  }
+
+  @Override
+  public void clamp(double[] values, int n, double min, double max) {
+    int bound = SPECIES.loopBound(n);
+    for (int i = 0; i < bound; i += SPECIES.length()) {
+      DoubleVector.fromArray(SPECIES, values, i).max(min).min(max).intoArray(values, i);
+    }
+    ScalarBlockKernels.clamp(values, bound, n, min, max);
+  }
+
+  @Override
+  public void negate(double[] values, int n) {
+    int bound = SPECIES.loopBound(n);
+    for (int i = 0; i < bound; i += SPECIES.length()) {
+      DoubleVector.fromArray(SPECIES, values, i).neg().intoArray(values, i);
+    }
+    ScalarBlockKernels.negate(values, bound, n);
+  }
+
+  @Override
+  public void alternate(double[] values, int n, double value) {
+    DoubleVector signed = DoubleVector.broadcast(SPECIES, -value).blend(value, EVEN_LANES);
+    int bound = SPECIES.loopBound(n);
+    for (int i = 0; i < bound; i += SPECIES.length()) {
+      DoubleVector.fromArray(SPECIES, values, i).add(signed).intoArray(values, i);
+    }
+    ScalarBlockKernels.alternate(values, bound, n, value);
+  }
+
+  // Math.round rounds ties up rather than to even, so a value exactly half
+  // way above its rounded value is moved up one. NaN rounds to 0 as it does
+  // in Math.round.
+  @Override
+  public void round(double[] values, int n, long factor) {
+    double scale = factor;
+    int bound = SPECIES.loopBound(n);
+    for (int i = 0; i < bound; i += SPECIES.length()) {
+      DoubleVector value = DoubleVector.fromArray(SPECIES, values, i).mul(scale);
+      DoubleVector rounded = value.add(ROUNDING_MAGIC).sub(ROUNDING_MAGIC);
+      rounded = rounded.add(1.0, value.sub(rounded).compare(VectorOperators.EQ, 0.5));
+      rounded = rounded.blend(value, value.abs().compare(VectorOperators.GE, MAX_ROUNDED));
+      rounded = rounded.blend(0.0, value.compare(VectorOperators.NE, value));
+      rounded.div(scale).intoArray(values, i);
+    }
+    ScalarBlockKernels.round(values, bound, n, factor);
+  }
+
+  @Override
+  public void affine(double[] x, double[] y, int n, double m00, double m01, double m02, double m10, double m11, double m12) {
+    int bound = SPECIES.loopBound(n);
+    for (int i = 0; i < bound; i += SPECIES.length()) {
+      DoubleVector vx = DoubleVector.fromArray(SPECIES, x, i);
+      DoubleVector vy = DoubleVector.fromArray(SPECIES, y, i);
+      vx.mul(m00).add(vy.mul(m01)).add(m02).intoArray(x, i);
+      vx.mul(m10).add(vy.mul(m11)).add(m12).intoArray(y, i);
+    }
+    ScalarBlockKernels.affine(x, y, bound, n, m00, m01, m02, m10, m11, m12);
+  }
+}
@@ -0,0 +1,137 @@
+package sh.ball.math.fft;
+
+import java.util.Arrays;
+
+// A radix-2 FFT of one size that can be run again and again without
+// allocating. The twiddle factors, bit-reversal swaps and Hann window are
+// worked out once when the plan is made, and transforms work in place on
+// arrays owned by the caller.
+//
+// Two real signals, such as the left and right channels, are transformed
+// together as one complex signal, left + i * right, and separated afterwards
+// using the symmetry of the transform of a real signal. This is half the work
+// of transforming each on its own.
+public final class FFTPlan {
+
+  private final int size;
+  // e^(-2 pi i k / size) for k < size / 2
+  private final double[] cos;
+  private final double[] sin;
+  // pairs of indices swapped to put the input in bit-reversed order
+  private final int[] swaps;
+  // null if no window is applied
+  private final double[] window;
+
+  // the size must be a power of two
+  public FFTPlan(int size, boolean hannWindow) {
+    if (size < 2 || Integer.bitCount(size) != 1) {
+      throw new IllegalArgumentException("FFT size must be a power of two, not " + size);
+    }
+    this.size = size;
+
+    int half = size / 2;
+    this.cos = new double[half];
+    this.sin = new double[half];
+    for (int k = 0; k < half; k++) {
+      double angle = -2 * Math.PI * k / size;
+      cos[k] = Math.cos(angle);
+      sin[k] = Math.sin(angle);
+    }
+
+    int bits = Integer.numberOfTrailingZeros(size);
+    int count = 0;
+    int[] swaps = new int[size];
+    for (int i = 0; i < size; i++) {
+      int j = Integer.reverse(i) >>> (32 - bits);
+      if (i < j) {
+        swaps[count++] = i;
+        swaps[count++] = j;
+      }
+    }
+    this.swaps = Arrays.copyOf(swaps, count);
+
+    if (hannWindow) {
+      this.window = new double[size];
+      for (int i = 0; i < size; i++) {
+        window[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / size);
+      }
+    } else {
+      this.window = null;
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  // bin k of the spectrum is the frequency k * binWidth
+  public double binWidth(double sampleRate) {
+    return sampleRate / size;
+  }
+
+  // Forward transform of real + i * imaginary, in place. The window isn't
+  // applied.
+  public void transform(double[] real, double[] imaginary) {
+    for (int s = 0; s < swaps.length; s += 2) {
+      int i = swaps[s];
+      int j = swaps[s + 1];
+      double r = real[i];
+      real[i] = real[j];
+      real[j] = r;
+      double im = imaginary[i];
+      imaginary[i] = imaginary[j];
+      imaginary[j] = im;
+    }
+
+    for (int half = 1; half < size; half *= 2) {
+      int step = size / (2 * half);
+      for (int k = 0; k < half; k++) {
+        double wr = cos[k * step];
+        double wi = sin[k * step];
+        for (int left = k; left < size; left += 2 * half) {
+          int right = left + half;
+          double tr = wr * real[right] - wi * imaginary[right];
+          double ti = wr * imaginary[right] + wi * real[right];
+          real[right] = real[left] - tr;
+          imaginary[right] = imaginary[left] - ti;
+          real[left] += tr;
+          imaginary[left] += ti;
+        }
+      }
+    }
+  }
+
+  // Replaces the first size / 2 values of left and right with the magnitude
+  // spectra of the two real signals they hold, windowed if the plan has a
+  // window. Each magnitude is divided by the size, the same as
+  // FFT.getMagnitudeSpectrum. The rest of each array is left as scratch.
+  public void magnitudeSpectra(double[] left, double[] right) {
+    if (window != null) {
+      for (int i = 0; i < size; i++) {
+        left[i] *= window[i];
+        right[i] *= window[i];
+      }
+    }
+
+    transform(left, right);
+
+    // With Z the transform of left + i * right, the transforms of left and
+    // right at k are (Z[k] + conj(Z[size - k])) / 2 and
+    // (Z[k] - conj(Z[size - k])) / 2i. Only indices below size / 2 are
+    // written, and size - k is never one of them, so this can be in place.
+    double scale = 0.5 / size;
+    for (int k = 0; k < size / 2; k++) {
+      int mirror = k == 0 ? 0 : size - k;
+      double zr = left[k];
+      double zi = right[k];
+      double wr = left[mirror];
+      double wi = right[mirror];
+      double lr = zr + wr;
+      double li = zi - wi;
+      double rr = zr - wr;
+      double ri = zi + wi;
+      left[k] = Math.sqrt(lr * lr + li * li) * scale;
+      right[k] = Math.sqrt(rr * rr + ri * ri) * scale;
+    }
+  }
+}
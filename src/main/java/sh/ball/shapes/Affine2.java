@@ -0,0 +1,66 @@
+package sh.ball.shapes;
+
+import sh.ball.math.BlockKernels;
+
+// Mutable 2x3 matrix for an affine transform of a 2D vector:
+//
+//   x' = m00 * x + m01 * y + m02
+//   y' = m10 * x + m11 * y + m12
+//
+// Each operation is applied after the transform built so far, so calling
+// rotate then translate rotates a vector and then translates it. Used on the
+// audio thread to collapse a run of effects into one transform.
+public final class Affine2 {
+
+  private double m00, m01, m02;
+  private double m10, m11, m12;
+
+  public Affine2() {
+    setIdentity();
+  }
+
+  public void set(Affine2 transform) {
+    m00 = transform.m00; m01 = transform.m01; m02 = transform.m02;
+    m10 = transform.m10; m11 = transform.m11; m12 = transform.m12;
+  }
+
+  public void setIdentity() {
+    m00 = 1; m01 = 0; m02 = 0;
+    m10 = 0; m11 = 1; m12 = 0;
+  }
+
+  // rotates about (0,0) by the angle with the given cosine and sine
+  public void rotate(double cos, double sin) {
+    double r00 = cos * m00 - sin * m10;
+    double r01 = cos * m01 - sin * m11;
+    double r02 = cos * m02 - sin * m12;
+    m10 = sin * m00 + cos * m10;
+    m11 = sin * m01 + cos * m11;
+    m12 = sin * m02 + cos * m12;
+    m00 = r00;
+    m01 = r01;
+    m02 = r02;
+  }
+
+  public void translate(double x, double y) {
+    m02 += x;
+    m12 += y;
+  }
+
+  public boolean isIdentity() {
+    return m00 == 1 && m01 == 0 && m02 == 0 && m10 == 0 && m11 == 1 && m12 == 0;
+  }
+
+  public void apply(MutableVector2 vector) {
+    double x = vector.x;
+    double y = vector.y;
+    vector.x = m00 * x + m01 * y + m02;
+    vector.y = m10 * x + m11 * y + m12;
+  }
+
+  // applies the transform to the first n vectors, with x and y in separate
+  // arrays
+  public void apply(double[] x, double[] y, int n, BlockKernels kernels) {
+    kernels.affine(x, y, n, m00, m01, m02, m10, m11, m12);
+  }
+}
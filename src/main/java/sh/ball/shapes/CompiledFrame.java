@@ -0,0 +1,83 @@
+package sh.ball.shapes;
+
+import java.util.List;
+
+// A frame of shapes compiled once, off the audio thread, into a cumulative
+// length index. Positions along the frame are measured in the same units as
+// Shape.getLength(), so the audio thread can seek to a position with a binary
+// search and step forward with a cursor instead of walking the shapes and
+// recomputing their lengths.
+public final class CompiledFrame {
+
+  private final Shape[] shapes;
+  private final double[] lengths;
+  // ends[i] is the combined length of shapes 0 to i inclusive
+  private final double[] ends;
+  private final double length;
+
+  public CompiledFrame(List<? extends Shape> shapes) {
+    this.shapes = shapes.toArray(new Shape[0]);
+    this.lengths = new double[this.shapes.length];
+    this.ends = new double[this.shapes.length];
+
+    double total = 0;
+    for (int i = 0; i < this.shapes.length; i++) {
+      lengths[i] = this.shapes[i].getLength();
+      total += lengths[i];
+      ends[i] = total;
+    }
+    this.length = total;
+  }
+
+  public int size() {
+    return shapes.length;
+  }
+
+  public double length() {
+    return length;
+  }
+
+  public Shape shape(int index) {
+    return shapes[index];
+  }
+
+  // returns the index of the shape being drawn at the given position, i.e.
+  // the first shape that ends at or after it, or size() if the position is
+  // past the end of the frame.
+  public int seek(double position) {
+    int low = 0;
+    int high = shapes.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (ends[mid] < position) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  // moves the cursor at index forward to the shape being drawn at the given
+  // position. This is cheaper than seek when the position has only moved a
+  // small amount, as it has on every sample.
+  public int advance(int index, double position) {
+    while (index < shapes.length && ends[index] < position) {
+      index++;
+    }
+    return index;
+  }
+
+  // writes the point at the given position into vector, where index is the
+  // shape being drawn at that position.
+  public void sample(int index, double position, MutableVector2 vector) {
+    if (shapes.length == 0) {
+      vector.set(0, 0);
+      return;
+    }
+    index = Math.min(index, shapes.length - 1);
+    double shapeLength = lengths[index];
+    double drawingProgress = shapeLength == 0 ? 1 : (position - (ends[index] - shapeLength)) / shapeLength;
+    shapes[index].nextVector(drawingProgress, vector);
+  }
+}
@@ -24,6 +24,18 @@ public class CubicBezierCurve extends Shape {
       .add(p3.scale(Math.pow(t, 3)));
   }
 
+  @Override
+  public void nextVector(double t, MutableVector2 vector) {
+    double a = (1 - t) * (1 - t) * (1 - t);
+    double b = 3 * (1 - t) * (1 - t) * t;
+    double c = 3 * (1 - t) * t * t;
+    double d = t * t * t;
+    vector.set(
+      a * p0.x + b * p1.x + c * p2.x + d * p3.x,
+      a * p0.y + b * p1.y + c * p2.y + d * p3.y
+    );
+  }
+
   @Override
   public CubicBezierCurve rotate(double theta) {
     return new CubicBezierCurve(p0.rotate(theta), p1.rotate(theta), p2.rotate(theta),
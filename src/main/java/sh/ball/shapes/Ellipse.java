@@ -33,6 +33,15 @@ public final class Ellipse extends Shape {
     ));
   }
 
+  @Override
+  public void nextVector(double drawingProgress, MutableVector2 vector) {
+    double theta = 2 * Math.PI * drawingProgress;
+    vector.set(
+      position.x + a * Math.cos(theta) * Math.cos(rotation) - b * Math.sin(theta) * Math.sin(rotation),
+      position.y + a * Math.cos(theta) * Math.sin(rotation) + b * Math.sin(theta) * Math.cos(rotation)
+    );
+  }
+
   @Override
   public Ellipse rotate(double theta) {
     if (theta + rotation > 2 * Math.PI) {
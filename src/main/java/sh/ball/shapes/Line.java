@@ -65,6 +65,14 @@ public final class Line extends Shape {
     );
   }
 
+  @Override
+  public void nextVector(double drawingProgress, MutableVector2 vector) {
+    vector.set(
+      a.x + drawingProgress * (b.x - a.x),
+      a.y + drawingProgress * (b.y - a.y)
+    );
+  }
+
   public Vector2 getA() {
     return a;
   }
@@ -0,0 +1,46 @@
+package sh.ball.shapes;
+
+// Mutable counterpart to Vector2 used as a scratch slot on the audio thread.
+// Samples are carried through shape sampling, the effect chain and the output
+// in place so that the hot path doesn't allocate a new Vector2 at every step.
+public final class MutableVector2 {
+
+  public double x;
+  public double y;
+
+  public MutableVector2(double x, double y) {
+    this.x = x;
+    this.y = y;
+  }
+
+  public MutableVector2() {
+    this(0, 0);
+  }
+
+  public void set(double x, double y) {
+    this.x = x;
+    this.y = y;
+  }
+
+  public void set(Vector2 vector) {
+    this.x = vector.x;
+    this.y = vector.y;
+  }
+
+  public void scale(double factor) {
+    x *= factor;
+    y *= factor;
+  }
+
+  public Vector2 toVector2() {
+    return new Vector2(x, y);
+  }
+
+  @Override
+  public String toString() {
+    return "MutableVector2{" +
+      "x=" + x +
+      ", y=" + y +
+      '}';
+  }
+}
@@ -12,6 +12,12 @@ public abstract class Shape {
 
   public abstract Vector2 nextVector(double drawingProgress);
 
+  // allocation-free variant of nextVector that writes into the given vector.
+  // Shapes that are drawn on the audio thread should override this.
+  public void nextVector(double drawingProgress, MutableVector2 vector) {
+    vector.set(nextVector(drawingProgress));
+  }
+
   public abstract Shape rotate(double theta);
 
   public abstract Shape scale(double factor);
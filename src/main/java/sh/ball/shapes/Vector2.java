@@ -59,6 +59,11 @@ public final class Vector2 extends Shape {
     return this;
   }
 
+  @Override
+  public void nextVector(double drawingProgress, MutableVector2 vector) {
+    vector.set(x, y);
+  }
+
   @Override
   public Vector2 rotate(double theta) {
     double cosTheta = Math.cos(theta);
@@ -0,0 +1,73 @@
+package sh.ball.audio;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChannelMapTest {
+
+  @Test
+  public void parsesSourcesAndConstants() {
+    ChannelMap map = ChannelMap.parse(" x, Y ,blanking,shape-x,-0.5");
+    assertEquals(List.of(
+      ChannelMap.Route.of(ChannelMap.Source.X),
+      ChannelMap.Route.of(ChannelMap.Source.Y),
+      ChannelMap.Route.of(ChannelMap.Source.BLANKING),
+      ChannelMap.Route.of(ChannelMap.Source.SHAPE_X),
+      ChannelMap.Route.constant(-0.5)
+    ), map.routes());
+    assertEquals("x,y,blanking,shape-x,-0.5", map.toString());
+  }
+
+  @Test
+  public void channelsBeyondTheMapCarryTheBrightness() {
+    assertEquals(ChannelMap.Route.of(ChannelMap.Source.BRIGHTNESS), ChannelMap.DEFAULT.route(2));
+  }
+
+  @Test
+  public void rejectsUnknownSources() {
+    assertThrows(IllegalArgumentException.class, () -> ChannelMap.parse("x,z"));
+    // a constant is given as its value
+    assertThrows(IllegalArgumentException.class, () -> ChannelMap.parse("x,constant"));
+  }
+
+  // Channels past the map carry the brightness, and nothing before the
+  // start frame is written.
+  @Test
+  public void writerInterleavesEachSourceFromTheStartFrame() {
+    ChannelWriter writer = ChannelMap.parse("x,y,shape-x,shape-y,blanking,0.25").compile(7);
+    assertTrue(writer.needsShape());
+    assertTrue(writer.needsBlanking());
+
+    int start = 2;
+    int n = 3;
+    float[] buffer = new float[(start + n) * writer.channels()];
+    Arrays.fill(buffer, Float.NaN);
+    double[] x = {0.1, 0.2, 0.3};
+    double[] y = {-0.1, -0.2, -0.3};
+    double[] shapeX = {0.4, 0.5, 0.6};
+    double[] shapeY = {-0.4, -0.5, -0.6};
+    double[] blanking = {1, 0, 1};
+    writer.write(buffer, start, n, x, y, shapeX, shapeY, blanking, 0.5);
+
+    for (int i = 0; i < start * writer.channels(); i++) {
+      assertTrue(Float.isNaN(buffer[i]), "sample " + i + " is before the start frame");
+    }
+    for (int i = 0; i < n; i++) {
+      int frame = (start + i) * writer.channels();
+      assertArrayEquals(new float[]{
+        (float) x[i], (float) y[i], (float) shapeX[i], (float) shapeY[i], (float) (0.5 * blanking[i]), 0.25f, 0.5f
+      }, Arrays.copyOfRange(buffer, frame, frame + writer.channels()), "frame " + (start + i));
+    }
+  }
+
+  @Test
+  public void writerWithoutShapeSourcesDoesNotNeedTheShape() {
+    ChannelWriter writer = ChannelMap.parse("x,y,0").compile(3);
+    assertFalse(writer.needsShape());
+    assertFalse(writer.needsBlanking());
+  }
+}
@@ -0,0 +1,121 @@
+package sh.ball.audio;
+
+import org.junit.jupiter.api.Test;
+import sh.ball.audio.effect.BitCrushEffect;
+import sh.ball.audio.effect.EffectType;
+import sh.ball.audio.effect.RotateEffect;
+import sh.ball.audio.effect.SmoothEffect;
+import sh.ball.audio.effect.WobbleEffect;
+import sh.ball.audio.engine.AudioDevice;
+import sh.ball.audio.engine.AudioSample;
+import sh.ball.audio.engine.SimpleAudioDevice;
+import sh.ball.audio.engine.VirtualAudioEngine;
+import sh.ball.audio.midi.MidiCommunicator;
+import sh.ball.shapes.Line;
+import sh.ball.shapes.Shape;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Renders blocks on a VirtualAudioEngine and uses the thread's allocation
+// counter to check that, once warmed up, rendering a block allocates nothing.
+class ShapeAudioPlayerAllocationTest {
+
+  private static final int SAMPLE_RATE = 48000;
+  private static final int BLOCK_FRAMES = 512;
+  // enough for the Vector API kernels to be compiled, which box every
+  // vector until they are
+  private static final int WARMUP_BLOCKS = 10000;
+  private static final int BLOCKS = 1000;
+
+  private final com.sun.management.ThreadMXBean threads =
+    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  @Test
+  void blockableChainAllocatesNothing() throws Exception {
+    assertRendersWithoutAllocating(player -> {
+      player.addEffect(EffectType.ROTATE, new RotateEffect(SAMPLE_RATE, 0.5));
+      player.addEffect(EffectType.BIT_CRUSH, new BitCrushEffect());
+    });
+  }
+
+  @Test
+  void perSampleChainAllocatesNothing() throws Exception {
+    assertRendersWithoutAllocating(player -> {
+      player.addEffect(EffectType.WOBBLE, new WobbleEffect(SAMPLE_RATE, 0.5));
+      player.addEffect(EffectType.SMOOTH, new SmoothEffect(10));
+    });
+  }
+
+  private void assertRendersWithoutAllocating(EffectSetup effects) throws Exception {
+    AudioDevice device = new SimpleAudioDevice("test", "Test", SAMPLE_RATE, AudioSample.FLOAT32, 2);
+    VirtualAudioEngine engine = new VirtualAudioEngine(device, BLOCK_FRAMES);
+    ShapeAudioPlayer player = new ShapeAudioPlayer(() -> engine, new MidiCommunicator());
+    player.setDevice(device);
+    player.setFrameSource(new SquareSource());
+    effects.add(player);
+
+    // play() runs on this thread, so the warmup lets the JIT compile the
+    // render loop before anything is counted
+    engine.setDuration((long) WARMUP_BLOCKS * BLOCK_FRAMES);
+    player.run();
+
+    // counted from one block's listener call to the next, which is all that
+    // the engine and player do for a block, leaving out what play() and
+    // run() allocate once before the first
+    long[] last = {-1};
+    long[] allocated = {0};
+    engine.addListener((buffer, frames, channels) -> {
+      long now = threads.getCurrentThreadAllocatedBytes();
+      if (last[0] >= 0) {
+        allocated[0] += now - last[0];
+      }
+      last[0] = now;
+    });
+    engine.setDuration(engine.framesRendered() + (long) BLOCKS * BLOCK_FRAMES);
+    player.run();
+
+    assertEquals(0, allocated[0], "bytes allocated over " + (BLOCKS - 1) + " blocks");
+  }
+
+  private interface EffectSetup {
+    void add(ShapeAudioPlayer player);
+  }
+
+  // the same square every frame
+  private static class SquareSource implements FrameSource<List<Shape>> {
+
+    private final List<Shape> square = List.of(
+      new Line(-0.5, -0.5, 0.5, -0.5),
+      new Line(0.5, -0.5, 0.5, 0.5),
+      new Line(0.5, 0.5, -0.5, 0.5),
+      new Line(-0.5, 0.5, -0.5, -0.5)
+    );
+
+    @Override
+    public List<Shape> next() {
+      return square;
+    }
+
+    @Override
+    public boolean isActive() {
+      return true;
+    }
+
+    @Override
+    public void disable() {}
+
+    @Override
+    public void enable() {}
+
+    @Override
+    public void setFrameSettings(Object settings) {}
+
+    @Override
+    public Object getFrameSettings() {
+      return null;
+    }
+  }
+}
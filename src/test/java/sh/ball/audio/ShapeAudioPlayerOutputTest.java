@@ -0,0 +1,114 @@
+package sh.ball.audio;
+
+import org.junit.jupiter.api.Test;
+import sh.ball.audio.engine.AudioDevice;
+import sh.ball.audio.engine.AudioSample;
+import sh.ball.audio.engine.SimpleAudioDevice;
+import sh.ball.audio.engine.VirtualAudioEngine;
+import sh.ball.audio.midi.MidiCommunicator;
+import sh.ball.shapes.Line;
+import sh.ball.shapes.Shape;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Renders two lines that don't join up to a four channel device with the
+// channel map "x,y,blanking,0.5", and checks what comes out of each channel.
+class ShapeAudioPlayerOutputTest {
+
+  private static final int SAMPLE_RATE = 48000;
+  private static final int CHANNELS = 4;
+  // doesn't divide the duration, so the last block is shorter, and jumps
+  // fall at different places in each block
+  private static final int BLOCK_FRAMES = 500;
+  private static final int FRAMES = 4321;
+  // much further than a sample of drawing moves along a line, and much less
+  // than the gap between the lines
+  private static final double JUMP = 0.1;
+
+  @Test
+  void channelMapRoutesEachChannelAndBlanksJumps() throws Exception {
+    AudioDevice device = new SimpleAudioDevice("test", "Test", SAMPLE_RATE, AudioSample.FLOAT32, CHANNELS);
+    VirtualAudioEngine engine = new VirtualAudioEngine(device, BLOCK_FRAMES);
+    ShapeAudioPlayer player = new ShapeAudioPlayer(() -> engine, new MidiCommunicator());
+    player.setDevice(device);
+    player.setChannelMap(ChannelMap.parse("x,y,blanking,0.5"));
+    player.setFrameSource(new TwoLineSource());
+
+    float[] output = new float[FRAMES * CHANNELS];
+    int[] written = {0};
+    engine.addListener((buffer, frames, channels) -> {
+      assertEquals(CHANNELS, channels);
+      System.arraycopy(buffer, 0, output, written[0], frames * channels);
+      written[0] += frames * channels;
+    });
+    engine.setDuration(FRAMES);
+    player.run();
+    assertEquals(output.length, written[0]);
+
+    int jumps = 0;
+    for (int frame = 0; frame < FRAMES; frame++) {
+      int index = frame * CHANNELS;
+      float x = output[index];
+      float y = output[index + 1];
+      float blanking = output[index + 2];
+      String message = "frame " + frame;
+
+      // each line keeps its own y and x range, so x and y can't have been
+      // swapped or mixed with another channel
+      if (y == -0.5f) {
+        assertTrue(x >= -0.5f && x <= -0.1f, message);
+      } else {
+        assertEquals(0.5f, y, message);
+        assertTrue(x >= 0.1f && x <= 0.5f, message);
+      }
+      assertEquals(0.5f, output[index + 3], message);
+
+      // the first frame jumps from the centre, where the beam starts
+      float lastX = frame == 0 ? 0 : output[index - CHANNELS];
+      float lastY = frame == 0 ? 0 : output[index - CHANNELS + 1];
+      boolean jump = Math.hypot(x - lastX, y - lastY) > JUMP;
+      assertEquals(jump ? 0f : 1f, blanking, message);
+      if (jump) {
+        jumps++;
+      }
+    }
+    // from one line to the other and back to the start of the frame, many
+    // times over
+    assertTrue(jumps > 10, jumps + " jumps");
+  }
+
+  // the same two lines, far apart, every frame
+  private static class TwoLineSource implements FrameSource<List<Shape>> {
+
+    private final List<Shape> lines = List.of(
+      new Line(-0.5, -0.5, -0.1, -0.5),
+      new Line(0.1, 0.5, 0.5, 0.5)
+    );
+
+    @Override
+    public List<Shape> next() {
+      return lines;
+    }
+
+    @Override
+    public boolean isActive() {
+      return true;
+    }
+
+    @Override
+    public void disable() {}
+
+    @Override
+    public void enable() {}
+
+    @Override
+    public void setFrameSettings(Object settings) {}
+
+    @Override
+    public Object getFrameSettings() {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package sh.ball.audio.effect;
+
+import org.junit.jupiter.api.Test;
+import sh.ball.shapes.MutableVector2;
+import sh.ball.shapes.Vector2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EffectAnimatorTest {
+
+  private static final int SAMPLE_RATE = 48000;
+  // RAMP_SECONDS at 48kHz
+  private static final int RAMP_SAMPLES = 240;
+
+  // a consumer gets its value without the animator being applied, as when
+  // its effect isn't selected or nothing is playing
+  @Test
+  public void consumerIsSetStraightAway() {
+    List<Double> values = new ArrayList<>();
+    EffectAnimator animator = new EffectAnimator(SAMPLE_RATE, new ConsumerEffect(values::add));
+    animator.setValue(0.3);
+    animator.setValue(0.7);
+    assertEquals(List.of(0.3, 0.7), values);
+
+    animator.updateValue();
+    assertEquals(List.of(0.3, 0.7, 0.7), values);
+  }
+
+  // the audio thread doesn't call the consumer on every sample after a change
+  @Test
+  public void consumerIsNotRamped() {
+    List<Double> values = new ArrayList<>();
+    EffectAnimator animator = new EffectAnimator(SAMPLE_RATE, new ConsumerEffect(values::add));
+    EffectChain chain = new EffectChain(List.of(animator));
+    MutableVector2 vector = new MutableVector2();
+    applyBlock(chain, vector);
+    values.clear();
+
+    animator.setValue(0.9);
+    applyBlock(chain, vector);
+    applyBlock(chain, vector);
+    assertEquals(List.of(0.9), values);
+  }
+
+  // an effect on the samples is only set by the audio thread, moving to a
+  // new value over the ramp
+  @Test
+  public void audioRateEffectIsRamped() {
+    List<Double> values = new ArrayList<>();
+    SettableEffect effect = new SettableEffect() {
+      @Override
+      public void setValue(double value) {
+        values.add(value);
+      }
+
+      @Override
+      public Vector2 apply(int count, Vector2 vector) {
+        return vector;
+      }
+    };
+    EffectAnimator animator = new EffectAnimator(SAMPLE_RATE, effect);
+    animator.setValue(0.2);
+    assertTrue(values.isEmpty());
+
+    EffectChain chain = new EffectChain(List.of(animator));
+    MutableVector2 vector = new MutableVector2();
+    applyBlock(chain, vector);
+    assertEquals(List.of(0.2), values);
+
+    values.clear();
+    animator.setValue(0.8);
+    applyBlock(chain, vector);
+    assertEquals(RAMP_SAMPLES, values.size());
+    assertEquals(0.2 + 0.6 / RAMP_SAMPLES, values.get(0), 1e-12);
+    assertEquals(0.8, values.get(RAMP_SAMPLES - 1), 1e-12);
+  }
+
+  private static void applyBlock(EffectChain chain, MutableVector2 vector) {
+    chain.beginBlock();
+    for (int i = 0; i < 512; i++) {
+      vector.set(0.5, 0.5);
+      chain.apply(i, vector);
+    }
+  }
+}
@@ -0,0 +1,138 @@
+package sh.ball.audio.effect;
+
+import org.junit.jupiter.api.Test;
+import sh.ball.math.BlockKernels;
+import sh.ball.shapes.MutableVector2;
+import sh.ball.shapes.Vector2;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// Checks that collapsing static effects, and applying the chain a block at a
+// time, gives the same samples as applying each effect to each sample in
+// turn.
+public class EffectChainTest {
+
+  private static final int SAMPLE_RATE = 48000;
+  private static final int BLOCK_FRAMES = 512;
+  private static final int BLOCKS = 8;
+  private static final double TOLERANCE = 1e-9;
+
+  // Bit crushing comes first so that it rounds the same input in every case,
+  // as a different rounding error from the collapsed transforms could move a
+  // sample to the next step.
+  private static List<Effect> effects() {
+    TranslateEffect ellipse = new TranslateEffect(SAMPLE_RATE, 0.7, new Vector2(0.2, 0.1));
+    ellipse.setEllipse(true);
+    return List.of(
+      new BitCrushEffect(),
+      new VerticalDistortEffect(0.1),
+      new TranslateEffect(SAMPLE_RATE, 0, new Vector2(0.1, -0.2)),
+      new RotateEffect(SAMPLE_RATE),
+      new ConsumerEffect(value -> {}),
+      new HorizontalDistortEffect(0.05),
+      ellipse,
+      new RotateEffect(SAMPLE_RATE, 0.3)
+    );
+  }
+
+  private static double[] input(int count) {
+    double phase = 2 * Math.PI * 440 * count / SAMPLE_RATE;
+    return new double[]{Math.sin(phase), Math.cos(1.5 * phase)};
+  }
+
+  // the expected samples, applying every effect on its own
+  private static double[][] reference() {
+    List<Effect> effects = effects();
+    int frames = BLOCKS * BLOCK_FRAMES;
+    double[][] output = new double[2][frames];
+    MutableVector2 vector = new MutableVector2();
+    for (int i = 0; i < frames; i++) {
+      if (i == BLOCKS / 2 * BLOCK_FRAMES) {
+        changeSettings(effects);
+      }
+      double[] sample = input(i);
+      vector.set(sample[0], sample[1]);
+      for (Effect effect : effects) {
+        effect.apply(i, vector);
+      }
+      output[0][i] = vector.x;
+      output[1][i] = vector.y;
+    }
+    return output;
+  }
+
+  // starts the static rotation moving and stops the moving one half way
+  // through
+  private static void changeSettings(List<Effect> effects) {
+    ((RotateEffect) effects.get(3)).setSpeed(0.5);
+    ((RotateEffect) effects.get(7)).setSpeed(0);
+  }
+
+  @Test
+  public void perSampleMatchesEachEffectInTurn() {
+    double[][] expected = reference();
+    List<Effect> effects = effects();
+    EffectChain chain = new EffectChain(effects);
+    MutableVector2 vector = new MutableVector2();
+    for (int block = 0; block < BLOCKS; block++) {
+      if (block == BLOCKS / 2) {
+        changeSettings(effects);
+      }
+      chain.beginBlock();
+      for (int j = 0; j < BLOCK_FRAMES; j++) {
+        int count = block * BLOCK_FRAMES + j;
+        double[] sample = input(count);
+        vector.set(sample[0], sample[1]);
+        chain.apply(count, vector);
+        assertEquals(expected[0][count], vector.x, TOLERANCE, "x at " + count);
+        assertEquals(expected[1][count], vector.y, TOLERANCE, "y at " + count);
+      }
+    }
+  }
+
+  @Test
+  public void blockMatchesEachEffectInTurnWithScalarKernels() {
+    assertBlocksMatch(false);
+  }
+
+  @Test
+  public void blockMatchesEachEffectInTurnWithSimdKernels() {
+    assumeTrue(BlockKernels.isSimdAvailable(), "the Vector API kernels are only built with -P simd");
+    assertBlocksMatch(true);
+  }
+
+  private static void assertBlocksMatch(boolean simd) {
+    boolean wasSimd = BlockKernels.isSimd();
+    BlockKernels.setSimd(simd);
+    try {
+      double[][] expected = reference();
+      List<Effect> effects = effects();
+      EffectChain chain = new EffectChain(effects);
+      double[] x = new double[BLOCK_FRAMES];
+      double[] y = new double[BLOCK_FRAMES];
+      for (int block = 0; block < BLOCKS; block++) {
+        if (block == BLOCKS / 2) {
+          changeSettings(effects);
+        }
+        chain.beginBlock();
+        assertTrue(chain.isBlockable());
+        int start = block * BLOCK_FRAMES;
+        for (int j = 0; j < BLOCK_FRAMES; j++) {
+          double[] sample = input(start + j);
+          x[j] = sample[0];
+          y[j] = sample[1];
+        }
+        chain.apply(start, x, y, BLOCK_FRAMES, BlockKernels.current());
+        for (int j = 0; j < BLOCK_FRAMES; j++) {
+          assertEquals(expected[0][start + j], x[j], TOLERANCE, "x at " + (start + j));
+          assertEquals(expected[1][start + j], y[j], TOLERANCE, "y at " + (start + j));
+        }
+      }
+    } finally {
+      BlockKernels.setSimd(wasSimd);
+    }
+  }
+}
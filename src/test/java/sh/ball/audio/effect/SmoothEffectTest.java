@@ -0,0 +1,170 @@
+package sh.ball.audio.effect;
+
+import org.junit.jupiter.api.Test;
+import sh.ball.shapes.MutableVector2;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SmoothEffectTest {
+
+  private static final double TOLERANCE = 1e-9;
+
+  private static double sample(int count) {
+    return Math.sin(count * 0.01) + 0.3 * Math.cos(count * 0.37);
+  }
+
+  // the mean of the window, summed from scratch
+  private static double mean(int count, int windowSize) {
+    double sum = 0;
+    for (int i = count - windowSize + 1; i <= count; i++) {
+      sum += i < 0 ? 0 : sample(i);
+    }
+    return sum / windowSize;
+  }
+
+  // Changes the window between small and big sizes, including past the
+  // ring's starting size, and checks the mean once each change has had time
+  // to be spread over the following samples.
+  @Test
+  public void movingAverageIsTheMeanOfTheWindow() {
+    SmoothEffect effect = new SmoothEffect(32);
+    MutableVector2 vector = new MutableVector2();
+    int[] windowSizes = {32, 5000, 1, SmoothEffect.MAX_WINDOW_SIZE, 700, 20000};
+    int count = 0;
+    for (int windowSize : windowSizes) {
+      effect.setWindowSize(windowSize);
+      for (int i = 0; i < 2 * SmoothEffect.MAX_WINDOW_SIZE; i++, count++) {
+        vector.set(sample(count), -sample(count));
+        effect.apply(count, vector);
+      }
+      assertEquals(mean(count - 1, windowSize), vector.x, TOLERANCE, "window of " + windowSize);
+      assertEquals(-mean(count - 1, windowSize), vector.y, TOLERANCE, "window of " + windowSize);
+    }
+  }
+
+  // a big change of window is spread over many samples, rather than being
+  // made all at once
+  @Test
+  public void bigChangeIsSpreadOut() {
+    SmoothEffect effect = new SmoothEffect(1);
+    MutableVector2 vector = new MutableVector2();
+    effect.setWindowSize(SmoothEffect.MAX_WINDOW_SIZE);
+    vector.set(1, 1);
+    effect.apply(0, vector);
+    assertTrue(vector.x > 0.01, "only part of the window is averaged over straight away");
+  }
+
+  @Test
+  public void sliderReachesTheLargestWindow() {
+    SmoothEffect effect = new SmoothEffect(1);
+    MutableVector2 vector = new MutableVector2();
+    effect.setValue(2);
+    int count = 0;
+    for (; count < 2 * SmoothEffect.MAX_WINDOW_SIZE; count++) {
+      vector.set(sample(count), 0);
+      effect.apply(count, vector);
+    }
+    assertEquals(mean(count - 1, SmoothEffect.MAX_WINDOW_SIZE), vector.x, TOLERANCE);
+  }
+
+  // Runs a step from 0 to 1 through the filter, after enough zeros for the
+  // window to have settled, and returns the output from the step onwards.
+  private static double[] stepResponse(SmoothEffect.Filter filter, int windowSize, int samples) {
+    SmoothEffect effect = new SmoothEffect(windowSize);
+    effect.setFilter(filter);
+    MutableVector2 vector = new MutableVector2();
+    int count = 0;
+    for (; count < 2 * windowSize; count++) {
+      vector.set(0, 0);
+      effect.apply(count, vector);
+    }
+    double[] response = new double[samples];
+    for (int i = 0; i < samples; i++, count++) {
+      vector.set(1, -1);
+      effect.apply(count, vector);
+      response[i] = vector.x;
+      assertEquals(-vector.x, vector.y, TOLERANCE);
+    }
+    return response;
+  }
+
+  // samples after the step at which the response first reaches half way
+  private static int halfWay(double[] response) {
+    for (int i = 0; i < response.length; i++) {
+      if (response[i] >= 0.5) {
+        return i;
+      }
+    }
+    return response.length;
+  }
+
+  @Test
+  public void onePoleIsAnExponentialSmoother() {
+    int windowSize = 101;
+    double[] response = stepResponse(SmoothEffect.Filter.ONE_POLE, windowSize, 1000);
+    // the time constant is half the window
+    double decay = Math.exp(-2.0 / (windowSize - 1));
+    for (int i = 0; i < response.length; i++) {
+      assertEquals(1 - Math.pow(decay, i + 1), response[i], TOLERANCE, "sample " + i);
+    }
+  }
+
+  @Test
+  public void fourPoleRisesSmoothlyToTheInput() {
+    double[] response = stepResponse(SmoothEffect.Filter.FOUR_POLE, 101, 2000);
+    double[] onePole = stepResponse(SmoothEffect.Filter.ONE_POLE, 101, 1);
+    for (int i = 1; i < response.length; i++) {
+      assertTrue(response[i] >= response[i - 1], "sample " + i);
+    }
+    // four poles start far slower than one, as each smooths the one before
+    assertTrue(response[0] < onePole[0] / 100);
+    assertEquals(1, response[response.length - 1], 1e-9);
+  }
+
+  // every filter lags a ramp by about half the window, as the moving
+  // average does
+  @Test
+  public void filtersHaveTheDelayOfTheMovingAverage() {
+    int windowSize = 1001;
+    double delay = (windowSize - 1) / 2.0;
+    for (SmoothEffect.Filter filter : SmoothEffect.Filter.values()) {
+      SmoothEffect effect = new SmoothEffect(windowSize);
+      effect.setFilter(filter);
+      MutableVector2 vector = new MutableVector2();
+      int count = 0;
+      for (; count < 20 * windowSize; count++) {
+        vector.set(count, 0);
+        effect.apply(count, vector);
+      }
+      assertEquals(delay, count - 1 - vector.x, 0.01 * windowSize, filter.name());
+    }
+    // a step is half way through the moving average and the four poles after
+    // about the same delay
+    assertEquals(delay, halfWay(stepResponse(SmoothEffect.Filter.MOVING_AVERAGE, windowSize, 4 * windowSize)), 1);
+    assertEquals(delay, halfWay(stepResponse(SmoothEffect.Filter.FOUR_POLE, windowSize, 4 * windowSize)), 0.1 * windowSize);
+  }
+
+  // the poles start from the last output, so changing to an IIR filter
+  // doesn't make the output jump
+  @Test
+  public void changingToAnIIRFilterDoesNotJump() {
+    SmoothEffect effect = new SmoothEffect(256);
+    MutableVector2 vector = new MutableVector2();
+    int count = 0;
+    double last = 0;
+    for (SmoothEffect.Filter filter : new SmoothEffect.Filter[]{
+      SmoothEffect.Filter.MOVING_AVERAGE, SmoothEffect.Filter.ONE_POLE,
+      SmoothEffect.Filter.FOUR_POLE, SmoothEffect.Filter.ONE_POLE
+    }) {
+      effect.setFilter(filter);
+      for (int i = 0; i < 2048; i++, count++) {
+        vector.set(sample(count), 0);
+        effect.apply(count, vector);
+        if (count > 0) {
+          assertEquals(last, vector.x, 0.05, filter.name() + " at sample " + count);
+        }
+        last = vector.x;
+      }
+    }
+  }
+}
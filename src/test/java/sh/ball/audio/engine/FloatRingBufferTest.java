@@ -0,0 +1,108 @@
+package sh.ball.audio.engine;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FloatRingBufferTest {
+
+  @Test
+  void capacityIsRoundedUpToAPowerOfTwo() {
+    assertEquals(8, new FloatRingBuffer(5, 1).capacity());
+    assertEquals(8, new FloatRingBuffer(8, 2).capacity());
+    assertEquals(2, new FloatRingBuffer(0, 1).capacity());
+    // never smaller than a frame
+    assertEquals(8, new FloatRingBuffer(1, 6).capacity());
+  }
+
+  @Test
+  void readsWhatWasWrittenAcrossTheWrap() {
+    FloatRingBuffer ring = new FloatRingBuffer(8, 2);
+    float[] out = new float[6];
+
+    assertEquals(6, ring.write(new float[] {1, 2, 3, 4, 5, 6}, 0, 6));
+    assertEquals(4, ring.read(out, 0, 4));
+    // the next write wraps around the end of the buffer
+    assertEquals(6, ring.write(new float[] {7, 8, 9, 10, 11, 12}, 0, 6));
+    assertEquals(8, ring.size());
+    assertEquals(6, ring.read(out, 0, 6));
+
+    assertArrayEquals(new float[] {5, 6, 7, 8, 9, 10}, out);
+    assertEquals(2, ring.size());
+  }
+
+  @Test
+  void writesOnlyAsMuchAsFits() {
+    FloatRingBuffer ring = new FloatRingBuffer(8, 1);
+    float[] samples = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+
+    assertEquals(8, ring.write(samples, 0, samples.length));
+    assertEquals(0, ring.write(samples, 8, 2));
+
+    float[] out = new float[10];
+    assertEquals(8, ring.read(out, 1, 9));
+    assertArrayEquals(new float[] {0, 1, 2, 3, 4, 5, 6, 7, 8, 0}, out);
+    assertEquals(0, ring.read(out, 0, 1));
+  }
+
+  @Test
+  void neverReadsOrWritesPartOfAFrame() {
+    FloatRingBuffer ring = new FloatRingBuffer(8, 3);
+    float[] frames = {1, 2, 3, 4, 5, 6, 7, 8, 9};
+
+    // 8 samples of room is only two whole frames of three channels
+    assertEquals(6, ring.write(frames, 0, frames.length));
+    // asking for 5 samples only gets the first whole frame
+    float[] out = new float[5];
+    assertEquals(3, ring.read(out, 0, 5));
+    assertArrayEquals(new float[] {1, 2, 3, 0, 0}, out);
+
+    // a frame split by the wrap still comes out whole and in order
+    assertEquals(3, ring.write(frames, 6, 3));
+    float[] rest = new float[6];
+    assertEquals(6, ring.read(rest, 0, 6));
+    assertArrayEquals(new float[] {4, 5, 6, 7, 8, 9}, rest);
+  }
+
+  @Test
+  void producerAndConsumerThreadsSeeEverySampleInOrder() throws InterruptedException {
+    FloatRingBuffer ring = new FloatRingBuffer(64, 2);
+    int total = 1 << 18;
+
+    Thread producer = new Thread(() -> {
+      float[] block = new float[10];
+      int next = 0;
+      while (next < total) {
+        int length = Math.min(block.length, total - next);
+        for (int i = 0; i < length; i++) {
+          block[i] = next + i;
+        }
+        int offset = 0;
+        while (offset < length) {
+          int written = ring.write(block, offset, length - offset);
+          if (written == 0) {
+            Thread.yield();
+          }
+          offset += written;
+        }
+        next += length;
+      }
+    });
+    producer.start();
+
+    float[] out = new float[14];
+    int expected = 0;
+    while (expected < total) {
+      int read = ring.read(out, 0, out.length);
+      if (read == 0) {
+        Thread.yield();
+      }
+      for (int i = 0; i < read; i++) {
+        assertEquals(expected++, (int) out[i]);
+      }
+    }
+    producer.join();
+    assertEquals(0, ring.size());
+  }
+}
@@ -0,0 +1,157 @@
+package sh.ball.audio.engine;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Drives LineLatency the same way JavaAudioEngine does, against a simulated
+// SourceDataLine that plays in real time on a simulated clock.
+public class LineLatencyTest {
+
+  private static final int SAMPLE_RATE = 48000;
+  private static final long SECOND = 1_000_000_000L;
+  private static final long STABLE_NANOS = 10 * SECOND;
+  private static final int LINE_FRAMES = frames(250);
+  private static final int TARGET_FRAMES = frames(30);
+  private static final int MIN_FRAMES = frames(5);
+  private static final int MAX_BLOCK_FRAMES = LINE_FRAMES / 2;
+  private static final long RENDER_NANOS = 1_000_000;
+
+  private static int frames(int ms) {
+    return SAMPLE_RATE * ms / 1000;
+  }
+
+  // A line holding lineFrames. The position either stops when the line is
+  // empty or keeps counting the silence played, and can lag behind what's
+  // actually been played, as it does on different mixers.
+  private static class Line {
+
+    private final int lineFrames;
+    private final boolean countsSilence;
+    private final long positionLag;
+
+    private long written = 0;
+    private long played = 0;
+    private long silence = 0;
+    private long nanos = 0;
+
+    Line(int lineFrames, boolean countsSilence, long positionLag) {
+      this.lineFrames = lineFrames;
+      this.countsSilence = countsSilence;
+      this.positionLag = positionLag;
+    }
+
+    void advance(long nanos) {
+      long before = this.nanos * SAMPLE_RATE / SECOND;
+      this.nanos += nanos;
+      long frames = this.nanos * SAMPLE_RATE / SECOND - before;
+      long playable = Math.min(frames, written - played);
+      played += playable;
+      if (countsSilence) {
+        silence += frames - playable;
+      }
+    }
+
+    long position() {
+      return Math.max(0, played + silence - positionLag);
+    }
+
+    int available() {
+      return (int) (lineFrames - (written - played));
+    }
+  }
+
+  private static class Engine {
+
+    private final Line line;
+    private final LineLatency latency;
+    private long now = 0;
+    private int underruns = 0;
+
+    Engine(boolean adaptive, Line line) {
+      this.line = line;
+      this.latency = new LineLatency(adaptive, line.lineFrames, TARGET_FRAMES, MIN_FRAMES, STABLE_NANOS, now);
+    }
+
+    void advance(long nanos) {
+      line.advance(nanos);
+      now += nanos;
+    }
+
+    void play(long nanos) {
+      long end = now + nanos;
+      while (now < end) {
+        if (latency.update(line.position(), line.available(), now)) {
+          underruns++;
+        }
+        int block = latency.blockFrames(MAX_BLOCK_FRAMES);
+        long excess = latency.excessFrames(block);
+        if (excess > 0) {
+          advance(excess * SECOND / SAMPLE_RATE);
+          continue;
+        }
+        advance(RENDER_NANOS);
+        // the write blocks until the line has room
+        while (line.available() < block) {
+          advance((block - line.available()) * SECOND / SAMPLE_RATE + 1);
+        }
+        line.written += block;
+        latency.written(block);
+      }
+    }
+  }
+
+  @Test
+  public void adaptiveLatencyDropsToTheMinimumWhenKeepingUp() {
+    for (Line line : new Line[]{
+      new Line(LINE_FRAMES, false, 0),
+      new Line(LINE_FRAMES, true, 0),
+      new Line(LINE_FRAMES, false, frames(20)),
+    }) {
+      Engine engine = new Engine(true, line);
+      engine.play(100 * SECOND);
+
+      assertEquals(0, engine.underruns);
+      assertEquals(MIN_FRAMES, engine.latency.targetFrames());
+      assertTrue(engine.latency.fill() <= (double) MIN_FRAMES / LINE_FRAMES);
+    }
+  }
+
+  @Test
+  public void stallIsCountedOnceAndDoublesTheTargetOnce() {
+    for (Line line : new Line[]{
+      new Line(LINE_FRAMES, false, 0),
+      new Line(LINE_FRAMES, true, 0),
+      // the position never catches up with what's written, so only the
+      // empty line shows the stall
+      new Line(LINE_FRAMES, false, frames(20)),
+    }) {
+      Engine engine = new Engine(true, line);
+      engine.play(25 * SECOND);
+      int target = engine.latency.targetFrames();
+      assertEquals(0, engine.underruns);
+
+      engine.advance(SECOND / 10);
+      engine.play(5 * SECOND);
+
+      assertEquals(1, engine.underruns);
+      assertEquals(2 * target, engine.latency.targetFrames());
+    }
+  }
+
+  @Test
+  public void fixedLatencyFillsTheWholeLine() {
+    Engine engine = new Engine(false, new Line(LINE_FRAMES, false, 0));
+    engine.play(5 * SECOND);
+
+    assertEquals(0, engine.underruns);
+    assertEquals(LINE_FRAMES, engine.latency.targetFrames());
+    assertEquals(MAX_BLOCK_FRAMES, engine.latency.blockFrames(MAX_BLOCK_FRAMES));
+    assertTrue(engine.latency.excessFrames(MAX_BLOCK_FRAMES) <= 0);
+
+    engine.advance(SECOND);
+    engine.play(SECOND);
+    assertEquals(1, engine.underruns);
+    assertEquals(LINE_FRAMES, engine.latency.targetFrames());
+  }
+}
@@ -0,0 +1,89 @@
+package sh.ball.audio.engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SampleEncoderTest {
+
+  // silence, full scale, half scale and beyond full scale, which is clamped
+  private static final float[] BLOCK = {0, 1, -1, 0.5f, -0.5f, 1.5f, -1.5f};
+
+  private static Object encode(AudioSample sample) {
+    SampleEncoder encoder = SampleEncoder.of(sample, false);
+    assertEquals(sample, encoder.sample());
+    Object output = encoder.allocate(BLOCK.length);
+    encoder.encode(BLOCK, output, BLOCK.length);
+    return output;
+  }
+
+  @Test
+  public void uint8IsOffsetByHalfScale() {
+    assertArrayEquals(new byte[]{(byte) 128, (byte) 255, 0, (byte) 192, 64, (byte) 255, 0}, (byte[]) encode(AudioSample.UINT8));
+  }
+
+  @Test
+  public void int8() {
+    assertArrayEquals(new byte[]{0, 127, -128, 64, -64, 127, -128}, (byte[]) encode(AudioSample.INT8));
+  }
+
+  @Test
+  public void int16TruncatesTowardsZero() {
+    assertArrayEquals(new short[]{0, 32767, -32767, 16383, -16383, 32767, -32768}, (short[]) encode(AudioSample.INT16));
+  }
+
+  @Test
+  public void int24IsPackedLittleEndian() {
+    assertArrayEquals(new byte[]{
+      0, 0, 0,
+      (byte) 0xFF, (byte) 0xFF, 0x7F,
+      0x01, 0x00, (byte) 0x80,
+      (byte) 0xFF, (byte) 0xFF, 0x3F,
+      0x01, 0x00, (byte) 0xC0,
+      (byte) 0xFF, (byte) 0xFF, 0x7F,
+      0x00, 0x00, (byte) 0x80
+    }, (byte[]) encode(AudioSample.INT24));
+  }
+
+  @Test
+  public void int32() {
+    assertArrayEquals(new int[]{0, Integer.MAX_VALUE, -Integer.MAX_VALUE, 1073741823, -1073741823, Integer.MAX_VALUE, Integer.MIN_VALUE},
+      (int[]) encode(AudioSample.INT32));
+  }
+
+  @Test
+  public void floatsAreNotScaledOrClamped() {
+    assertArrayEquals(BLOCK, (float[]) encode(AudioSample.FLOAT32));
+    assertArrayEquals(new double[]{0, 1, -1, 0.5, -0.5, 1.5, -1.5}, (double[]) encode(AudioSample.FLOAT64));
+  }
+
+  @Test
+  public void onlyTheFirstNSamplesAreEncoded() {
+    SampleEncoder encoder = SampleEncoder.of(AudioSample.INT16, false);
+    short[] output = new short[]{7, 7, 7};
+    encoder.encode(new float[]{1, 1, 1}, output, 2);
+    assertArrayEquals(new short[]{32767, 32767, 7}, output);
+  }
+
+  // TPDF dither moves each sample by at most a step either side of the
+  // nearest, and averages out to the value before quantising
+  @Test
+  public void ditherIsUnbiased() {
+    int samples = 1 << 16;
+    double steps = 0.3;
+    float[] block = new float[samples];
+    Arrays.fill(block, (float) (steps / Short.MAX_VALUE));
+    SampleEncoder encoder = SampleEncoder.of(AudioSample.INT16, true);
+    short[] output = (short[]) encoder.allocate(samples);
+    encoder.encode(block, output, samples);
+
+    double sum = 0;
+    for (short sample : output) {
+      assertTrue(sample >= -1 && sample <= 1, "sample " + sample);
+      sum += sample;
+    }
+    assertEquals(steps, sum / samples, 0.01);
+  }
+}
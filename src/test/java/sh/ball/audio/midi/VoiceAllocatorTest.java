@@ -0,0 +1,92 @@
+package sh.ball.audio.midi;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VoiceAllocatorTest {
+
+  private static final int SAMPLE_RATE = 1000;
+  private static final Envelope INSTANT = new Envelope(0, 0, 1, 0, Envelope.Curve.LINEAR);
+
+  private static void tick(VoiceAllocator voices, int samples) {
+    for (int i = 0; i < samples; i++) {
+      voices.tick();
+    }
+  }
+
+  @Test
+  void releasesAreKeptWhenTheQueueIsFull() {
+    VoiceAllocator voices = new VoiceAllocator(SAMPLE_RATE);
+    voices.setEnvelope(INSTANT);
+    voices.setPolyphony(VoiceAllocator.MAX_POLYPHONY);
+
+    // the audio thread isn't ticking, so these fill the queue and overflow
+    for (int i = 0; i < 2000; i++) {
+      voices.noteOn(i % 16, i % 128, 100);
+    }
+    for (int i = 0; i < 2000; i++) {
+      voices.noteOff(i % 16, i % 128);
+    }
+    assertTrue(voices.droppedEvents() > 0);
+
+    tick(voices, 100);
+    assertEquals(0, voices.activeVoices());
+  }
+
+  @Test
+  void noteOnsAfterAnOverflowedReleaseAreDropped() {
+    VoiceAllocator voices = new VoiceAllocator(SAMPLE_RATE);
+    voices.setEnvelope(INSTANT);
+
+    for (int i = 0; i < 1024; i++) {
+      voices.noteOn(0, 60, 100);
+    }
+    voices.noteOff(0, 60);
+    // would be applied before the pending release if it were queued
+    voices.noteOn(0, 61, 100);
+
+    tick(voices, 100);
+    assertEquals(0.0, voices.level(0, 60));
+    assertEquals(0.0, voices.level(0, 61));
+    assertEquals(2, voices.droppedEvents());
+
+    voices.noteOn(0, 62, 127);
+    tick(voices, 100);
+    assertEquals(1.0, voices.level(0, 62));
+  }
+
+  @Test
+  void resetNoteIsNeverStolen() {
+    VoiceAllocator voices = new VoiceAllocator(SAMPLE_RATE);
+    voices.setEnvelope(INSTANT);
+    voices.setPolyphony(1);
+    voices.reset(0, 60);
+    tick(voices, 1);
+
+    voices.noteOn(1, 64, 127);
+    voices.noteOn(1, 67, 127);
+    tick(voices, 100);
+
+    assertEquals(1.0, voices.level(0, 60));
+    assertEquals(0.0, voices.level(1, 64));
+    assertEquals(1.0, voices.level(1, 67));
+    assertEquals(2, voices.activeVoices());
+    assertEquals(1, voices.stolenVoices());
+  }
+
+  @Test
+  void resetNoteCanBeStolenOnceReleased() {
+    VoiceAllocator voices = new VoiceAllocator(SAMPLE_RATE);
+    voices.setEnvelope(new Envelope(0, 0, 1, 1, Envelope.Curve.LINEAR));
+    voices.setPolyphony(1);
+    voices.reset(0, 60);
+    voices.allNotesOff();
+    voices.noteOn(1, 64, 127);
+    tick(voices, 1);
+
+    assertEquals(0.0, voices.level(0, 60));
+    assertEquals(1, voices.activeVoices());
+  }
+}
@@ -0,0 +1,64 @@
+package sh.ball.cli;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Renders a small project and compares the output, to 16-bit resolution,
+// with the golden files next to it. If a change to rendering is meant to
+// change the output, the golden files are updated by running
+// OfflineRenderer with --update-golden on them.
+public class OfflineRendererTest {
+
+  private static final double SECONDS = 5;
+
+  private static Path resource(String name) throws Exception {
+    return Path.of(OfflineRendererTest.class.getResource(name).toURI());
+  }
+
+  private static OfflineRenderer renderer(String golden) throws Exception {
+    OfflineRenderer renderer = new OfflineRenderer(resource("test.osci"));
+    renderer.setSeconds(SECONDS);
+    renderer.setGolden(resource(golden));
+    return renderer;
+  }
+
+  private static void assertMatchesGolden(OfflineRenderer renderer) throws Exception {
+    OfflineRenderer.Result result = renderer.render();
+    assertEquals(SECONDS, result.audioSeconds(), 1e-9);
+    assertTrue(result.goldenMatched(), "output hash " + result.hash() + " doesn't match the golden file");
+  }
+
+  @Test
+  public void projectMatchesGolden() throws Exception {
+    assertMatchesGolden(renderer("test.golden"));
+  }
+
+  @Test
+  public void midiMatchesGolden() throws Exception {
+    OfflineRenderer renderer = renderer("test-midi.golden");
+    renderer.setMidi(resource("test.mid"));
+    assertMatchesGolden(renderer);
+  }
+
+  // MIDI events are run at their exact frame, so the block size doesn't
+  // change the output
+  @Test
+  public void midiMatchesGoldenWithAnyBlockSize() throws Exception {
+    OfflineRenderer renderer = renderer("test-midi.golden");
+    renderer.setMidi(resource("test.mid"));
+    renderer.setBlockFrames(333);
+    assertMatchesGolden(renderer);
+  }
+
+  @Test
+  public void missingGoldenFileFails() throws Exception {
+    OfflineRenderer renderer = new OfflineRenderer(resource("test.osci"));
+    renderer.setSeconds(SECONDS);
+    renderer.setGolden(resource("test.golden").resolveSibling("missing.golden"));
+    assertThrows(NoSuchFileException.class, renderer::render);
+  }
+}
@@ -0,0 +1,102 @@
+package sh.ball.math;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// Checks that the Vector API kernels give exactly the same values as the
+// scalar kernels, including for the samples left over at the end of a
+// block. Skipped unless built with the simd profile, which also adds the
+// Vector API module to the tests.
+public class BlockKernelsTest {
+
+  private static final BlockKernels SCALAR = new ScalarBlockKernels();
+  // block lengths around the number of lanes and the player's block size
+  private static final int[] LENGTHS = {0, 1, 2, 3, 4, 5, 7, 8, 9, 15, 16, 17, 511, 512, 513};
+
+  private final Random random = new Random(42);
+
+  private interface Kernel {
+    void apply(BlockKernels kernels, double[] x, double[] y, int n);
+  }
+
+  private static BlockKernels vector() {
+    assumeTrue(BlockKernels.isSimdAvailable(), "the Vector API kernels are only built with -P simd");
+    boolean wasSimd = BlockKernels.isSimd();
+    BlockKernels.setSimd(true);
+    BlockKernels vector = BlockKernels.current();
+    BlockKernels.setSimd(wasSimd);
+    return vector;
+  }
+
+  private double[] values(int n) {
+    double[] values = new double[n + 3];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = 4 * random.nextDouble() - 2;
+    }
+    return values;
+  }
+
+  // Runs the kernel on the same values with both kernels. The arrays are
+  // longer than n so that writing past n shows up.
+  private void assertKernelsMatch(Kernel kernel) {
+    BlockKernels vector = vector();
+    for (int n : LENGTHS) {
+      double[] x = values(n);
+      double[] y = values(n);
+      double[] vectorX = Arrays.copyOf(x, x.length);
+      double[] vectorY = Arrays.copyOf(y, y.length);
+      kernel.apply(SCALAR, x, y, n);
+      kernel.apply(vector, vectorX, vectorY, n);
+      assertArrayEquals(x, vectorX, "x with n = " + n);
+      assertArrayEquals(y, vectorY, "y with n = " + n);
+    }
+  }
+
+  @Test
+  public void scale() {
+    assertKernelsMatch((kernels, x, y, n) -> kernels.scale(x, n, 0.37));
+  }
+
+  @Test
+  public void clamp() {
+    assertKernelsMatch((kernels, x, y, n) -> kernels.clamp(x, n, -1, 1));
+  }
+
+  @Test
+  public void negate() {
+    assertKernelsMatch((kernels, x, y, n) -> kernels.negate(x, n));
+  }
+
+  @Test
+  public void alternate() {
+    assertKernelsMatch((kernels, x, y, n) -> kernels.alternate(x, n, 0.2));
+  }
+
+  @Test
+  public void round() {
+    assertKernelsMatch((kernels, x, y, n) -> kernels.round(x, n, 7));
+    assertKernelsMatch((kernels, x, y, n) -> kernels.round(x, n, 1000));
+  }
+
+  // values exactly half way between two steps, either side of zero, and
+  // NaN, which Math.round rounds to 0
+  @Test
+  public void roundTiesAndNaN() {
+    assertKernelsMatch((kernels, x, y, n) -> {
+      for (int i = 0; i < n; i++) {
+        x[i] = i % 5 == 0 ? Double.NaN : (i - n / 2) + 0.5;
+      }
+      kernels.round(x, n, 1);
+    });
+  }
+
+  @Test
+  public void affine() {
+    assertKernelsMatch((kernels, x, y, n) -> kernels.affine(x, y, n, 0.8, -0.6, 0.1, 0.6, 0.8, -0.2));
+  }
+}
@@ -0,0 +1,99 @@
+package sh.ball.math.fft;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FFTPlanTest {
+
+  private static final int[] SIZES = {4, 8, 64, 1024, 4096};
+
+  // noise with a sine at a different frequency in each channel, so that the
+  // two spectra are easy to tell apart if they're mixed up
+  private static double[] signal(Random random, int size, double cycles) {
+    double[] signal = new double[size];
+    for (int i = 0; i < size; i++) {
+      signal[i] = Math.sin(2 * Math.PI * cycles * i / size) + 0.25 * (random.nextDouble() * 2 - 1);
+    }
+    return signal;
+  }
+
+  private static void assertSpectrumEquals(double[] expected, double[] actual, int bins, String message) {
+    double max = Arrays.stream(expected).max().orElse(0);
+    for (int k = 0; k < bins; k++) {
+      assertEquals(expected[k], actual[k], 1e-12 * Math.max(1, max), message + " bin " + k);
+    }
+  }
+
+  @Test
+  public void magnitudeSpectraMatchFFT() {
+    Random random = new Random(0);
+    for (boolean hannWindow : new boolean[]{false, true}) {
+      for (int size : SIZES) {
+        double[] left = signal(random, size, size / 8.0);
+        double[] right = signal(random, size, size / 4.0 + 1);
+        double[] expectedLeft = new FFT(left, null, false, hannWindow).getMagnitudeSpectrum();
+        double[] expectedRight = new FFT(right, null, false, hannWindow).getMagnitudeSpectrum();
+
+        FFTPlan plan = new FFTPlan(size, hannWindow);
+        plan.magnitudeSpectra(left, right);
+
+        String message = "size " + size + (hannWindow ? " with" : " without") + " window,";
+        assertSpectrumEquals(expectedLeft, left, size / 2, message + " left");
+        assertSpectrumEquals(expectedRight, right, size / 2, message + " right");
+      }
+    }
+  }
+
+  @Test
+  public void planCanBeReused() {
+    Random random = new Random(1);
+    FFTPlan plan = new FFTPlan(512, true);
+    for (int run = 0; run < 4; run++) {
+      double[] left = signal(random, 512, 3 + run);
+      double[] right = signal(random, 512, 100 - run);
+      double[] expectedLeft = new FFT(left, null, false, true).getMagnitudeSpectrum();
+      double[] expectedRight = new FFT(right, null, false, true).getMagnitudeSpectrum();
+
+      plan.magnitudeSpectra(left, right);
+
+      assertSpectrumEquals(expectedLeft, left, 256, "run " + run + " left");
+      assertSpectrumEquals(expectedRight, right, 256, "run " + run + " right");
+    }
+  }
+
+  // FFT transforms with e^(2 pi i k n / size) rather than e^(-2 pi i k n / size),
+  // so the complex transform is checked against the definition instead
+  @Test
+  public void transformMatchesDFT() {
+    Random random = new Random(2);
+    for (int size : SIZES) {
+      double[] real = random.doubles(size, -1, 1).toArray();
+      double[] imaginary = random.doubles(size, -1, 1).toArray();
+      double[] expectedReal = new double[size];
+      double[] expectedImaginary = new double[size];
+      for (int k = 0; k < size; k++) {
+        for (int n = 0; n < size; n++) {
+          double angle = -2 * Math.PI * ((long) k * n % size) / size;
+          expectedReal[k] += real[n] * Math.cos(angle) - imaginary[n] * Math.sin(angle);
+          expectedImaginary[k] += real[n] * Math.sin(angle) + imaginary[n] * Math.cos(angle);
+        }
+      }
+
+      new FFTPlan(size, false).transform(real, imaginary);
+
+      assertArrayEquals(expectedReal, real, 1e-9, "size " + size + " real");
+      assertArrayEquals(expectedImaginary, imaginary, 1e-9, "size " + size + " imaginary");
+    }
+  }
+
+  @Test
+  public void rejectsSizesThatAreNotPowersOfTwo() {
+    for (int size : new int[]{-4, 0, 1, 3, 100, 1023}) {
+      assertThrows(IllegalArgumentException.class, () -> new FFTPlan(size, false));
+    }
+  }
+}